@@ -19,6 +19,10 @@ dependencies {
 
     implementation("org.ow2.asm:asm:9.6")
     implementation("org.ow2.asm:asm-util:9.6")
+
+    testImplementation(platform("org.junit:junit-bom:5.10.2"))
+    testImplementation("org.junit.jupiter:junit-jupiter")
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
 }
 
 java {
@@ -29,8 +33,69 @@ java {
     }
 }
 
+tasks.test {
+    useJUnitPlatform()
+}
+
 publishing {
     publications.create<MavenPublication>("maven") {
         from(components["java"])
     }
-}
\ No newline at end of file
+}
+
+// The Vector API kernels compile against the incubator module, so they get a source set of their own,
+// and only that compile task sees the flag (and its warning). They're bundled into the main jar, and only loaded
+// if VectorApiFunction.isAvailable(), so the module is only needed at runtime if MolangCompilerOptions.vectorApiThreshold is used.
+val vectorApi: SourceSet by sourceSets.creating
+
+tasks.named<JavaCompile>(vectorApi.compileJavaTaskName) {
+    options.compilerArgs.add("--add-modules=jdk.incubator.vector")
+}
+
+sourceSets {
+    main {
+        compileClasspath += vectorApi.output
+        runtimeClasspath += vectorApi.output
+    }
+    test {
+        compileClasspath += vectorApi.output
+        runtimeClasspath += vectorApi.output
+    }
+}
+
+tasks.jar {
+    from(vectorApi.output)
+}
+
+tasks.named<Jar>("sourcesJar") {
+    from(vectorApi.allSource)
+}
+
+// Precompile bundled expressions into a jar of generated classes plus a manifest, so they load at runtime without parsing or running ASM.
+// Reads the .molang files under src/main/molang, or -PmolangSources=<dir>, and is skipped if there's no such directory.
+// Pass -PmolangContext=a,b for context variable names.
+val precompileMolang by tasks.registering(JavaExec::class) {
+    group = "build"
+    description = "Precompiles .molang files into build/libs/precompiled-molang.jar"
+    val sources = layout.projectDirectory.dir(providers.gradleProperty("molangSources").orElse("src/main/molang"))
+    val output = layout.buildDirectory.file("libs/precompiled-molang.jar")
+    val context = providers.gradleProperty("molangContext")
+    // The sources are optional, so projects without any .molang files can still run the whole build
+    inputs.dir(sources).optional().withPathSensitivity(PathSensitivity.RELATIVE)
+    onlyIf("the sources directory exists") { sources.get().asFile.isDirectory }
+    inputs.property("molangContext", context.orElse(""))
+    outputs.file(output)
+    classpath = sourceSets.main.get().runtimeClasspath
+    mainClass = "org.figuramc.figura_molang.MolangPrecompiler"
+    argumentProviders.add(CommandLineArgumentProvider {
+        listOf(sources.get().asFile.path, output.get().asFile.path) + context.map { listOf("--context", it) }.getOrElse(listOf())
+    })
+}
+
+// Runs one of the main() benchmarks from the test source set, e.g. ./gradlew benchmark -Pbenchmark=StrengthReductionBenchmark
+val benchmark by tasks.registering(JavaExec::class) {
+    group = "verification"
+    description = "Runs the benchmark class named by -Pbenchmark"
+    classpath = sourceSets.test.get().runtimeClasspath
+    mainClass = providers.gradleProperty("benchmark").map { "org.figuramc.figura_molang.$it" }
+}
@@ -2,6 +2,7 @@ package org.figuramc.figura_molang;
 
 
 import java.util.Arrays;
+import java.util.Objects;
 
 public abstract class CompiledMolang<Actor> {
 
@@ -9,6 +10,10 @@ public abstract class CompiledMolang<Actor> {
     public final int argCount;
     public final int returnCount;
 
+    // The program this was instantiated from, if any. Keeps the program (and so its class) alive while this is reachable,
+    // since programs are only weakly cached when classes can be unloaded individually.
+    MolangProgram program;
+
     public CompiledMolang(MolangInstance<Actor, ?> instance, int argCount, int returnCount) {
         this.instance = instance;
         this.argCount = argCount;
@@ -27,6 +32,38 @@ public abstract class CompiledMolang<Actor> {
     protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g) { throw new UnsupportedOperationException("Wrong argument count to CompiledMolang.evaluateImpl()"); }
     protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g, float h) { throw new UnsupportedOperationException("Wrong argument count to CompiledMolang.evaluateImpl()"); }
 
+    // Same as evaluateImpl(), for exprs with a returnCount of 1, returning the value itself.
+    // Generated classes implement these without storing the value in the float[]; anything else falls back to evaluateImpl().
+    protected float evaluateScalarImpl() { return evaluateImpl()[0]; }
+    protected float evaluateScalarImpl(float a) { return evaluateImpl(a)[0]; }
+    protected float evaluateScalarImpl(float a, float b) { return evaluateImpl(a, b)[0]; }
+    protected float evaluateScalarImpl(float a, float b, float c) { return evaluateImpl(a, b, c)[0]; }
+    protected float evaluateScalarImpl(float a, float b, float c, float d) { return evaluateImpl(a, b, c, d)[0]; }
+    protected float evaluateScalarImpl(float a, float b, float c, float d, float e) { return evaluateImpl(a, b, c, d, e)[0]; }
+    protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f) { return evaluateImpl(a, b, c, d, e, f)[0]; }
+    protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f, float g) { return evaluateImpl(a, b, c, d, e, f, g)[0]; }
+    protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f, float g, float h) { return evaluateImpl(a, b, c, d, e, f, g, h)[0]; }
+
+    // Evaluate once per row. Generated classes run the expr's code inside the loop; anything else evaluates row by row.
+    // Same layouts as evaluateBatch(), which has already checked the bounds.
+    protected void evaluateBatchImpl(float[] args, int rows, float[] out) {
+        for (int row = 0; row < rows; row++) {
+            float[] result = switch (argCount) {
+                case 0 -> evaluateImpl();
+                case 1 -> evaluateImpl(args[row]);
+                case 2 -> evaluateImpl(args[row], args[rows + row]);
+                case 3 -> evaluateImpl(args[row], args[rows + row], args[2 * rows + row]);
+                case 4 -> evaluateImpl(args[row], args[rows + row], args[2 * rows + row], args[3 * rows + row]);
+                case 5 -> evaluateImpl(args[row], args[rows + row], args[2 * rows + row], args[3 * rows + row], args[4 * rows + row]);
+                case 6 -> evaluateImpl(args[row], args[rows + row], args[2 * rows + row], args[3 * rows + row], args[4 * rows + row], args[5 * rows + row]);
+                case 7 -> evaluateImpl(args[row], args[rows + row], args[2 * rows + row], args[3 * rows + row], args[4 * rows + row], args[5 * rows + row], args[6 * rows + row]);
+                case 8 -> evaluateImpl(args[row], args[rows + row], args[2 * rows + row], args[3 * rows + row], args[4 * rows + row], args[5 * rows + row], args[6 * rows + row], args[7 * rows + row]);
+                default -> throw new IllegalStateException("Must have at most 8 context variables");
+            };
+            System.arraycopy(result, 0, out, row * returnCount, returnCount);
+        }
+    }
+
     // TODO Catch errors around evaluation and error out the molang's owning avatar?
 
     // Evaluate the expr and return a slice letting you access result values safely
@@ -53,6 +90,82 @@ public abstract class CompiledMolang<Actor> {
     public final FloatArraySlice evaluate(float a, float b, float c, float d, float e, float f, float g) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g), 0, returnCount); } }
     public final FloatArraySlice evaluate(float a, float b, float c, float d, float e, float f, float g, float h) { if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g, h), 0, returnCount); } finally { instance.reEntrantFlag--; } } else { return new FloatArraySlice(evaluateImpl(a, b, c, d, e, f, g, h), 0, returnCount); } }
 
+    // Evaluate the expr and write its result values into dst, from offset to offset + returnCount.
+    // Unlike evaluate(), nothing is allocated once the expr has a generated class, and the results don't alias a shared array.
+    // (While an expr is still interpreted, or evaluated re-entrantly, the evaluation itself may allocate.)
+    public final void evaluateInto(float[] dst, int offset) {
+        Objects.checkFromIndexSize(offset, returnCount, dst.length);
+        if (instance.reEntrantFlag < 2) {
+            try {
+                instance.reEntrantFlag++;
+                System.arraycopy(evaluateImpl(), 0, dst, offset, returnCount);
+            } finally {
+                instance.reEntrantFlag--;
+            }
+        } else {
+            System.arraycopy(evaluateImpl(), 0, dst, offset, returnCount);
+        }
+    }
+
+    // Same again, with different arg counts
+    public final void evaluateInto(float[] dst, int offset, float a) { Objects.checkFromIndexSize(offset, returnCount, dst.length); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; System.arraycopy(evaluateImpl(a), 0, dst, offset, returnCount); } finally { instance.reEntrantFlag--; } } else { System.arraycopy(evaluateImpl(a), 0, dst, offset, returnCount); } }
+    public final void evaluateInto(float[] dst, int offset, float a, float b) { Objects.checkFromIndexSize(offset, returnCount, dst.length); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; System.arraycopy(evaluateImpl(a, b), 0, dst, offset, returnCount); } finally { instance.reEntrantFlag--; } } else { System.arraycopy(evaluateImpl(a, b), 0, dst, offset, returnCount); } }
+    public final void evaluateInto(float[] dst, int offset, float a, float b, float c) { Objects.checkFromIndexSize(offset, returnCount, dst.length); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; System.arraycopy(evaluateImpl(a, b, c), 0, dst, offset, returnCount); } finally { instance.reEntrantFlag--; } } else { System.arraycopy(evaluateImpl(a, b, c), 0, dst, offset, returnCount); } }
+    public final void evaluateInto(float[] dst, int offset, float a, float b, float c, float d) { Objects.checkFromIndexSize(offset, returnCount, dst.length); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; System.arraycopy(evaluateImpl(a, b, c, d), 0, dst, offset, returnCount); } finally { instance.reEntrantFlag--; } } else { System.arraycopy(evaluateImpl(a, b, c, d), 0, dst, offset, returnCount); } }
+    public final void evaluateInto(float[] dst, int offset, float a, float b, float c, float d, float e) { Objects.checkFromIndexSize(offset, returnCount, dst.length); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; System.arraycopy(evaluateImpl(a, b, c, d, e), 0, dst, offset, returnCount); } finally { instance.reEntrantFlag--; } } else { System.arraycopy(evaluateImpl(a, b, c, d, e), 0, dst, offset, returnCount); } }
+    public final void evaluateInto(float[] dst, int offset, float a, float b, float c, float d, float e, float f) { Objects.checkFromIndexSize(offset, returnCount, dst.length); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; System.arraycopy(evaluateImpl(a, b, c, d, e, f), 0, dst, offset, returnCount); } finally { instance.reEntrantFlag--; } } else { System.arraycopy(evaluateImpl(a, b, c, d, e, f), 0, dst, offset, returnCount); } }
+    public final void evaluateInto(float[] dst, int offset, float a, float b, float c, float d, float e, float f, float g) { Objects.checkFromIndexSize(offset, returnCount, dst.length); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; System.arraycopy(evaluateImpl(a, b, c, d, e, f, g), 0, dst, offset, returnCount); } finally { instance.reEntrantFlag--; } } else { System.arraycopy(evaluateImpl(a, b, c, d, e, f, g), 0, dst, offset, returnCount); } }
+    public final void evaluateInto(float[] dst, int offset, float a, float b, float c, float d, float e, float f, float g, float h) { Objects.checkFromIndexSize(offset, returnCount, dst.length); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; System.arraycopy(evaluateImpl(a, b, c, d, e, f, g, h), 0, dst, offset, returnCount); } finally { instance.reEntrantFlag--; } } else { System.arraycopy(evaluateImpl(a, b, c, d, e, f, g, h), 0, dst, offset, returnCount); } }
+
+
+    // Evaluate an expr with a returnCount of 1, and return its value directly.
+    // Nothing is allocated once the expr has a generated class, and the value never goes through a float[].
+    public final float evaluateScalar() {
+        checkScalar();
+        if (instance.reEntrantFlag < 2) {
+            try {
+                instance.reEntrantFlag++;
+                return evaluateScalarImpl();
+            } finally {
+                instance.reEntrantFlag--;
+            }
+        } else {
+            return evaluateScalarImpl();
+        }
+    }
+
+    // Same again, with different arg counts
+    public final float evaluateScalar(float a) { checkScalar(); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return evaluateScalarImpl(a); } finally { instance.reEntrantFlag--; } } else { return evaluateScalarImpl(a); } }
+    public final float evaluateScalar(float a, float b) { checkScalar(); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return evaluateScalarImpl(a, b); } finally { instance.reEntrantFlag--; } } else { return evaluateScalarImpl(a, b); } }
+    public final float evaluateScalar(float a, float b, float c) { checkScalar(); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return evaluateScalarImpl(a, b, c); } finally { instance.reEntrantFlag--; } } else { return evaluateScalarImpl(a, b, c); } }
+    public final float evaluateScalar(float a, float b, float c, float d) { checkScalar(); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return evaluateScalarImpl(a, b, c, d); } finally { instance.reEntrantFlag--; } } else { return evaluateScalarImpl(a, b, c, d); } }
+    public final float evaluateScalar(float a, float b, float c, float d, float e) { checkScalar(); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return evaluateScalarImpl(a, b, c, d, e); } finally { instance.reEntrantFlag--; } } else { return evaluateScalarImpl(a, b, c, d, e); } }
+    public final float evaluateScalar(float a, float b, float c, float d, float e, float f) { checkScalar(); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return evaluateScalarImpl(a, b, c, d, e, f); } finally { instance.reEntrantFlag--; } } else { return evaluateScalarImpl(a, b, c, d, e, f); } }
+    public final float evaluateScalar(float a, float b, float c, float d, float e, float f, float g) { checkScalar(); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return evaluateScalarImpl(a, b, c, d, e, f, g); } finally { instance.reEntrantFlag--; } } else { return evaluateScalarImpl(a, b, c, d, e, f, g); } }
+    public final float evaluateScalar(float a, float b, float c, float d, float e, float f, float g, float h) { checkScalar(); if (instance.reEntrantFlag < 2) { try { instance.reEntrantFlag++; return evaluateScalarImpl(a, b, c, d, e, f, g, h); } finally { instance.reEntrantFlag--; } } else { return evaluateScalarImpl(a, b, c, d, e, f, g, h); } }
+
+    // Evaluate the expr once for each of many rows of args, such as one per particle, writing every row's results to out.
+    // The args are column-major: arg i of row r is at argsColumnMajor[i * rows + r]. Row r's results go in out, from r * returnCount.
+    // Generated classes loop inside one method, so the per-evaluation overhead of evaluate() is only paid once per batch.
+    public final void evaluateBatch(float[] argsColumnMajor, int rows, float[] out) {
+        if (rows < 0) throw new IllegalArgumentException("Row count must not be negative, got " + rows);
+        Objects.checkFromIndexSize(0, Math.multiplyExact(argCount, rows), argsColumnMajor.length);
+        Objects.checkFromIndexSize(0, Math.multiplyExact(returnCount, rows), out.length);
+        if (instance.reEntrantFlag < 2) {
+            try {
+                instance.reEntrantFlag++;
+                evaluateBatchImpl(argsColumnMajor, rows, out);
+            } finally {
+                instance.reEntrantFlag--;
+            }
+        } else {
+            evaluateBatchImpl(argsColumnMajor, rows, out);
+        }
+    }
+
+    private void checkScalar() {
+        if (returnCount != 1) throw new UnsupportedOperationException("evaluateScalar() needs an expression returning 1 value, but this returns " + returnCount);
+    }
 
     // Don't hold this for long - it keeps a reference to the (possibly large) backing array
     public static class FloatArraySlice {
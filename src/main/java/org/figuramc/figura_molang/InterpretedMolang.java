@@ -0,0 +1,105 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.ParsedMolang;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A CompiledMolang which starts out walking the AST instead of running generated code.
+ * Generating and loading a class costs far more than interpreting an expression a few times,
+ * and many expressions (init scripts, rarely hit branches) only ever run a few times.
+ *
+ * Every evaluation is counted. Once the count reaches the instance's promotion threshold, a class is generated
+ * (or reused from the program cache), and from then on every evaluation goes straight to it.
+ * If generating the class fails, this quietly keeps interpreting from then on without trying again; see getPromotionFailure().
+ */
+public final class InterpretedMolang<Actor> extends CompiledMolang<Actor> {
+
+    private @Nullable ParsedMolang parsed; // Dropped after promotion, nothing needs the AST anymore
+    private final @Nullable String fingerprint;
+    private final @Nullable String archiveKey;
+    private final int promotionThreshold;
+    private int evaluations;
+    private @Nullable CompiledMolang<Actor> compiled;
+    private @Nullable Throwable promotionFailure;
+
+    InterpretedMolang(MolangInstance<Actor, ?> instance, ParsedMolang parsed, @Nullable String fingerprint, @Nullable String archiveKey, int promotionThreshold) {
+        super(instance, parsed.argCount(), parsed.expr().returnCount());
+        this.parsed = parsed;
+        this.fingerprint = fingerprint;
+        this.archiveKey = archiveKey;
+        this.promotionThreshold = promotionThreshold;
+    }
+
+    // Whether this has switched over to generated code
+    public boolean isPromoted() {
+        return compiled != null;
+    }
+
+    // Whether generating code failed, so this will only ever be interpreted
+    public boolean isPromotionFailed() {
+        return promotionFailure != null;
+    }
+
+    // Why generating code failed, or null if it hasn't
+    public @Nullable Throwable getPromotionFailure() {
+        return promotionFailure;
+    }
+
+    // Count an evaluation, and get the generated code to run if this is hot enough
+    private @Nullable CompiledMolang<Actor> compiled() {
+        if (compiled == null && promotionFailure == null && ++evaluations >= promotionThreshold) {
+            try {
+                compiled = instance.promote(parsed, fingerprint, archiveKey);
+            } catch (MolangInstance.ClassGenerationException ex) {
+                // Keep interpreting, this call included, rather than running ASM again on every evaluation
+                promotionFailure = ex.getCause();
+                return null;
+            } catch (Throwable oomErr) {
+                // Only the instance's OOMErr is checked, and evaluateImpl can't declare it
+                throw InterpretedMolang.<RuntimeException>sneakyThrow(oomErr);
+            }
+            parsed = null;
+        }
+        return compiled;
+    }
+
+    private float[] interpret(float... args) {
+        if (args.length != argCount) throw new UnsupportedOperationException("Wrong argument count to CompiledMolang.evaluateImpl()");
+        InterpreterFrame frame = new InterpreterFrame(instance, parsed, args);
+        // Fresh array per evaluation, since interpreted code is cold anyway, and this makes re-entrancy a non-issue
+        float[] out = new float[returnCount];
+        if (returnCount == 1) out[0] = parsed.expr().interpret(frame, out, 0);
+        else parsed.expr().interpret(frame, out, 0);
+        return out;
+    }
+
+    @Override protected float[] evaluateImpl() { CompiledMolang<Actor> c = compiled(); return c != null ? c.evaluateImpl() : interpret(); }
+    @Override protected float[] evaluateImpl(float a) { CompiledMolang<Actor> c = compiled(); return c != null ? c.evaluateImpl(a) : interpret(a); }
+    @Override protected float[] evaluateImpl(float a, float b) { CompiledMolang<Actor> c = compiled(); return c != null ? c.evaluateImpl(a, b) : interpret(a, b); }
+    @Override protected float[] evaluateImpl(float a, float b, float c) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateImpl(a, b, c) : interpret(a, b, c); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateImpl(a, b, c, d) : interpret(a, b, c, d); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateImpl(a, b, c, d, e) : interpret(a, b, c, d, e); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateImpl(a, b, c, d, e, f) : interpret(a, b, c, d, e, f); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateImpl(a, b, c, d, e, f, g) : interpret(a, b, c, d, e, f, g); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g, float h) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateImpl(a, b, c, d, e, f, g, h) : interpret(a, b, c, d, e, f, g, h); }
+
+    @Override protected float evaluateScalarImpl() { CompiledMolang<Actor> c = compiled(); return c != null ? c.evaluateScalarImpl() : interpret()[0]; }
+    @Override protected float evaluateScalarImpl(float a) { CompiledMolang<Actor> c = compiled(); return c != null ? c.evaluateScalarImpl(a) : interpret(a)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b) { CompiledMolang<Actor> c = compiled(); return c != null ? c.evaluateScalarImpl(a, b) : interpret(a, b)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateScalarImpl(a, b, c) : interpret(a, b, c)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateScalarImpl(a, b, c, d) : interpret(a, b, c, d)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d, float e) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateScalarImpl(a, b, c, d, e) : interpret(a, b, c, d, e)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateScalarImpl(a, b, c, d, e, f) : interpret(a, b, c, d, e, f)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f, float g) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateScalarImpl(a, b, c, d, e, f, g) : interpret(a, b, c, d, e, f, g)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f, float g, float h) { CompiledMolang<Actor> x = compiled(); return x != null ? x.evaluateScalarImpl(a, b, c, d, e, f, g, h) : interpret(a, b, c, d, e, f, g, h)[0]; }
+
+    // Rows are counted as evaluations each, so a batch can promote this partway through
+    @Override protected void evaluateBatchImpl(float[] args, int rows, float[] out) { CompiledMolang<Actor> c = compiled; if (c != null) c.evaluateBatchImpl(args, rows, out); else super.evaluateBatchImpl(args, rows, out); }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> RuntimeException sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
+
+}
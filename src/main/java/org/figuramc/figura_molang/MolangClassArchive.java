@@ -0,0 +1,492 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.func.VectorApiFunction;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.CRC32C;
+
+/**
+ * Persistent store of generated classes, so later runs can define them straight from disk,
+ * skipping parsing and class generation entirely. Attach one to a MolangProgramCache to use it.
+ *
+ * Entries are content-addressed. The key is a hash of the sources, context variable names, constant values,
+ * query names, compiler options and COMPILER_VERSION. Generated code also depends on where actor variables live,
+ * so each entry records the location of every actor variable it uses, and is only loaded if binding them
+ * gives the same locations. A key may hold a few entries, for different layouts.
+ * Queries are only identified by name: if a query starts binding differently under the same name, use a new file.
+ *
+ * Everything lives in one file: a header, the entries, then an index of the entries.
+ * The file is read into memory when opened, and classes are defined straight from those bytes.
+ * It isn't memory-mapped: a mapping can't be released on demand, and while one exists, Windows won't let close()
+ * replace the file.
+ * Each entry has a CRC32C checksum, checked the first time it's used; corrupt entries are dropped.
+ * If the index is damaged (say, the game crashed while writing it), the entries are found by scanning instead.
+ *
+ * New entries are kept in memory until close(), which writes a fresh file and swaps it in.
+ * The file never grows past maxBytes: the least recently used entries are evicted first.
+ *
+ * Thread-safe, since program caches may be shared between threads.
+ */
+public final class MolangClassArchive implements Closeable {
+
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+    // Part of every key, and of the header. Bump this whenever generated code changes, so stale classes are never loaded.
+    public static final int COMPILER_VERSION = 5;
+    // Layouts kept per key; beyond this, the least recently used is evicted
+    private static final int MAX_ENTRIES_PER_KEY = 4;
+
+    private static final long MAGIC = 0x4D4F4C414E47434CL; // "MOLANGCL"
+    private static final int FORMAT_VERSION = 1;
+    // Header: magic, format version, compiler version, generation, index offset, index entry count, index checksum
+    private static final int HEADER_SIZE = 8 + 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int KEY_SIZE = 32; // SHA-256
+    // Entry header: magic, payload length, payload checksum, key. Then the payload.
+    private static final int ENTRY_MAGIC = 0x4D4F4C45; // "MOLE"
+    private static final int ENTRY_HEADER_SIZE = 4 + 4 + 4 + KEY_SIZE;
+    // Index entry: key, offset of the entry, generation it was last used in
+    private static final int INDEX_ENTRY_SIZE = KEY_SIZE + 8 + 8;
+
+    // What an entry holds: the actor variables its classes were generated against, in binding order, and the classes.
+    record Entry(List<Variable> variables, List<StoredClass> classes) {}
+    record Variable(String name, int size, int location) {}
+    // bytes may be a view of the loaded file
+    record StoredClass(String fingerprint, String name, int argCount, int[] returnCounts, int maxArraySlots, boolean batched, ByteBuffer bytes) {}
+
+    private final Path file;
+    private final long maxBytes;
+    // Counts up every time the file is opened; entries remember the last generation that used them, for eviction
+    private long generation = 1;
+    private final Map<String, List<StoredEntry>> entriesByKey = new HashMap<>();
+    private int entryCount;
+    private long entryBytes; // Total size of the entries, as written in the file
+    // Where the index of the opened file was, if it was valid. Rewritten in place when only usage changed.
+    private long loadedIndexOffset = -1;
+    private boolean dirty, touched, closed;
+    private long hits, misses, corruptions, evictions;
+
+    private MolangClassArchive(Path file, long maxBytes) {
+        this.file = file;
+        this.maxBytes = maxBytes;
+    }
+
+    public static MolangClassArchive open(Path file) throws IOException {
+        return open(file, DEFAULT_MAX_BYTES);
+    }
+
+    // Open the archive at the given file, or start an empty one if it doesn't exist or can't be used.
+    // Nothing is written until close().
+    public static MolangClassArchive open(Path file, long maxBytes) throws IOException {
+        if (maxBytes < HEADER_SIZE || maxBytes > Integer.MAX_VALUE) throw new IllegalArgumentException("Archive size limit must be between " + HEADER_SIZE + " and " + Integer.MAX_VALUE + " bytes");
+        MolangClassArchive archive = new MolangClassArchive(file, maxBytes);
+        if (Files.exists(file)) {
+            ByteBuffer data;
+            boolean complete = true;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // Anything this big wasn't written by us
+                if (channel.size() > Integer.MAX_VALUE) {
+                    data = ByteBuffer.allocate(0);
+                } else {
+                    data = ByteBuffer.allocate((int) channel.size());
+                    complete = readFully(channel, data);
+                    data.flip();
+                }
+            }
+            if (complete) {
+                archive.load(data);
+            } else {
+                // Shrank while being read, so something else is writing it, or it was cut off
+                archive.corruptions++;
+                archive.dirty = true;
+            }
+        }
+        return archive;
+    }
+
+    private void load(ByteBuffer data) {
+        if (data.limit() < HEADER_SIZE || data.getLong(0) != MAGIC) {
+            if (data.limit() > 0) corruptions++;
+            dirty = true;
+            return;
+        }
+        // From another version, nothing in it can be used
+        if (data.getInt(8) != FORMAT_VERSION || data.getInt(12) != COMPILER_VERSION) {
+            dirty = true;
+            return;
+        }
+        generation = data.getLong(16) + 1;
+        long indexOffset = data.getLong(24);
+        int indexCount = data.getInt(32);
+        int indexChecksum = data.getInt(36);
+        if (loadIndex(data, indexOffset, indexCount, indexChecksum)) {
+            loadedIndexOffset = indexOffset;
+        } else {
+            corruptions++;
+            dirty = true;
+            entriesByKey.clear();
+            entryCount = 0;
+            entryBytes = 0;
+            // Entries are self-describing, so find them one after another
+            int offset = HEADER_SIZE;
+            StoredEntry entry;
+            while ((entry = readEntry(data, offset, 0)) != null) {
+                add(entry);
+                offset += entry.size();
+            }
+        }
+        // The limit may have shrunk since the file was written
+        evictOverBudget();
+    }
+
+    private boolean loadIndex(ByteBuffer data, long indexOffset, int indexCount, int indexChecksum) {
+        if (indexOffset < HEADER_SIZE || indexCount < 0 || indexOffset + (long) indexCount * INDEX_ENTRY_SIZE > data.limit()) return false;
+        if (checksum(data.slice((int) indexOffset, indexCount * INDEX_ENTRY_SIZE)) != indexChecksum) return false;
+        for (int i = 0; i < indexCount; i++) {
+            int pos = (int) indexOffset + i * INDEX_ENTRY_SIZE;
+            String key = HexFormat.of().formatHex(bytes(data, pos, KEY_SIZE));
+            long offset = data.getLong(pos + KEY_SIZE);
+            long lastUsed = data.getLong(pos + KEY_SIZE + 8);
+            StoredEntry entry = offset < 0 || offset > data.limit() ? null : readEntry(data, (int) offset, lastUsed);
+            if (entry == null || !entry.key.equals(key)) return false;
+            add(entry);
+        }
+        return true;
+    }
+
+    // Read the entry header at offset, or return null if there isn't a plausible entry there.
+    // The payload isn't checked until it's used.
+    private static StoredEntry readEntry(ByteBuffer data, int offset, long lastUsed) {
+        if (offset > data.limit() - ENTRY_HEADER_SIZE || data.getInt(offset) != ENTRY_MAGIC) return null;
+        int length = data.getInt(offset + 4);
+        if (length < 0 || length > data.limit() - offset - ENTRY_HEADER_SIZE) return null;
+        int checksum = data.getInt(offset + 8);
+        String key = HexFormat.of().formatHex(bytes(data, offset + 12, KEY_SIZE));
+        ByteBuffer payload = data.slice(offset + ENTRY_HEADER_SIZE, length).asReadOnlyBuffer();
+        return new StoredEntry(key, payload, checksum, false, offset, lastUsed);
+    }
+
+    private void add(StoredEntry entry) {
+        entriesByKey.computeIfAbsent(entry.key, k -> new ArrayList<>()).add(entry);
+        entryCount++;
+        entryBytes += entry.size();
+    }
+
+    private void remove(StoredEntry entry) {
+        List<StoredEntry> entries = entriesByKey.get(entry.key);
+        entries.remove(entry);
+        if (entries.isEmpty()) entriesByKey.remove(entry.key);
+        entryCount--;
+        entryBytes -= entry.size();
+        dirty = true;
+    }
+
+    // Get every intact entry under the key, marking them as used. Corrupt entries are dropped.
+    synchronized List<Entry> get(String key) {
+        if (closed) throw new IllegalStateException("Archive is closed");
+        List<Entry> result = new ArrayList<>();
+        for (StoredEntry stored : List.copyOf(entriesByKey.getOrDefault(key, List.of()))) {
+            Entry entry = stored.decode();
+            if (entry == null) {
+                corruptions++;
+                remove(stored);
+                continue;
+            }
+            stored.lastUsed = generation;
+            touched = true;
+            result.add(entry);
+        }
+        if (result.isEmpty()) misses++;
+        else hits++;
+        return result;
+    }
+
+    // Store an entry under the key, evicting others if the archive gets too big
+    synchronized void put(String key, Entry entry) {
+        if (closed) throw new IllegalStateException("Archive is closed");
+        byte[] payload = encode(entry);
+        StoredEntry stored = new StoredEntry(key, ByteBuffer.wrap(payload).asReadOnlyBuffer(), checksum(ByteBuffer.wrap(payload)), true, -1, generation);
+        // Would never fit
+        if (HEADER_SIZE + stored.size() + INDEX_ENTRY_SIZE > maxBytes) return;
+        add(stored);
+        dirty = true;
+        List<StoredEntry> sameKey = entriesByKey.get(key);
+        while (sameKey.size() > MAX_ENTRIES_PER_KEY) {
+            remove(Collections.min(sameKey, Comparator.comparingLong(e -> e.lastUsed)));
+            evictions++;
+        }
+        evictOverBudget();
+    }
+
+    // Evict the least recently used entries until the file would fit in maxBytes
+    private void evictOverBudget() {
+        if (fileSize() <= maxBytes) return;
+        List<StoredEntry> all = new ArrayList<>(entryCount);
+        entriesByKey.values().forEach(all::addAll);
+        all.sort(Comparator.comparingLong(e -> e.lastUsed));
+        for (StoredEntry entry : all) {
+            if (fileSize() <= maxBytes) break;
+            remove(entry);
+            evictions++;
+        }
+    }
+
+    private long fileSize() {
+        return HEADER_SIZE + entryBytes + (long) entryCount * INDEX_ENTRY_SIZE;
+    }
+
+    // Write any changes back to the file. The archive can't be used afterward.
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            if (dirty) writeFile();
+            else if (touched) writeIndexInPlace();
+        } finally {
+            entriesByKey.clear();
+        }
+    }
+
+    // Write everything to a new file, then move it over the old one, so a crash can't leave a half-written archive
+    private void writeFile() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        if (file.getParent() != null) Files.createDirectories(file.getParent());
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer index = ByteBuffer.allocate(entryCount * INDEX_ENTRY_SIZE);
+            long offset = HEADER_SIZE;
+            channel.position(offset);
+            for (List<StoredEntry> entries : entriesByKey.values()) {
+                for (StoredEntry entry : entries) {
+                    byte[] key = HexFormat.of().parseHex(entry.key);
+                    ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_SIZE).putInt(ENTRY_MAGIC).putInt(entry.payload.remaining()).putInt(entry.checksum).put(key).flip();
+                    writeFully(channel, header);
+                    writeFully(channel, entry.payload.duplicate());
+                    index.put(key).putLong(offset).putLong(entry.lastUsed);
+                    offset += entry.size();
+                }
+            }
+            writeFully(channel, index.flip());
+            channel.position(0);
+            writeFully(channel, header(offset, index.flip()));
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Only usage changed, so the entries and the index's size are the same. Just update the last used generations.
+    private void writeIndexInPlace() throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(entryCount * INDEX_ENTRY_SIZE);
+        for (List<StoredEntry> entries : entriesByKey.values())
+            for (StoredEntry entry : entries)
+                index.put(HexFormat.of().parseHex(entry.key)).putLong(entry.offset).putLong(entry.lastUsed);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.position(loadedIndexOffset);
+            writeFully(channel, index.flip());
+            channel.position(0);
+            writeFully(channel, header(loadedIndexOffset, index.flip()));
+            channel.force(true);
+        }
+    }
+
+    private ByteBuffer header(long indexOffset, ByteBuffer index) {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .putLong(MAGIC).putInt(FORMAT_VERSION).putInt(COMPILER_VERSION).putLong(generation)
+                .putLong(indexOffset).putInt(index.remaining() / INDEX_ENTRY_SIZE).putInt(checksum(index))
+                .flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    // Returns false if it hit the end of the file first, because it shrank in the meantime
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) if (channel.read(buffer) < 0) return false;
+        return true;
+    }
+
+    public synchronized int size() { return entryCount; }
+    // Size of the file this archive would write
+    public synchronized long byteSize() { return fileSize(); }
+    public synchronized long hits() { return hits; }
+    public synchronized long misses() { return misses; }
+    public synchronized long corruptions() { return corruptions; }
+    public synchronized long evictions() { return evictions; }
+
+    // Hash of everything that goes into compiling the sources, besides the actor variable layout.
+    // kind separates different ways of compiling the same sources, like one class per expression or a batch.
+    static String key(String kind, List<String> sources, List<String> contextVariables, Map<String, float[]> constants,
+                      Collection<String> queryNames, MolangCompilerOptions options, boolean hiddenClasses) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is missing", ex);
+        }
+        try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(OutputStream.nullOutputStream(), digest))) {
+            out.writeInt(COMPILER_VERSION);
+            writeString(out, kind);
+            // Every option that affects the generated bytes
+            writeString(out, options.optimizationLevel().name());
+            out.writeBoolean(options.fastMath());
+            out.writeInt(options.unrollThreshold());
+            out.writeInt(options.scalarReplacementThreshold());
+            out.writeInt(options.vectorApiThreshold());
+            // Kernels are only used if they're both enabled and available
+            out.writeBoolean(options.vectorApiThreshold() > 0 && VectorApiFunction.isAvailable());
+            out.writeInt(options.classfileVersion());
+            out.writeBoolean(hiddenClasses);
+            List<String> sortedQueries = new ArrayList<>(queryNames);
+            Collections.sort(sortedQueries);
+            out.writeInt(sortedQueries.size());
+            for (String query : sortedQueries) writeString(out, query);
+            out.writeInt(contextVariables.size());
+            for (String variable : contextVariables) writeString(out, variable);
+            TreeMap<String, float[]> sortedConstants = new TreeMap<>(constants);
+            out.writeInt(sortedConstants.size());
+            for (Map.Entry<String, float[]> constant : sortedConstants.entrySet()) {
+                writeString(out, constant.getKey());
+                out.writeInt(constant.getValue().length);
+                for (float value : constant.getValue()) out.writeInt(Float.floatToRawIntBits(value));
+            }
+            out.writeInt(sources.size());
+            for (String source : sources) writeString(out, source);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // Can't happen, nothing is actually written
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static byte[] encode(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(entry.variables().size());
+            for (Variable variable : entry.variables()) {
+                writeString(out, variable.name());
+                out.writeInt(variable.size());
+                out.writeInt(variable.location());
+            }
+            out.writeInt(entry.classes().size());
+            for (StoredClass stored : entry.classes()) {
+                writeString(out, stored.fingerprint());
+                writeString(out, stored.name());
+                out.writeInt(stored.argCount());
+                out.writeInt(stored.returnCounts().length);
+                for (int returnCount : stored.returnCounts()) out.writeInt(returnCount);
+                out.writeInt(stored.maxArraySlots());
+                out.writeBoolean(stored.batched());
+                ByteBuffer classBytes = stored.bytes().duplicate();
+                out.writeInt(classBytes.remaining());
+                while (classBytes.hasRemaining()) out.write(classBytes.get());
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // Can't happen, it's all in memory
+        }
+        return bytes.toByteArray();
+    }
+
+    // Read back an encoded entry. Throws if it's malformed.
+    private static Entry decode(ByteBuffer payload) {
+        ByteBuffer in = payload.duplicate();
+        List<Variable> variables = new ArrayList<>();
+        for (int i = in.getInt(); i > 0; i--)
+            variables.add(new Variable(readString(in), in.getInt(), in.getInt()));
+        List<StoredClass> classes = new ArrayList<>();
+        for (int i = in.getInt(); i > 0; i--) {
+            String fingerprint = readString(in);
+            String name = readString(in);
+            int argCount = in.getInt();
+            int[] returnCounts = new int[in.getInt()];
+            for (int j = 0; j < returnCounts.length; j++) returnCounts[j] = in.getInt();
+            int maxArraySlots = in.getInt();
+            boolean batched = in.get() != 0;
+            int length = in.getInt();
+            classes.add(new StoredClass(fingerprint, name, argCount, returnCounts, maxArraySlots, batched, in.slice(in.position(), length)));
+            in.position(in.position() + length);
+        }
+        if (in.hasRemaining() || classes.isEmpty()) throw new IllegalArgumentException("Malformed archive entry");
+        return new Entry(variables, classes);
+    }
+
+    // Strings are length-prefixed UTF-8, since fingerprints can be longer than writeUTF() allows
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer, int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(offset, bytes);
+        return bytes;
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.duplicate());
+        return (int) crc.getValue();
+    }
+
+    private static final class StoredEntry {
+        private final String key;
+        private final ByteBuffer payload; // A view of the loaded file, or of a new entry's bytes
+        private final int checksum;
+        private boolean verified;
+        private final long offset; // Where it was in the opened file, or -1 if it's new
+        private long lastUsed;
+
+        private StoredEntry(String key, ByteBuffer payload, int checksum, boolean verified, long offset, long lastUsed) {
+            this.key = key;
+            this.payload = payload;
+            this.checksum = checksum;
+            this.verified = verified;
+            this.offset = offset;
+            this.lastUsed = lastUsed;
+        }
+
+        private int size() {
+            return ENTRY_HEADER_SIZE + payload.remaining();
+        }
+
+        // Check and decode the payload, or return null if it's corrupt
+        private Entry decode() {
+            if (!verified) {
+                if (checksum(payload) != checksum) return null;
+                verified = true;
+            }
+            try {
+                return MolangClassArchive.decode(payload);
+            } catch (RuntimeException ex) {
+                // The checksum matched, but the contents don't make sense; treat it the same way
+                return null;
+            }
+        }
+    }
+
+}
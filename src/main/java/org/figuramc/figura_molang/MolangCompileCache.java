@@ -0,0 +1,155 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.memory_tracker.AllocationTracker;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Bounded LRU cache of CompiledMolang, keyed on everything that goes into a compile:
+ * the source, the context variable names, and the constant values.
+ * Recompiling an identical expression (for example on a model reload) becomes a hash lookup.
+ *
+ * Owned by a MolangInstance, and charges its memory to that instance's allocation state.
+ * Like MolangInstance, this is not thread-safe.
+ */
+public class MolangCompileCache<Actor, OOMErr extends Throwable> {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    // Rough per-entry overhead: the key object, the LinkedHashMap entry, and the references between them
+    private static final int ENTRY_SIZE_ESTIMATE =
+            AllocationTracker.OBJECT_SIZE * 2
+            + AllocationTracker.REFERENCE_SIZE * 8
+            + AllocationTracker.INT_SIZE * 2;
+
+    private final int capacity;
+    private final @Nullable AllocationTracker.State<OOMErr> allocState;
+    // Access-ordered, so iteration starts from the least recently used entry
+    private final LinkedHashMap<Key, Entry<Actor>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long hits, misses, evictions;
+
+    MolangCompileCache(int capacity, @Nullable AllocationTracker.State<OOMErr> allocState) {
+        if (capacity < 0) throw new IllegalArgumentException("Compile cache capacity must not be negative");
+        this.capacity = capacity;
+        this.allocState = allocState;
+    }
+
+    // Fetch a previously compiled expression, or null if it's not cached.
+    public @Nullable CompiledMolang<Actor> get(String source, List<String> contextVariables, Map<String, float[]> constants) {
+        if (capacity == 0) return null;
+        Entry<Actor> entry = entries.get(new Key(source, contextVariables, constants));
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.compiled;
+    }
+
+    // Insert a freshly compiled expression, evicting the least recently used ones if over capacity.
+    // The key is copied, so callers are free to mutate their lists/maps/arrays afterward.
+    public void put(String source, List<String> contextVariables, Map<String, float[]> constants, CompiledMolang<Actor> compiled) throws OOMErr {
+        if (capacity == 0) return;
+        Key key = Key.copyOf(source, contextVariables, constants);
+        int size = key.sizeEstimate();
+        Entry<Actor> prev = entries.put(key, new Entry<>(compiled, size));
+        if (allocState != null) allocState.changeSize(prev == null ? size : size - prev.sizeEstimate);
+        // Evict from the old end
+        Iterator<Entry<Actor>> iter = entries.values().iterator();
+        while (entries.size() > capacity) {
+            Entry<Actor> eldest = iter.next();
+            iter.remove();
+            evictions++;
+            if (allocState != null) allocState.changeSize(-eldest.sizeEstimate);
+        }
+    }
+
+    // Drop the entry for this key, if it's still the given CompiledMolang. Doesn't count as an eviction.
+    public void remove(String source, List<String> contextVariables, Map<String, float[]> constants, CompiledMolang<Actor> compiled) throws OOMErr {
+        if (capacity == 0) return;
+        Key key = new Key(source, contextVariables, constants);
+        Entry<Actor> entry = entries.get(key);
+        if (entry == null || entry.compiled != compiled) return;
+        entries.remove(key);
+        if (allocState != null) allocState.changeSize(-entry.sizeEstimate);
+    }
+
+    // Drop all entries. Counters are kept.
+    public void clear() throws OOMErr {
+        if (allocState != null) {
+            int total = 0;
+            for (Entry<Actor> entry : entries.values()) total += entry.sizeEstimate;
+            allocState.changeSize(-total);
+        }
+        entries.clear();
+    }
+
+    public int size() { return entries.size(); }
+    public int capacity() { return capacity; }
+    public long hits() { return hits; }
+    public long misses() { return misses; }
+    public long evictions() { return evictions; }
+
+    @Override
+    public String toString() {
+        return "MolangCompileCache[size=" + entries.size() + "/" + capacity + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    private record Entry<Actor>(CompiledMolang<Actor> compiled, int sizeEstimate) {}
+
+    // Constants are compared by value, since float[] doesn't override equals/hashCode.
+    private static final class Key {
+        private final String source;
+        private final List<String> contextVariables;
+        private final Map<String, float[]> constants;
+        private final int hash;
+
+        private Key(String source, List<String> contextVariables, Map<String, float[]> constants) {
+            this.source = source;
+            this.contextVariables = contextVariables;
+            this.constants = constants;
+            int h = source.hashCode() * 31 + contextVariables.hashCode();
+            // Order-independent, like Map.hashCode()
+            int constantsHash = 0;
+            for (var constant : constants.entrySet())
+                constantsHash += constant.getKey().hashCode() ^ Arrays.hashCode(constant.getValue());
+            this.hash = h * 31 + constantsHash;
+        }
+
+        private static Key copyOf(String source, List<String> contextVariables, Map<String, float[]> constants) {
+            Map<String, float[]> constantsCopy = new HashMap<>(constants.size());
+            for (var constant : constants.entrySet())
+                constantsCopy.put(constant.getKey(), constant.getValue().clone());
+            return new Key(source, List.copyOf(contextVariables), constantsCopy);
+        }
+
+        private int sizeEstimate() {
+            int size = ENTRY_SIZE_ESTIMATE + source.length() * 2;
+            size += contextVariables.size() * AllocationTracker.REFERENCE_SIZE;
+            for (var constant : constants.entrySet())
+                size += AllocationTracker.REFERENCE_SIZE * 4 + constant.getValue().length * AllocationTracker.FLOAT_SIZE;
+            return size;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key other)) return false;
+            if (hash != other.hash || !source.equals(other.source) || !contextVariables.equals(other.contextVariables)) return false;
+            if (constants.size() != other.constants.size()) return false;
+            for (var constant : constants.entrySet()) {
+                float[] otherValue = other.constants.get(constant.getKey());
+                if (!Arrays.equals(constant.getValue(), otherValue)) return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+}
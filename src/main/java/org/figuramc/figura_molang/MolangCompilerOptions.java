@@ -0,0 +1,97 @@
+package org.figuramc.figura_molang;
+
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.Opcodes;
+
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
+
+/**
+ * Settings for how a MolangInstance turns expressions into classes. Fixed for the lifetime of the instance.
+ * Start from DEFAULT and change what you need with the with*() methods.
+ *
+ * Instances with different options can still share a MolangProgramCache. Options which change the parsed tree
+ * (the optimization level, fast math, scalar replacement and the Vector API) change its fingerprint too, so those classes are never mixed up.
+ * The rest only change how the bytecode looks, not what it computes.
+ *
+ * @param optimizationLevel Which passes run over the parsed tree.
+ * @param fastMath Whether math.sin, cos, exp, ln, pow and atan use the float-only versions in FastFloatMath.
+ *                 Faster, but not correctly rounded; see there for the error bounds. Off by default.
+ * @param unrollThreshold Loops over vectors with at most this many elements are unrolled. 0 disables unrolling.
+ * @param scalarReplacementThreshold Vector temp variables with at most this many elements get one JVM local per element
+ *                                   instead of living in tempStack, so the JIT can keep them in registers. 0 disables it.
+ * @param vectorApiThreshold Element-wise arithmetic and reductions on vectors with at least this many elements use the Java Vector API,
+ *                           if the JVM was started with --add-modules jdk.incubator.vector. Otherwise this does nothing.
+ *                           Sums and products may round differently, since they add up elements in a different order.
+ *                           0 disables it, which is the default.
+ * @param classfileVersion The class file version of generated classes, like Opcodes.V1_8.
+ * @param verify Whether to check generated classes with ASM's CheckClassAdapter while writing them, failing the compile
+ *               if they're malformed. Slow, for debugging the compiler.
+ * @param dumpDirectory If not null, each generated class is written to dumpDirectory/(internal name).class.
+ * @param dumpCallback If not null, called with the internal name and bytes of each generated class.
+ *                     Runs on the executor for classes from MolangInstance.compileAsync().
+ */
+public record MolangCompilerOptions(OptimizationLevel optimizationLevel, boolean fastMath, int unrollThreshold, int scalarReplacementThreshold, int vectorApiThreshold,
+                                    int classfileVersion, boolean verify, @Nullable Path dumpDirectory, @Nullable BiConsumer<String, byte[]> dumpCallback) {
+
+    public static final int DEFAULT_UNROLL_THRESHOLD = 16; // Unrolling much more than a 4x4 matrix mostly just makes the code bigger
+    public static final int DEFAULT_SCALAR_REPLACEMENT_THRESHOLD = 4;
+
+    // Fully optimized with exact math, no verification or dumping
+    public static final MolangCompilerOptions DEFAULT = new MolangCompilerOptions(OptimizationLevel.FULL, false, DEFAULT_UNROLL_THRESHOLD, DEFAULT_SCALAR_REPLACEMENT_THRESHOLD, 0, Opcodes.V1_8, false, null, null);
+
+    public MolangCompilerOptions {
+        if (optimizationLevel == null) throw new IllegalArgumentException("Optimization level must not be null");
+        if (unrollThreshold < 0) throw new IllegalArgumentException("Unroll threshold must not be negative");
+        if (scalarReplacementThreshold < 0) throw new IllegalArgumentException("Scalar replacement threshold must not be negative");
+        if (vectorApiThreshold < 0) throw new IllegalArgumentException("Vector API threshold must not be negative");
+        // Major version in the low 16 bits; older versions lack the stack map frames ASM computes
+        if ((classfileVersion & 0xFFFF) < Opcodes.V1_8) throw new IllegalArgumentException("Class file version must be at least Java 8");
+    }
+
+    public enum OptimizationLevel {
+        // Compile the tree exactly as parsed
+        NONE,
+        // Fold constants and eliminate dead code
+        BASIC,
+        // Also strength reduction and common subexpression elimination
+        FULL
+    }
+
+    public MolangCompilerOptions withOptimizationLevel(OptimizationLevel optimizationLevel) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+    public MolangCompilerOptions withFastMath(boolean fastMath) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+    public MolangCompilerOptions withUnrollThreshold(int unrollThreshold) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+    public MolangCompilerOptions withScalarReplacementThreshold(int scalarReplacementThreshold) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+    public MolangCompilerOptions withVectorApiThreshold(int vectorApiThreshold) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+    public MolangCompilerOptions withClassfileVersion(int classfileVersion) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+    public MolangCompilerOptions withVerify(boolean verify) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+    public MolangCompilerOptions withDumpDirectory(@Nullable Path dumpDirectory) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+    public MolangCompilerOptions withDumpCallback(@Nullable BiConsumer<String, byte[]> dumpCallback) {
+        return new MolangCompilerOptions(optimizationLevel, fastMath, unrollThreshold, scalarReplacementThreshold, vectorApiThreshold, classfileVersion, verify, dumpDirectory, dumpCallback);
+    }
+
+}
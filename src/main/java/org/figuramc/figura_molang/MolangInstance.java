@@ -2,38 +2,45 @@ package org.figuramc.figura_molang;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.ast.vars.ActorVariable;
-import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.compile.CommonSubexpressions;
+import org.figuramc.figura_molang.compile.ConstantTrie;
+import org.figuramc.figura_molang.compile.DeadCodeElimination;
+import org.figuramc.figura_molang.compile.FastMathSubstitution;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.MolangParser;
-import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.ParsedMolang;
+import org.figuramc.figura_molang.compile.StrengthReduction;
+import org.figuramc.figura_molang.compile.VectorApiSubstitution;
+import org.figuramc.figura_molang.compile.jvm.JvmClassGenerator;
 import org.figuramc.memory_tracker.AllocationTracker;
 import org.jetbrains.annotations.Nullable;
-import org.objectweb.asm.*;
-import org.objectweb.asm.util.CheckClassAdapter;
-import org.objectweb.asm.util.TraceClassVisitor;
 
-import java.io.PrintWriter;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Each MolangInstance has its own "v.name" namespace, as well as its own set of supported queries/math functions/etc.
  *
  * Note: Multithreaded access is NOT supported, but we must support re-entrant code.
  * Anything may be called in here *while an expression is running!*.
+ * (The one exception is compileAsync(), whose background work is kept away from everything but the program cache.)
  */
 public class MolangInstance<Actor, OOMErr extends Throwable> {
 
     public Actor actor;
 
-    // Shared across expressions parsed using this instance, so keep a name -> variable location map.
+    // Shared across expressions parsed using this instance, so keep a name -> variable location map (the layout).
     // Variables are bound at parse time, so there's no string lookup at runtime.
     public float[] actorVariables = new float[0];
     private float[] tempStack = new float[0]; // Float[] for temporary stack space
-    private int nextActorVariable = 0;
-    private final Map<String, ActorVariable> actorVariablesByName = new HashMap<>();
+    private final VariableLayout layout;
+
+    // Where generated classes live. May be shared with other instances.
+    private final MolangProgramCache programCache;
 
     // Functions available when compiling
     private final Map<String, ? extends Query<? super Actor, OOMErr>> queries;
@@ -55,10 +62,48 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
             + AllocationTracker.INT_SIZE
             + AllocationTracker.BOOLEAN_SIZE;
 
+    // Cache of previously compiled expressions, so recompiling identical source is just a lookup
+    private final MolangCompileCache<Actor, OOMErr> compileCache;
+
+    // New expressions are interpreted until they've been evaluated this many times, then a class is generated for them.
+    // 0 disables the interpreter, so every expression gets a class right away.
+    public static final int DEFAULT_PROMOTION_THRESHOLD = 64;
+    private int promotionThreshold = DEFAULT_PROMOTION_THRESHOLD;
+
+    // How expressions are optimized and turned into classes
+    private final MolangCompilerOptions compilerOptions;
+
+    // Constants from the last parse, built for lookup. Callers tend to pass the same constants every time,
+    // so this is only rebuilt when they differ. Compared by value, like the compile cache, since maps and arrays can change.
+    private ConstantTrie constantTrie = ConstantTrie.EMPTY;
+
+    // Placeholders from compileAsync() whose background work is done, waiting for installCompiled().
+    // This is the only state touched by other threads.
+    private final Queue<PendingMolang<Actor>> finishedAsync = new ConcurrentLinkedQueue<>();
+
     // Create a new instance
     public MolangInstance(@Nullable Actor initialActor, @Nullable AllocationTracker<OOMErr> allocationTracker, Map<String, ? extends Query<? super Actor, OOMErr>> queries) throws OOMErr {
+        this(initialActor, allocationTracker, queries, MolangCompileCache.DEFAULT_CAPACITY);
+    }
+
+    // Create a new instance, caching up to compileCacheCapacity compiled expressions. Pass 0 to disable caching.
+    public MolangInstance(@Nullable Actor initialActor, @Nullable AllocationTracker<OOMErr> allocationTracker, Map<String, ? extends Query<? super Actor, OOMErr>> queries, int compileCacheCapacity) throws OOMErr {
+        this(initialActor, allocationTracker, queries, compileCacheCapacity, null);
+    }
+
+    // Create a new instance which shares generated classes (and the actor variable layout) with every other instance using the same programCache.
+    // If programCache is null, the instance gets a private one.
+    public MolangInstance(@Nullable Actor initialActor, @Nullable AllocationTracker<OOMErr> allocationTracker, Map<String, ? extends Query<? super Actor, OOMErr>> queries, int compileCacheCapacity, @Nullable MolangProgramCache programCache) throws OOMErr {
+        this(initialActor, allocationTracker, queries, compileCacheCapacity, programCache, MolangCompilerOptions.DEFAULT);
+    }
+
+    // Create a new instance, compiling with the given options. See MolangCompilerOptions.
+    public MolangInstance(@Nullable Actor initialActor, @Nullable AllocationTracker<OOMErr> allocationTracker, Map<String, ? extends Query<? super Actor, OOMErr>> queries, int compileCacheCapacity, @Nullable MolangProgramCache programCache, MolangCompilerOptions compilerOptions) throws OOMErr {
         this.actor = initialActor;
+        this.compilerOptions = compilerOptions;
         this.queries = queries;
+        this.programCache = programCache != null ? programCache : new MolangProgramCache();
+        this.layout = this.programCache.layout;
         // Track it
         this.allocationTracker = allocationTracker;
         if (allocationTracker != null) {
@@ -67,11 +112,12 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
             size += queries.size() * AllocationTracker.REFERENCE_SIZE * 4;
             allocState = allocationTracker.track(this, size);
         } else allocState = null;
+        this.compileCache = new MolangCompileCache<>(compileCacheCapacity, allocState);
     }
 
     // Check if an actor variable exists
     public @Nullable ActorVariable getActorVariable(String name) {
-        return actorVariablesByName.get(name);
+        return layout.get(name);
     }
 
     // Used at compile/parse time
@@ -80,16 +126,14 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
         assert size > 0;
         assert !variableName.contains("$") && size == 1 || Integer.parseInt(variableName.substring(0, variableName.indexOf('$'))) == size;
 
-        ActorVariable existing = actorVariablesByName.get(variableName);
-        if (existing != null) return existing;
-        ActorVariable res = new ActorVariable(variableName, size, nextActorVariable);
-        actorVariablesByName.put(variableName, res);
-        nextActorVariable += size;
-        if (nextActorVariable >= actorVariables.length) {
-            // Track array grow
-            if (allocState != null) allocState.changeSize((nextActorVariable * 2 - actorVariables.length) * AllocationTracker.FLOAT_SIZE);
-            actorVariables = Arrays.copyOf(actorVariables, nextActorVariable * 2);
+        ActorVariable existing = layout.get(variableName);
+        if (existing != null) {
+            // May have been created by another instance sharing the layout, so make sure we have room for it
+            ensureActorVariableCapacity();
+            return existing;
         }
+        ActorVariable res = layout.getOrCreate(variableName, size);
+        ensureActorVariableCapacity();
 
         if (allocationTracker != null) {
             allocState.changeSize(AllocationTracker.REFERENCE_SIZE * 4); // Estimate for change in HashMap internal size?
@@ -100,6 +144,16 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
         return res;
     }
 
+    // Grow the actorVariables array to fit every variable in the layout
+    private void ensureActorVariableCapacity() throws OOMErr {
+        int required = layout.size();
+        if (required > actorVariables.length) {
+            // Track array grow
+            if (allocState != null) allocState.changeSize((required * 2 - actorVariables.length) * AllocationTracker.FLOAT_SIZE);
+            actorVariables = Arrays.copyOf(actorVariables, required * 2);
+        }
+    }
+
     // If re-entrant (rare, hopefully...), we can't reuse the same array, so make a new one.
     public float[] getTempStack(int requiredSize) throws OOMErr {
         if (reEntrantFlag == 2) {
@@ -120,116 +174,378 @@ public class MolangInstance<Actor, OOMErr extends Throwable> {
     @FunctionalInterface
     public interface Query<Actor, OOMErr extends Throwable> { MolangExpr bind(MolangParser<OOMErr> parser, List<MolangExpr> args, String source, int funcNameStart, int funcNameEnd) throws OOMErr, MolangCompileException; }
 
-    private final CustomClassLoader loader = new CustomClassLoader(this.getClass().getClassLoader());
+    // Hit/miss/eviction counters are available here
+    public MolangCompileCache<Actor, OOMErr> getCompileCache() { return compileCache; }
+
+    // Affects expressions compiled after the change. Expressions already being interpreted keep their threshold.
+    public int getPromotionThreshold() { return promotionThreshold; }
+    public void setPromotionThreshold(int promotionThreshold) {
+        if (promotionThreshold < 0) throw new IllegalArgumentException("Promotion threshold must not be negative");
+        this.promotionThreshold = promotionThreshold;
+    }
 
-    // Parse the source and compile into java bytecode, creating a CompiledMolang
+    public MolangCompilerOptions getCompilerOptions() { return compilerOptions; }
+
+    // Parse the source and compile into java bytecode, creating a CompiledMolang.
+    // If the same source was already compiled with equal context variables and constants, the cached result is returned.
     public CompiledMolang<Actor> compile(String source, List<String> contextVariables, Map<String, float[]> constants) throws OOMErr, MolangCompileException {
+        CompiledMolang<Actor> cached = compileCache.get(source, contextVariables, constants);
+        if (cached != null) return cached;
+        CompiledMolang<Actor> compiled = compileUncached(source, contextVariables, constants);
+        compileCache.put(source, contextVariables, constants, compiled);
+        return compiled;
+    }
+
+    private CompiledMolang<Actor> compileUncached(String source, List<String> contextVariables, Map<String, float[]> constants) throws OOMErr, MolangCompileException {
+        // A class precompiled at build time, or archived by an earlier run, skips parsing entirely
+        MolangProgram precompiled = loadPrecompiled(source, contextVariables, constants);
+        if (precompiled != null) return instantiate(precompiled, 0);
+        String archiveKey = archiveKey("expr", List.of(source), contextVariables, constants);
+        List<MolangProgram> archived = archiveKey == null ? null : loadArchived(archiveKey);
+        if (archived != null) return instantiate(archived.getFirst(), 0);
+        return compileParsed(parse(source, contextVariables, constants), archiveKey);
+    }
+
+    private CompiledMolang<Actor> compileParsed(ParsedMolang parsed, @Nullable String archiveKey) throws OOMErr {
+        // Reuse an existing class for an equivalent expression, if there is one
+        String fingerprint = Fingerprint.of(parsed.expr(), parsed.argCount());
+        MolangProgram program = fingerprint == null ? null : programCache.get(fingerprint);
+        if (program != null) return instantiate(program, 0);
+
+        // Otherwise, interpret it until it proves worth generating a class for
+        if (promotionThreshold > 0 && parsed.expr().canInterpret()) {
+            if (allocState != null) allocState.changeSize(AllocationTracker.OBJECT_SIZE + AllocationTracker.REFERENCE_SIZE * 5 + AllocationTracker.INT_SIZE * 4);
+            return new InterpretedMolang<>(this, parsed, fingerprint, archiveKey, promotionThreshold);
+        }
+        return instantiate(defineProgram(parsed, fingerprint, archiveKey), 0);
+    }
+
+    // Parse the source, checking the context variables, and optimize the tree
+    ParsedMolang parse(String source, List<String> contextVariables, Map<String, float[]> constants) throws OOMErr, MolangCompileException {
         int argCount = contextVariables.size();
         if (argCount > 8) throw new IllegalArgumentException("Must have at most 8 context variables");
-
-        // Parse:
-        MolangParser<OOMErr> parser = new MolangParser<>(source, this, contextVariables, constants);
+        if (!constantTrie.matches(constants)) constantTrie = ConstantTrie.of(constants);
+        MolangParser<OOMErr> parser = new MolangParser<>(source, this, contextVariables, constants, constantTrie);
         MolangExpr expr = parser.parseAll();
-        int arrayVariableIndex = argCount + 1;
-        int firstUnusedLocal = arrayVariableIndex + 1 + parser.getMaxLocalVariables();
+        MolangCompilerOptions.OptimizationLevel level = compilerOptions.optimizationLevel();
+        if (level.compareTo(MolangCompilerOptions.OptimizationLevel.BASIC) >= 0) {
+            // Evaluate whatever can be evaluated ahead of time, so neither the interpreter nor generated code repeats it,
+            // then drop statements that can't run or don't do anything
+            expr = expr.foldConstants();
+            expr = DeadCodeElimination.eliminate(expr);
+        }
+        if (level.compareTo(MolangCompilerOptions.OptimizationLevel.FULL) >= 0) {
+            // Use cheaper operations on constants
+            expr = StrengthReduction.reduce(expr);
+        }
+        if (compilerOptions.fastMath()) {
+            // After strength reduction, which keeps integer powers exact
+            expr = FastMathSubstitution.substitute(expr);
+        }
+        if (compilerOptions.vectorApiThreshold() > 0) {
+            expr = VectorApiSubstitution.substitute(expr, compilerOptions.vectorApiThreshold());
+        }
+        if (level.compareTo(MolangCompilerOptions.OptimizationLevel.FULL) >= 0) {
+            // Compute repeated pure subtrees only once. Last, since the other passes don't look inside shared values.
+            expr = CommonSubexpressions.eliminate(expr);
+        }
+        return new ParsedMolang(expr, argCount, parser.getMaxLocalVariables(), parser.getMaxVectorTempSlots(), parser.getActorVariables());
+    }
 
+    // Generate a class for the expression, and define it in the program cache.
+    // If archiveKey isn't null, the class is stored in the archive under it too.
+    private MolangProgram defineProgram(ParsedMolang parsed, @Nullable String fingerprint, @Nullable String archiveKey) throws OOMErr {
+        // Loading an archived class relies on its fingerprint, so unshareable ones aren't archived
+        boolean archive = archiveKey != null && fingerprint != null;
+        JvmClassGenerator.GeneratedClass generated;
         try {
             // Compile to bytecode:
-            String name = loader.fetchUniqueName();
-
-            ClassVisitor classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
-            classWriter = new TraceClassVisitor(new CheckClassAdapter(classWriter), new PrintWriter(System.out));
-            classWriter.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, Type.getInternalName(CompiledMolang.class), null);
-
-            // Constructor
-            MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II)V", null, null);
-            constructor.visitCode();
-            constructor.visitVarInsn(Opcodes.ALOAD, 0);
-            constructor.visitVarInsn(Opcodes.ALOAD, 1);
-            constructor.visitVarInsn(Opcodes.ILOAD, 2);
-            constructor.visitVarInsn(Opcodes.ILOAD, 3);
-            constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(CompiledMolang.class), "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II)V", false);
-            constructor.visitInsn(Opcodes.RETURN);
-            constructor.visitMaxs(0, 0);
-            constructor.visitEnd();
-
-            // evaluateImpl method, with the appropriate arg count
-            String evaluateImplDesc = "(" + "F".repeat(argCount) + ")[F";
-            MethodVisitor evaluateMethod = classWriter.visitMethod(Opcodes.ACC_PROTECTED, "evaluateImpl", evaluateImplDesc, null, null);
-            evaluateMethod.visitCode();
-
-            // Cursed garbage required for re-entrancy support, plus our compiler is bad so it doesn't know how much space
-            // is needed until after compiling it
-            Label runCode = new Label();
-            Label setupFloatArrayLocal = new Label();
-            Label end = new Label();
-
-            // Jump to set up the float array local
-            evaluateMethod.visitJumpInsn(Opcodes.GOTO, setupFloatArrayLocal);
-            evaluateMethod.visitLabel(runCode);
-            // Run code, then jump to end
-            if (expr.returnCount() == 1) {
-                evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
-                BytecodeUtil.constInt(evaluateMethod, 0);
-            }
-            JvmCompilationContext ctx = new JvmCompilationContext(arrayVariableIndex, firstUnusedLocal, 0);
-            int outputArrayIndex = ctx.reserveArraySlots(expr.returnCount());
-            expr.compileToJvmBytecode(evaluateMethod, outputArrayIndex, ctx);
-            if (expr.returnCount() == 1) {
-                evaluateMethod.visitInsn(Opcodes.FASTORE);
+            String name = archive ? programCache.fetchArchivedName(archiveKey, 0) : programCache.fetchUniqueName();
+            generated = JvmClassGenerator.generate(name, parsed, compilerOptions);
+        } catch (Exception ex) {
+            throw new ClassGenerationException(ex);
+        }
+        // Pay for those bytes, plus even more because of all the other mem taken up by loaded classes in JIT and whatever (just an estimate here)
+        if (allocState != null) allocState.changeSize(generated.bytes().length * 4);
+        MolangProgram program;
+        try {
+            program = programCache.define(fingerprint, generated);
+        } catch (RuntimeException | LinkageError ex) {
+            throw new ClassGenerationException(ex);
+        }
+        if (archive) archiveClasses(archiveKey, parsed.actorVariables(), List.of(fingerprint), List.of(generated));
+        return program;
+    }
+
+    // Thrown when generating or defining a class fails, as opposed to the OOMErr from paying for it
+    static final class ClassGenerationException extends IllegalStateException {
+        ClassGenerationException(Throwable cause) {
+            super("Failed to compile molang", cause);
+        }
+    }
+
+    // Called by an InterpretedMolang once it's hot. May happen in the middle of evaluating another expression.
+    CompiledMolang<Actor> promote(ParsedMolang parsed, @Nullable String fingerprint, @Nullable String archiveKey) throws OOMErr {
+        // Something equivalent may have been compiled since
+        MolangProgram program = fingerprint == null ? null : programCache.get(fingerprint);
+        if (program == null) program = defineProgram(parsed, fingerprint, archiveKey);
+        return instantiate(program, 0);
+    }
+
+    // Key to store the classes for these sources under in the archive, or null if there's no archive.
+    // kind tells apart different ways of compiling the same sources.
+    private @Nullable String archiveKey(String kind, List<String> sources, List<String> contextVariables, Map<String, float[]> constants) {
+        if (programCache.archive == null) return null;
+        return MolangClassArchive.key(kind, sources, contextVariables, constants, queries.keySet(), compilerOptions, programCache.hiddenClasses);
+    }
+
+    // Key of the precompiled class for a source. Like archive keys, it covers the query names and compiler options.
+    String precompiledKey(String source, List<String> contextVariables, Map<String, float[]> constants) {
+        return MolangClassArchive.key("precompiled", List.of(source), contextVariables, constants, queries.keySet(), compilerOptions, false);
+    }
+
+    // Load the precompiled class for this source, or return null if there isn't one which fits this layout
+    private @Nullable MolangProgram loadPrecompiled(String source, List<String> contextVariables, Map<String, float[]> constants) throws OOMErr {
+        MolangPrecompiled precompiled = programCache.precompiled;
+        if (precompiled == null) return null;
+        MolangPrecompiled.Entry entry = precompiled.get(precompiledKey(source, contextVariables, constants));
+        if (entry == null || !layout.wouldBind(entry.variables()) || !bindStoredVariables(entry.variables())) return null;
+        MolangProgram program = entry.fingerprint() == null ? null : programCache.get(entry.fingerprint());
+        if (program == null) {
+            if (allocState != null) allocState.changeSize(entry.classSize() * 4);
+            program = programCache.define(entry.fingerprint(), precompiled.loadClass(entry), entry.argCount(), new int[] { entry.returnCount() }, entry.maxArraySlots(), entry.classSize());
+        }
+        return program;
+    }
+
+    // Define the classes of an archive entry which fits this layout, or return null if there isn't one.
+    // Binds the entry's actor variables, just like parsing its sources would have.
+    private @Nullable List<MolangProgram> loadArchived(String archiveKey) throws OOMErr {
+        for (MolangClassArchive.Entry entry : programCache.archive.get(archiveKey)) {
+            if (!layout.wouldBind(entry.variables()) || !bindStoredVariables(entry.variables())) continue;
+            List<MolangProgram> programs = new ArrayList<>(entry.classes().size());
+            for (MolangClassArchive.StoredClass stored : entry.classes()) {
+                MolangProgram program = programCache.get(stored.fingerprint());
+                if (program == null) {
+                    if (allocState != null) allocState.changeSize(stored.bytes().remaining() * 4);
+                    program = programCache.define(stored.fingerprint(), stored.name(), stored.bytes(), stored.argCount(), stored.returnCounts(), stored.maxArraySlots(), stored.batched());
+                }
+                programs.add(program);
             }
-            evaluateMethod.visitJumpInsn(Opcodes.GOTO, end);
-            // Set up float array local at index 1
-            evaluateMethod.visitLabel(setupFloatArrayLocal);
-            evaluateMethod.visitVarInsn(Opcodes.ALOAD, 0);
-            evaluateMethod.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
-            BytecodeUtil.constInt(evaluateMethod, ctx.getMaxArraySlots());
-            evaluateMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MolangInstance.class), "getTempStack", "(I)[F", false);
-            evaluateMethod.visitVarInsn(Opcodes.ASTORE, arrayVariableIndex);
-            // Run the code now
-            evaluateMethod.visitJumpInsn(Opcodes.GOTO, runCode);
-            // End
-            evaluateMethod.visitLabel(end);
-
-            // Return the float array
-            evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
-            evaluateMethod.visitInsn(Opcodes.ARETURN);
-            evaluateMethod.visitMaxs(0, 0);
-            evaluateMethod.visitEnd();
-
-            // Resize tempStack array if needed
-            if (tempStack.length < ctx.getMaxArraySlots()) {
-                tempStack = Arrays.copyOf(tempStack, ctx.getMaxArraySlots());
-                if (allocationTracker != null)
-                    allocationTracker.track(tempStack);
+            return programs;
+        }
+        return null;
+    }
+
+    // Bind the variables in order, returning false if any ended up somewhere else.
+    // That only happens if another instance sharing the layout created variables in the meantime.
+    private boolean bindStoredVariables(List<MolangClassArchive.Variable> variables) throws OOMErr {
+        for (MolangClassArchive.Variable variable : variables) {
+            ActorVariable bound;
+            try {
+                bound = getOrCreateActorVariable(variable.name(), variable.size());
+            } catch (MolangCompileException ex) {
+                return false;
             }
+            if (bound.location != variable.location() || bound.size != variable.size()) return false;
+        }
+        return true;
+    }
+
+    // Store freshly generated classes in the archive. Safe to call from any thread.
+    private void archiveClasses(String archiveKey, List<ActorVariable> variables, List<String> fingerprints, List<JvmClassGenerator.GeneratedClass> classes) {
+        List<MolangClassArchive.Variable> storedVariables = variables.stream()
+                .map(v -> new MolangClassArchive.Variable(v.name, v.size, v.location))
+                .toList();
+        List<MolangClassArchive.StoredClass> storedClasses = new ArrayList<>(classes.size());
+        for (int i = 0; i < classes.size(); i++) {
+            JvmClassGenerator.GeneratedClass generated = classes.get(i);
+            storedClasses.add(new MolangClassArchive.StoredClass(fingerprints.get(i), generated.name(), generated.argCount(), generated.returnCounts(), generated.maxArraySlots(), generated.batched(), ByteBuffer.wrap(generated.bytes())));
+        }
+        programCache.archive.put(archiveKey, new MolangClassArchive.Entry(storedVariables, storedClasses));
+    }
 
-            classWriter.visitEnd();
+    // Compile many expressions which share the same context variables and constants.
+    // Rather than one class per expression, they're packed together into as few classes as possible (see JvmClassGenerator.generateBatch),
+    // which saves most of the per-class overhead when loading hundreds of small expressions.
+    // Results are in the same order as the sources. Sources already in the compile cache are reused.
+    public List<CompiledMolang<Actor>> compileAll(List<String> sources, List<String> contextVariables, Map<String, float[]> constants) throws OOMErr, MolangCompileException {
+        if (contextVariables.size() > 8) throw new IllegalArgumentException("Must have at most 8 context variables");
+
+        List<CompiledMolang<Actor>> results = new ArrayList<>(Collections.nCopies(sources.size(), null));
+        // Find everything that isn't cached
+        List<Integer> pendingIndices = new ArrayList<>();
+        for (int i = 0; i < sources.size(); i++) {
+            CompiledMolang<Actor> cached = compileCache.get(sources.get(i), contextVariables, constants);
+            if (cached == null) {
+                // Precompiled classes don't need to be batched
+                MolangProgram precompiled = loadPrecompiled(sources.get(i), contextVariables, constants);
+                if (precompiled != null) {
+                    cached = instantiate(precompiled, 0);
+                    compileCache.put(sources.get(i), contextVariables, constants, cached);
+                }
+            }
+            if (cached != null) results.set(i, cached);
+            else pendingIndices.add(i);
+        }
+        if (pendingIndices.size() <= 1) {
+            // Not worth a batch
+            for (int i : pendingIndices) {
+                results.set(i, compileUncached(sources.get(i), contextVariables, constants));
+                compileCache.put(sources.get(i), contextVariables, constants, results.get(i));
+            }
+            return results;
+        }
 
-            byte[] classBytes = ((ClassWriter) classWriter.getDelegate().getDelegate()).toByteArray();
+        // A whole batch archived by an earlier run skips parsing entirely
+        List<String> pendingSources = pendingIndices.stream().map(sources::get).toList();
+        String archiveKey = archiveKey("batch", pendingSources, contextVariables, constants);
+        List<MolangProgram> programs = archiveKey == null ? null : loadArchived(archiveKey);
+        if (programs == null) programs = compileBatches(pendingSources, contextVariables, constants, archiveKey);
+
+        // Hand out a view of each expression
+        for (int p = 0; p < pendingIndices.size(); p++) {
+            int i = pendingIndices.get(p);
+            CompiledMolang<Actor> compiled = instantiate(programs.get(p / JvmClassGenerator.MAX_BATCH_SIZE), p % JvmClassGenerator.MAX_BATCH_SIZE);
+            results.set(i, compiled);
+            compileCache.put(sources.get(i), contextVariables, constants, compiled);
+        }
+        return results;
+    }
 
-            // Pay for those bytes, plus even more because of all the other mem taken up by loaded classes in JIT and whatever (just an estimate here)
-            if (allocState != null) allocState.changeSize(classBytes.length * 4);
+    // Parse the sources, and generate batch classes for them with up to MAX_BATCH_SIZE expressions each
+    private List<MolangProgram> compileBatches(List<String> sources, List<String> contextVariables, Map<String, float[]> constants, @Nullable String archiveKey) throws OOMErr, MolangCompileException {
+        List<ParsedMolang> parsed = new ArrayList<>(sources.size());
+        for (String source : sources) parsed.add(parse(source, contextVariables, constants));
+
+        List<MolangProgram> programs = new ArrayList<>();
+        // Classes generated here, and their fingerprints, for the archive
+        List<JvmClassGenerator.GeneratedClass> generatedClasses = new ArrayList<>();
+        List<String> fingerprints = new ArrayList<>();
+        for (int start = 0; start < parsed.size(); start += JvmClassGenerator.MAX_BATCH_SIZE) {
+            int end = Math.min(parsed.size(), start + JvmClassGenerator.MAX_BATCH_SIZE);
+            List<ParsedMolang> exprs = parsed.subList(start, end);
+
+            String fingerprint = Fingerprint.ofBatch(exprs.stream().map(ParsedMolang::expr).toList(), contextVariables.size());
+            MolangProgram program = fingerprint == null ? null : programCache.get(fingerprint);
+            if (program == null) {
+                JvmClassGenerator.GeneratedClass generated;
+                try {
+                    String name = archiveKey != null && fingerprint != null ? programCache.fetchArchivedName(archiveKey, programs.size()) : programCache.fetchUniqueName();
+                    generated = JvmClassGenerator.generateBatch(name, exprs, compilerOptions);
+                } catch (Exception ex) {
+                    throw new IllegalStateException("Failed to compile molang", ex);
+                }
+                if (allocState != null) allocState.changeSize(generated.bytes().length * 4);
+                program = programCache.define(fingerprint, generated);
+                generatedClasses.add(generated);
+                fingerprints.add(fingerprint);
+            }
+            programs.add(program);
+        }
 
-            Class<? extends CompiledMolang> clazz = loader.create(name, classBytes);
-            return clazz.getDeclaredConstructor(MolangInstance.class, int.class, int.class).newInstance(this, argCount, expr.returnCount());
-        } catch (Exception ex) {
-            throw new IllegalStateException("Failed to compile molang", ex);
+        // Only archive the batch if every class in it was just generated, and can be shared
+        if (archiveKey != null && generatedClasses.size() == programs.size() && !fingerprints.contains(null)) {
+            Set<ActorVariable> variables = new LinkedHashSet<>();
+            for (ParsedMolang expr : parsed) variables.addAll(expr.actorVariables());
+            archiveClasses(archiveKey, List.copyOf(variables), fingerprints, generatedClasses);
         }
+        return programs;
     }
 
-    private static class CustomClassLoader extends ClassLoader {
-        public CustomClassLoader(ClassLoader parent) {
-            super(parent);
+    // Like compile(), but only parsing happens here; generating and defining the class runs on the executor.
+    // Parsing has to stay on this thread, since it creates actor variables.
+    // Until the class is ready, the result is a PendingMolang which evaluates to zeros.
+    // Call installCompiled() regularly (say, once per tick) on this instance's thread to swap in finished classes.
+    // If an equivalent class already exists, it's used right away.
+    // If the executor rejects the task, the RejectedExecutionException is rethrown, and nothing is left in the compile cache.
+    public CompiledMolang<Actor> compileAsync(String source, List<String> contextVariables, Map<String, float[]> constants, Executor executor) throws OOMErr, MolangCompileException {
+        CompiledMolang<Actor> cached = compileCache.get(source, contextVariables, constants);
+        if (cached != null) return cached;
+        // Nothing to do in the background for precompiled or archived classes
+        MolangProgram precompiled = loadPrecompiled(source, contextVariables, constants);
+        String archiveKey = precompiled != null ? null : archiveKey("expr", List.of(source), contextVariables, constants);
+        List<MolangProgram> archived = archiveKey == null ? null : loadArchived(archiveKey);
+        if (precompiled != null || archived != null) {
+            CompiledMolang<Actor> result = instantiate(precompiled != null ? precompiled : archived.getFirst(), 0);
+            compileCache.put(source, contextVariables, constants, result);
+            return result;
         }
-        private int nextId;
-        public String fetchUniqueName() {
-            return "__CompiledMolang__" + (nextId++);
+        ParsedMolang parsed = parse(source, contextVariables, constants);
+        String fingerprint = Fingerprint.of(parsed.expr(), parsed.argCount());
+        MolangProgram program = fingerprint == null ? null : programCache.get(fingerprint);
+
+        if (program != null) {
+            CompiledMolang<Actor> result = instantiate(program, 0);
+            compileCache.put(source, contextVariables, constants, result);
+            return result;
         }
-        @SuppressWarnings("unchecked")
-        public Class<? extends CompiledMolang> create(String name, byte[] bytes) {
-            return (Class<? extends CompiledMolang>) defineClass(name, bytes, 0, bytes.length);
+
+        PendingMolang<Actor> pending = new PendingMolang<>(this, parsed.argCount(), parsed.expr().returnCount(), source, contextVariables, constants);
+        int pendingSize = AllocationTracker.OBJECT_SIZE * 3 + AllocationTracker.REFERENCE_SIZE * (7 + pending.contextVariables.size() + pending.constants.size() * 4) + AllocationTracker.INT_SIZE * 2 + pending.returnCount * AllocationTracker.FLOAT_SIZE;
+        if (allocState != null) allocState.changeSize(pendingSize);
+        boolean archive = archiveKey != null && fingerprint != null;
+        String name = archive ? programCache.fetchArchivedName(archiveKey, 0) : programCache.fetchUniqueName();
+        // Cached before it's handed off, so a rejected task can take it back out
+        compileCache.put(source, contextVariables, constants, pending);
+        try {
+            executor.execute(() -> {
+                // Only touches the (finished) AST, the program cache and the archive, which are synchronized
+                try {
+                    JvmClassGenerator.GeneratedClass generated = JvmClassGenerator.generate(name, parsed, compilerOptions);
+                    pending.program = programCache.define(fingerprint, generated);
+                    if (archive) archiveClasses(archiveKey, parsed.actorVariables(), List.of(fingerprint), List.of(generated));
+                } catch (Throwable ex) {
+                    pending.failure = ex;
+                }
+                finishedAsync.add(pending);
+            });
+        } catch (RejectedExecutionException ex) {
+            // The task will never run, so don't leave a placeholder which would return zeros forever
+            compileCache.remove(source, contextVariables, constants, pending);
+            if (allocState != null) allocState.changeSize(-pendingSize);
+            throw ex;
+        }
+        return pending;
+    }
+
+    // Swap finished background compilations into their placeholders. Must be called on this instance's thread,
+    // since it's the one allowed to grow tempStack and charge the allocation tracker.
+    // Returns how many were installed. If any failed, throws after installing the rest; those placeholders keep returning zeros,
+    // but are dropped from the compile cache, so compiling the same source again starts a fresh attempt.
+    public int installCompiled() throws OOMErr {
+        int installed = 0;
+        Throwable failure = null;
+        PendingMolang<Actor> pending;
+        while ((pending = finishedAsync.poll()) != null) {
+            if (pending.failure != null) {
+                compileCache.remove(pending.source, pending.contextVariables, pending.constants, pending);
+                if (failure == null) failure = pending.failure;
+                else failure.addSuppressed(pending.failure);
+                continue;
+            }
+            // Pay for the class now, on this thread
+            if (allocState != null) allocState.changeSize(pending.program.classSize * 4);
+            pending.install(instantiate(pending.program, 0));
+            installed++;
         }
+        if (failure != null) throw new IllegalStateException("Failed to compile molang", failure);
+        return installed;
+    }
+
+    // Bind a program to this instance, making sure there's enough tempStack space for it.
+    // Only ever called on this instance's thread, so tempStack is never resized under a running expression on another thread.
+    private CompiledMolang<Actor> instantiate(MolangProgram program, int index) throws OOMErr {
+        // Resize tempStack array if needed
+        if (tempStack.length < program.maxArraySlots) {
+            tempStack = Arrays.copyOf(tempStack, program.maxArraySlots);
+            if (allocationTracker != null)
+                allocationTracker.track(tempStack);
+        }
+        ensureActorVariableCapacity();
+        CompiledMolang<Actor> res = program.instantiate(this, index);
+        if (allocState != null) allocState.changeSize(AllocationTracker.OBJECT_SIZE + AllocationTracker.REFERENCE_SIZE + AllocationTracker.INT_SIZE * 2);
+        return res;
     }
 
 }
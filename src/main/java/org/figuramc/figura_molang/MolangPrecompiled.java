@@ -0,0 +1,157 @@
+package org.figuramc.figura_molang;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Classes generated ahead of time by MolangPrecompiler, found through the manifest it writes next to them.
+ * Attach one to a MolangProgramCache, and compiling a source that was precompiled loads its class through
+ * the ClassLoader instead of parsing it and running ASM. Sources that weren't precompiled still compile as usual.
+ *
+ * Entries are looked up by the same kind of key as MolangClassArchive, so precompiled classes are only used
+ * with the query names and compiler options they were generated with.
+ * The precompiler binds every actor variable into one layout, and the manifest records it.
+ * A program cache binds that layout up front, so each class finds its variables where it expects them.
+ */
+public final class MolangPrecompiled {
+
+    // Where the manifest lives, in the jar alongside the classes
+    public static final String MANIFEST_PATH = "META-INF/molang/precompiled.manifest";
+
+    private static final int MAGIC = 0x4D4F4C50; // "MOLP"
+    private static final int FORMAT_VERSION = 1;
+
+    // One precompiled class. variables are the actor variables it uses, like in a MolangClassArchive entry.
+    // The fingerprint is null if the class can't be shared with equivalent expressions.
+    record Entry(String className, @Nullable String fingerprint, int argCount, int returnCount, int maxArraySlots, int classSize, List<MolangClassArchive.Variable> variables) {}
+
+    private final ClassLoader loader;
+    // Every actor variable, in the order the precompiler bound them
+    final List<MolangClassArchive.Variable> layout;
+    private final Map<String, Entry> entriesByKey;
+
+    MolangPrecompiled(ClassLoader loader, List<MolangClassArchive.Variable> layout, Map<String, Entry> entriesByKey) {
+        this.loader = loader;
+        this.layout = layout;
+        this.entriesByKey = entriesByKey;
+    }
+
+    // Read the manifest at MANIFEST_PATH, loading classes through the same loader.
+    // Returns null if the loader can't see a manifest.
+    public static @Nullable MolangPrecompiled load(ClassLoader loader) throws IOException {
+        try (InputStream manifest = loader.getResourceAsStream(MANIFEST_PATH)) {
+            return manifest == null ? null : read(loader, manifest);
+        }
+    }
+
+    static MolangPrecompiled read(ClassLoader loader, InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) throw new IOException("Not a precompiled molang manifest");
+        int formatVersion = in.readInt();
+        int compilerVersion = in.readInt();
+        if (formatVersion != FORMAT_VERSION || compilerVersion != MolangClassArchive.COMPILER_VERSION)
+            throw new IOException("Precompiled molang is from an incompatible version, and needs to be precompiled again");
+        List<MolangClassArchive.Variable> layout = readVariables(in);
+        int entryCount = in.readInt();
+        Map<String, Entry> entriesByKey = new HashMap<>(entryCount * 2);
+        for (int i = 0; i < entryCount; i++) {
+            String key = readString(in);
+            String className = readString(in);
+            String fingerprint = in.readBoolean() ? readString(in) : null;
+            int argCount = in.readInt();
+            int returnCount = in.readInt();
+            int maxArraySlots = in.readInt();
+            int classSize = in.readInt();
+            entriesByKey.put(key, new Entry(className, fingerprint, argCount, returnCount, maxArraySlots, classSize, readVariables(in)));
+        }
+        return new MolangPrecompiled(loader, layout, entriesByKey);
+    }
+
+    // Write a manifest for these entries, keyed like MolangInstance.precompiledKey()
+    static void write(OutputStream stream, List<MolangClassArchive.Variable> layout, Map<String, Entry> entriesByKey) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(MolangClassArchive.COMPILER_VERSION);
+        writeVariables(out, layout);
+        // Sorted, so the same sources always give the same manifest
+        List<String> keys = new ArrayList<>(entriesByKey.keySet());
+        Collections.sort(keys);
+        out.writeInt(keys.size());
+        for (String key : keys) {
+            Entry entry = entriesByKey.get(key);
+            writeString(out, key);
+            writeString(out, entry.className());
+            out.writeBoolean(entry.fingerprint() != null);
+            if (entry.fingerprint() != null) writeString(out, entry.fingerprint());
+            out.writeInt(entry.argCount());
+            out.writeInt(entry.returnCount());
+            out.writeInt(entry.maxArraySlots());
+            out.writeInt(entry.classSize());
+            writeVariables(out, entry.variables());
+        }
+        out.flush();
+    }
+
+    private static List<MolangClassArchive.Variable> readVariables(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        List<MolangClassArchive.Variable> variables = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) variables.add(new MolangClassArchive.Variable(readString(in), in.readInt(), in.readInt()));
+        return List.copyOf(variables);
+    }
+
+    private static void writeVariables(DataOutputStream out, List<MolangClassArchive.Variable> variables) throws IOException {
+        out.writeInt(variables.size());
+        for (MolangClassArchive.Variable variable : variables) {
+            writeString(out, variable.name());
+            out.writeInt(variable.size());
+            out.writeInt(variable.location());
+        }
+    }
+
+    // Length-prefixed UTF-8, since fingerprints can be longer than writeUTF() allows
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Find the entry for a key, or null if that source wasn't precompiled
+    @Nullable Entry get(String key) {
+        return entriesByKey.get(key);
+    }
+
+    // Load an entry's class. It was written along with the manifest, so it missing means the jar is broken.
+    @SuppressWarnings("unchecked")
+    Class<? extends CompiledMolang> loadClass(Entry entry) {
+        try {
+            Class<?> clazz = Class.forName(entry.className().replace('/', '.'), true, loader);
+            if (!CompiledMolang.class.isAssignableFrom(clazz)) throw new IllegalStateException("Precompiled molang class " + entry.className() + " isn't a CompiledMolang");
+            return (Class<? extends CompiledMolang>) clazz;
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalStateException("Precompiled molang class " + entry.className() + " is missing", ex);
+        }
+    }
+
+    public int size() {
+        return entriesByKey.size();
+    }
+
+}
@@ -0,0 +1,150 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.ast.vars.ActorVariable;
+import org.figuramc.figura_molang.compile.Fingerprint;
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.figuramc.figura_molang.compile.ParsedMolang;
+import org.figuramc.figura_molang.compile.jvm.JvmClassGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * Generates classes for known sources ahead of time, at build time, and writes them to a jar along with a manifest.
+ * Put the jar on the classpath and attach MolangPrecompiled.load() to a MolangProgramCache, and those sources
+ * load their classes without parsing or running ASM.
+ *
+ * Precompiled classes only apply to instances with the same query names and compiler options as the precompiler,
+ * so precompile with whatever the runtime uses. Other sources are compiled at runtime as usual.
+ *
+ * Also runnable from the command line, over a directory of .molang files with the default queries:
+ *   MolangPrecompiler <source directory> <output jar> [--context a,b,c] [--package name] [--optimization NONE|BASIC|FULL] [--fast-math]
+ * Each file holds one expression. The source is the whole file, exactly as the runtime will pass it to compile().
+ */
+public final class MolangPrecompiler {
+
+    public static final String DEFAULT_PACKAGE = "org.figuramc.figura_molang.precompiled";
+
+    private final MolangInstance<Object, RuntimeException> instance;
+    private final List<String> contextVariables;
+    private final String packagePath;
+
+    private final Map<String, MolangPrecompiled.Entry> entriesByKey = new HashMap<>();
+    private final List<JvmClassGenerator.GeneratedClass> classes = new ArrayList<>();
+
+    // Every source added takes these context variables, and is compiled with these queries and options
+    public MolangPrecompiler(Map<String, ? extends MolangInstance.Query<? super Object, RuntimeException>> queries, List<String> contextVariables, MolangCompilerOptions options, String packageName) {
+        if (contextVariables.size() > 8) throw new IllegalArgumentException("Must have at most 8 context variables");
+        // No compile cache, and nothing interpreted: every source gets its class generated right away
+        this.instance = new MolangInstance<>(null, null, queries, 0, new MolangProgramCache(), options);
+        this.contextVariables = List.copyOf(contextVariables);
+        this.packagePath = packageName.replace('.', '/');
+    }
+
+    // Parse a source and generate its class. Adding the same source again does nothing.
+    public void add(String source) throws MolangCompileException {
+        String key = instance.precompiledKey(source, contextVariables, Map.of());
+        if (entriesByKey.containsKey(key)) return;
+        ParsedMolang parsed = instance.parse(source, contextVariables, Map.of());
+        String name = packagePath + "/__CompiledMolang__" + classes.size();
+        JvmClassGenerator.GeneratedClass generated = JvmClassGenerator.generate(name, parsed, instance.getCompilerOptions());
+        List<MolangClassArchive.Variable> variables = parsed.actorVariables().stream().map(MolangPrecompiler::variable).toList();
+        entriesByKey.put(key, new MolangPrecompiled.Entry(name, Fingerprint.of(parsed.expr(), parsed.argCount()), generated.argCount(),
+                generated.returnCounts()[0], generated.maxArraySlots(), generated.bytes().length, variables));
+        classes.add(generated);
+    }
+
+    // Number of distinct sources added
+    public int size() {
+        return classes.size();
+    }
+
+    // Write every class so far, and the manifest, to a jar
+    public void writeJar(Path jar) throws IOException {
+        // The whole layout, in binding order. Every variable was bound while parsing some source, so it's in some entry.
+        Map<String, MolangClassArchive.Variable> layout = new HashMap<>();
+        for (MolangPrecompiled.Entry entry : entriesByKey.values())
+            for (MolangClassArchive.Variable variable : entry.variables()) layout.put(variable.name(), variable);
+        List<MolangClassArchive.Variable> sortedLayout = new ArrayList<>(layout.values());
+        sortedLayout.sort(Comparator.comparingInt(MolangClassArchive.Variable::location));
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (jar.getParent() != null) Files.createDirectories(jar.getParent());
+        try (OutputStream out = Files.newOutputStream(jar); JarOutputStream jarOut = new JarOutputStream(out, manifest)) {
+            for (JvmClassGenerator.GeneratedClass generated : classes) {
+                jarOut.putNextEntry(new JarEntry(generated.name() + ".class"));
+                jarOut.write(generated.bytes());
+                jarOut.closeEntry();
+            }
+            jarOut.putNextEntry(new JarEntry(MolangPrecompiled.MANIFEST_PATH));
+            MolangPrecompiled.write(jarOut, sortedLayout, entriesByKey);
+            jarOut.closeEntry();
+        }
+    }
+
+    private static MolangClassArchive.Variable variable(ActorVariable variable) {
+        return new MolangClassArchive.Variable(variable.name, variable.size, variable.location);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) usage("Expected a source directory and an output jar");
+        Path sourceDirectory = Path.of(args[0]);
+        Path outputJar = Path.of(args[1]);
+        List<String> contextVariables = List.of();
+        String packageName = DEFAULT_PACKAGE;
+        MolangCompilerOptions options = MolangCompilerOptions.DEFAULT;
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--context" -> contextVariables = i + 1 < args.length ? List.of(args[++i].split(",")) : usage("Expected context variable names");
+                case "--package" -> packageName = i + 1 < args.length ? args[++i] : usage("Expected a package name");
+                case "--optimization" -> {
+                    if (i + 1 >= args.length) usage("Expected an optimization level");
+                    try {
+                        options = options.withOptimizationLevel(MolangCompilerOptions.OptimizationLevel.valueOf(args[++i]));
+                    } catch (IllegalArgumentException ex) {
+                        usage("Unknown optimization level " + args[i]);
+                    }
+                }
+                case "--fast-math" -> options = options.withFastMath(true);
+                default -> usage("Unknown option " + args[i]);
+            }
+        }
+        if (!Files.isDirectory(sourceDirectory)) usage(sourceDirectory + " isn't a directory");
+
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(sourceDirectory)) {
+            // Sorted, so the classes and layout come out the same on every machine
+            files = walk.filter(path -> Files.isRegularFile(path) && path.getFileName().toString().endsWith(".molang")).sorted().toList();
+        }
+        MolangPrecompiler precompiler = new MolangPrecompiler(DefaultQueries.getDefaultQueries(), contextVariables, options, packageName);
+        boolean failed = false;
+        for (Path file : files) {
+            try {
+                precompiler.add(Files.readString(file));
+            } catch (MolangCompileException ex) {
+                System.err.println(sourceDirectory.relativize(file) + ": " + ex.getMessage() + "\n    " + ex.sourceSnippet);
+                failed = true;
+            }
+        }
+        if (failed) System.exit(1);
+        precompiler.writeJar(outputJar);
+        System.out.println("Precompiled " + precompiler.size() + " molang expressions from " + files.size() + " files into " + outputJar);
+    }
+
+    private static <T> T usage(String problem) {
+        System.err.println(problem);
+        System.err.println("Usage: MolangPrecompiler <source directory> <output jar> [--context a,b,c] [--package name] [--optimization NONE|BASIC|FULL] [--fast-math]");
+        System.exit(2);
+        throw new IllegalStateException(); // Unreachable
+    }
+
+}
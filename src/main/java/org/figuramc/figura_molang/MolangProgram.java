@@ -0,0 +1,64 @@
+package org.figuramc.figura_molang;
+
+import java.lang.reflect.Constructor;
+
+/**
+ * A defined, generated CompiledMolang class.
+ * The class holds no per-instance state, so one program can be instantiated against any number of MolangInstances,
+ * as long as they share the VariableLayout it was compiled with.
+ *
+ * A batched program holds several expressions in one class; each is instantiated by its index.
+ */
+public final class MolangProgram {
+
+    public final int argCount;
+    public final int maxArraySlots; // Size of tempStack required by the generated code
+    public final int classSize; // Size of the class bytes, for memory tracking
+    public final boolean batched;
+    private final int[] returnCounts;
+    private final Constructor<? extends CompiledMolang> constructor;
+
+    MolangProgram(Class<? extends CompiledMolang> clazz, int argCount, int[] returnCounts, int maxArraySlots, int classSize, boolean batched) {
+        this.argCount = argCount;
+        this.returnCounts = returnCounts;
+        this.maxArraySlots = maxArraySlots;
+        this.classSize = classSize;
+        this.batched = batched;
+        try {
+            this.constructor = batched
+                    ? clazz.getDeclaredConstructor(MolangInstance.class, int.class, int.class, int.class)
+                    : clazz.getDeclaredConstructor(MolangInstance.class, int.class, int.class);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("Generated molang class is missing its constructor", ex);
+        }
+    }
+
+    // Number of expressions in this program
+    public int size() {
+        return returnCounts.length;
+    }
+
+    public int returnCount(int index) {
+        return returnCounts[index];
+    }
+
+    // Create a CompiledMolang for the index'th expression, bound to this instance.
+    // The caller is responsible for making sure the instance's tempStack has at least maxArraySlots.
+    @SuppressWarnings("unchecked")
+    <Actor> CompiledMolang<Actor> instantiate(MolangInstance<Actor, ?> instance, int index) {
+        try {
+            CompiledMolang<Actor> res;
+            if (batched) {
+                res = (CompiledMolang<Actor>) constructor.newInstance(instance, argCount, returnCounts[index], index);
+            } else {
+                if (index != 0) throw new IndexOutOfBoundsException("Non-batched program only has index 0");
+                res = (CompiledMolang<Actor>) constructor.newInstance(instance, argCount, returnCounts[0]);
+            }
+            res.program = this;
+            return res;
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("Failed to instantiate compiled molang", ex);
+        }
+    }
+
+}
@@ -0,0 +1,199 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.jvm.JvmClassGenerator;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Owns generated classes, and deduplicates them by the structural fingerprint of the parsed expression.
+ *
+ * Pass the same cache to many MolangInstances to share one VariableLayout and one class per distinct expression,
+ * instead of every instance defining its own copy of every class.
+ * Each MolangInstance created without a shared cache gets a private one.
+ *
+ * Classes are defined in one of two ways:
+ * - By default, in a custom ClassLoader owned by this cache. Classes live as long as the cache does.
+ * - With hiddenClasses, through Lookup.defineHiddenClass(). Each class can be unloaded on its own once
+ *   no CompiledMolang using it is reachable, so long sessions don't slowly fill metaspace.
+ *   Note that each MolangInstance caches up to MolangCompileCache.DEFAULT_CAPACITY compiled expressions by default,
+ *   and a cached CompiledMolang keeps its class alive until it's evicted. Create instances with compileCacheCapacity 0
+ *   if classes should unload as soon as the caller drops its last reference.
+ *
+ * With a MolangClassArchive attached, generated classes are also stored on disk, and later runs define them from there
+ * instead of parsing and generating them again.
+ * With MolangPrecompiled classes attached, sources precompiled at build time load their classes through the ClassLoader,
+ * never running ASM at all.
+ *
+ * Instances sharing a cache may be used from different threads, so access is synchronized.
+ */
+public class MolangProgramCache {
+
+    // Layout of actor variables, shared by every instance using this cache
+    public final VariableLayout layout = new VariableLayout();
+
+    public final boolean hiddenClasses;
+    public final @Nullable MolangClassArchive archive;
+    public final @Nullable MolangPrecompiled precompiled;
+    private final @Nullable CustomClassLoader loader;
+    private final AtomicInteger nextHiddenId = new AtomicInteger();
+
+    // Programs are held weakly. Each CompiledMolang refers to its program, so they stay alive while in use.
+    private final Map<String, ProgramReference> programsByFingerprint = new HashMap<>();
+    private final ReferenceQueue<MolangProgram> collectedPrograms = new ReferenceQueue<>();
+    // The class loader keeps all its classes alive anyway, so in that mode keep the programs alive too
+    private final @Nullable List<MolangProgram> retainedPrograms;
+
+    private long hits, misses;
+
+    public MolangProgramCache() {
+        this(false);
+    }
+
+    public MolangProgramCache(boolean hiddenClasses) {
+        this(hiddenClasses, null);
+    }
+
+    // The archive isn't closed along with this cache; close it when the game shuts down, to save new classes.
+    public MolangProgramCache(boolean hiddenClasses, @Nullable MolangClassArchive archive) {
+        this(hiddenClasses, archive, null);
+    }
+
+    public MolangProgramCache(boolean hiddenClasses, @Nullable MolangClassArchive archive, @Nullable MolangPrecompiled precompiled) {
+        this.hiddenClasses = hiddenClasses;
+        this.archive = archive;
+        this.precompiled = precompiled;
+        // Bind the precompiled layout while the layout is still empty, so every variable lands where the precompiled classes expect it
+        if (precompiled != null) {
+            for (MolangClassArchive.Variable variable : precompiled.layout)
+                layout.getOrCreate(variable.name(), variable.size());
+        }
+        this.loader = hiddenClasses ? null : new CustomClassLoader(MolangProgramCache.class.getClassLoader());
+        this.retainedPrograms = hiddenClasses ? null : new ArrayList<>();
+    }
+
+    // Fetch an existing program with this fingerprint, or null if there isn't one
+    public synchronized @Nullable MolangProgram get(String fingerprint) {
+        expungeCollected();
+        ProgramReference ref = programsByFingerprint.get(fingerprint);
+        MolangProgram program = ref == null ? null : ref.get();
+        if (program == null) misses++;
+        else hits++;
+        return program;
+    }
+
+    // Get a fresh name to generate a class under. Safe to call from any thread.
+    // Hidden classes must be in the same package as the Lookup defining them.
+    public String fetchUniqueName() {
+        if (hiddenClasses) return "org/figuramc/figura_molang/__CompiledMolang__" + nextHiddenId.getAndIncrement();
+        return loader.fetchUniqueName();
+    }
+
+    // Get the name to generate the part'th class of an archive entry under.
+    // It's derived from the archive key, so it can't clash with classes defined from the archive by this or any other run.
+    public String fetchArchivedName(String archiveKey, int part) {
+        String name = "__CompiledMolang__" + archiveKey + "_" + part;
+        return hiddenClasses ? "org/figuramc/figura_molang/" + name : name;
+    }
+
+    // Define a generated class and remember it under the fingerprint.
+    // If another program with this fingerprint was defined in the meantime, that one is returned instead.
+    // Pass a null fingerprint for code which can't be shared.
+    public synchronized MolangProgram define(@Nullable String fingerprint, JvmClassGenerator.GeneratedClass generated) {
+        return define(fingerprint, generated.name(), ByteBuffer.wrap(generated.bytes()), generated.argCount(), generated.returnCounts(), generated.maxArraySlots(), generated.batched());
+    }
+
+    // Same as above, for class bytes which weren't just generated, like ones from the archive
+    synchronized MolangProgram define(@Nullable String fingerprint, String name, ByteBuffer bytes, int argCount, int[] returnCounts, int maxArraySlots, boolean batched) {
+        expungeCollected();
+        if (fingerprint != null) {
+            ProgramReference ref = programsByFingerprint.get(fingerprint);
+            MolangProgram existing = ref == null ? null : ref.get();
+            if (existing != null) return existing;
+        }
+        int classSize = bytes.remaining();
+        Class<? extends CompiledMolang> clazz = hiddenClasses ? defineHidden(bytes) : loader.create(name, bytes.duplicate());
+        return register(fingerprint, new MolangProgram(clazz, argCount, returnCounts, maxArraySlots, classSize, batched));
+    }
+
+    // Same as above, for a class which is already loaded, like a precompiled one
+    synchronized MolangProgram define(@Nullable String fingerprint, Class<? extends CompiledMolang> clazz, int argCount, int[] returnCounts, int maxArraySlots, int classSize) {
+        expungeCollected();
+        if (fingerprint != null) {
+            ProgramReference ref = programsByFingerprint.get(fingerprint);
+            MolangProgram existing = ref == null ? null : ref.get();
+            if (existing != null) return existing;
+        }
+        return register(fingerprint, new MolangProgram(clazz, argCount, returnCounts, maxArraySlots, classSize, false));
+    }
+
+    private MolangProgram register(@Nullable String fingerprint, MolangProgram program) {
+        if (fingerprint != null) programsByFingerprint.put(fingerprint, new ProgramReference(fingerprint, program, collectedPrograms));
+        if (retainedPrograms != null) retainedPrograms.add(program);
+        return program;
+    }
+
+    public synchronized int size() { expungeCollected(); return programsByFingerprint.size(); }
+    public synchronized long hits() { return hits; }
+    public synchronized long misses() { return misses; }
+
+    // Remove entries whose programs were garbage collected
+    private void expungeCollected() {
+        ProgramReference ref;
+        while ((ref = (ProgramReference) collectedPrograms.poll()) != null) {
+            // Only remove if it wasn't replaced by a newer program in the meantime
+            if (programsByFingerprint.get(ref.fingerprint) == ref)
+                programsByFingerprint.remove(ref.fingerprint);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Class<? extends CompiledMolang> defineHidden(ByteBuffer buffer) {
+        // Freshly generated classes are already a whole array; archived ones need copying out of the file
+        byte[] bytes;
+        if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer.position() == 0 && buffer.remaining() == buffer.array().length) {
+            bytes = buffer.array();
+        } else {
+            bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+        }
+        try {
+            // Not STRONG, so the class is only as reachable as its instances
+            return (Class<? extends CompiledMolang>) MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Failed to define hidden molang class", ex);
+        }
+    }
+
+    private static class ProgramReference extends WeakReference<MolangProgram> {
+        private final String fingerprint;
+        private ProgramReference(String fingerprint, MolangProgram program, ReferenceQueue<MolangProgram> queue) {
+            super(program, queue);
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private static class CustomClassLoader extends ClassLoader {
+        public CustomClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+        private final AtomicInteger nextId = new AtomicInteger();
+        public String fetchUniqueName() {
+            return "__CompiledMolang__" + nextId.getAndIncrement();
+        }
+        @SuppressWarnings("unchecked")
+        public Class<? extends CompiledMolang> create(String name, ByteBuffer bytes) {
+            // Straight from the buffer, even if it's a view of an archive's loaded file
+            return (Class<? extends CompiledMolang>) defineClass(name, bytes, null);
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package org.figuramc.figura_molang;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Placeholder handed out by MolangInstance.compileAsync() while the class is generated in the background.
+ * Evaluates to zeros until MolangInstance.installCompiled() swaps in the real code, and forwards to it after that.
+ *
+ * The background task fills in program/failure, then hands this to the instance through a concurrent queue,
+ * which is what makes them visible to the thread that installs it. Everything else only happens on the instance's thread.
+ */
+public final class PendingMolang<Actor> extends CompiledMolang<Actor> {
+
+    private final float[] zeros;
+    // What this was compiled from, so a failed placeholder can be dropped from the compile cache again.
+    // Copies, since the caller may change its lists/maps/arrays afterward.
+    final String source;
+    final List<String> contextVariables;
+    final Map<String, float[]> constants;
+    // Set by the background task
+    @Nullable MolangProgram program;
+    @Nullable Throwable failure;
+    // Set when installed
+    private @Nullable CompiledMolang<Actor> compiled;
+
+    PendingMolang(MolangInstance<Actor, ?> instance, int argCount, int returnCount, String source, List<String> contextVariables, Map<String, float[]> constants) {
+        super(instance, argCount, returnCount);
+        this.zeros = new float[returnCount];
+        this.source = source;
+        this.contextVariables = List.copyOf(contextVariables);
+        this.constants = new HashMap<>(constants.size());
+        for (var constant : constants.entrySet())
+            this.constants.put(constant.getKey(), constant.getValue().clone());
+    }
+
+    // Whether the generated code is in use yet
+    public boolean isInstalled() {
+        return compiled != null;
+    }
+
+    // If generating the class failed, why. Such a placeholder is never installed, and keeps returning zeros.
+    // It's also dropped from the compile cache, so compiling the same source again tries again instead of getting this.
+    public @Nullable Throwable getFailure() {
+        return failure;
+    }
+
+    void install(CompiledMolang<Actor> compiled) {
+        this.compiled = compiled;
+        this.program = null;
+    }
+
+    private float[] zeros(int args) {
+        if (args != argCount) throw new UnsupportedOperationException("Wrong argument count to CompiledMolang.evaluateImpl()");
+        return zeros;
+    }
+
+    @Override protected float[] evaluateImpl() { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl() : zeros(0); }
+    @Override protected float[] evaluateImpl(float a) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl(a) : zeros(1); }
+    @Override protected float[] evaluateImpl(float a, float b) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl(a, b) : zeros(2); }
+    @Override protected float[] evaluateImpl(float a, float b, float c) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl(a, b, c) : zeros(3); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl(a, b, c, d) : zeros(4); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl(a, b, c, d, e) : zeros(5); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl(a, b, c, d, e, f) : zeros(6); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl(a, b, c, d, e, f, g) : zeros(7); }
+    @Override protected float[] evaluateImpl(float a, float b, float c, float d, float e, float f, float g, float h) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateImpl(a, b, c, d, e, f, g, h) : zeros(8); }
+
+    @Override protected float evaluateScalarImpl() { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl() : zeros(0)[0]; }
+    @Override protected float evaluateScalarImpl(float a) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl(a) : zeros(1)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl(a, b) : zeros(2)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl(a, b, c) : zeros(3)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl(a, b, c, d) : zeros(4)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d, float e) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl(a, b, c, d, e) : zeros(5)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl(a, b, c, d, e, f) : zeros(6)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f, float g) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl(a, b, c, d, e, f, g) : zeros(7)[0]; }
+    @Override protected float evaluateScalarImpl(float a, float b, float c, float d, float e, float f, float g, float h) { CompiledMolang<Actor> x = compiled; return x != null ? x.evaluateScalarImpl(a, b, c, d, e, f, g, h) : zeros(8)[0]; }
+
+    @Override protected void evaluateBatchImpl(float[] args, int rows, float[] out) { CompiledMolang<Actor> x = compiled; if (x != null) x.evaluateBatchImpl(args, rows, out); else super.evaluateBatchImpl(args, rows, out); }
+
+}
@@ -4,14 +4,21 @@ import org.figuramc.figura_molang.ast.Literal;
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.ast.VectorConstructor;
 import org.figuramc.figura_molang.ast.vars.ContextVariable;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+import org.jetbrains.annotations.Nullable;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Class for creating custom queries on actors. They only accept scalars.
@@ -23,7 +30,15 @@ public class QueryFactory<Actor> {
      * If the actor is not present, or is not an instance of actorClass, the query will return 0 (or a vector of zeros).
      */
     public static <Actor> MolangInstance.Query<Actor, RuntimeException> fromActorMethod(String name, Class<Actor> actorClass, String methodName, int paramCount, int returnCount) {
-        return fromActorMethod(name, actorClass, actorClass, false, methodName, paramCount, returnCount);
+        return fromActorMethod(name, actorClass, methodName, paramCount, returnCount, false);
+    }
+
+    /**
+     * If pure is true, the method promises to have no effects, and to return the same thing for the same actor and args
+     * throughout one evaluation. Repeated calls with the same args are then only made once.
+     */
+    public static <Actor> MolangInstance.Query<Actor, RuntimeException> fromActorMethod(String name, Class<Actor> actorClass, String methodName, int paramCount, int returnCount, boolean pure) {
+        return fromActorMethod(name, actorClass, actorClass, false, methodName, paramCount, returnCount, pure);
     }
 
     /**
@@ -31,39 +46,85 @@ public class QueryFactory<Actor> {
      * It still checks that the actor is an instance of actorClass before invoking the static method.
      */
     public static <Actor> MolangInstance.Query<Actor, RuntimeException> fromStaticActorMethod(String name, Class<Actor> actorClass, Class<?> methodClass, String methodName, int paramCount, int returnCount) {
-        return fromActorMethod(name, actorClass, methodClass, true, methodName, paramCount, returnCount);
+        return fromStaticActorMethod(name, actorClass, methodClass, methodName, paramCount, returnCount, false);
+    }
+
+    /**
+     * See fromActorMethod for what pure means.
+     */
+    public static <Actor> MolangInstance.Query<Actor, RuntimeException> fromStaticActorMethod(String name, Class<Actor> actorClass, Class<?> methodClass, String methodName, int paramCount, int returnCount, boolean pure) {
+        return fromActorMethod(name, actorClass, methodClass, true, methodName, paramCount, returnCount, pure);
     }
 
     /**
      * From a generic static method, does not use an Actor.
      */
     public static MolangInstance.Query<Object, RuntimeException> fromStaticMethod(String name, Class<?> methodOwnerClass, String methodName, int paramCount, int returnCount) {
+        return fromStaticMethod(name, methodOwnerClass, methodName, paramCount, returnCount, false);
+    }
+
+    /**
+     * If pure is true, the method promises to have no effects, and to return the same thing for the same args
+     * throughout one evaluation. Repeated calls with the same args are then only made once.
+     */
+    public static MolangInstance.Query<Object, RuntimeException> fromStaticMethod(String name, Class<?> methodOwnerClass, String methodName, int paramCount, int returnCount, boolean pure) {
         return (parser, args, source, funcNameStart, funcNameEnd) -> {
             // Verify args
             if (args.size() != paramCount) throw new MolangCompileException(MolangCompileException.WRONG_ARG_COUNT, name, String.valueOf(paramCount), String.valueOf(args.size()), source, funcNameStart, funcNameEnd);
             if (args.stream().anyMatch(MolangExpr::isVector)) throw new MolangCompileException(MolangCompileException.SCALAR_ARGS_ONLY, name, source, funcNameStart, funcNameEnd);
-            // Return
-            return new MolangExpr() {
-                @Override
-                protected int computeReturnCount() {
-                    return returnCount;
-                }
-                @Override
-                public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-                    // Call the method.
-                    for (MolangExpr arg : args) arg.compileToJvmBytecode(visitor, outputArrayIndex, context);
-                    String descriptor = "(" + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
-                    visitor.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(methodOwnerClass), methodName, descriptor, false);
-                    // If it returned 1 float, we're done, otherwise copy from float[] into output
-                    if (returnCount != 1) {
-                        BytecodeUtil.constInt(visitor, 0); // [arr, 0]
-                        visitor.visitVarInsn(Opcodes.ALOAD, 1); // [arr, 0, temp]
-                        BytecodeUtil.constInt(visitor, outputArrayIndex); // [arr, 0, temp, dst]
-                        BytecodeUtil.constInt(visitor, returnCount); // [arr, 0, temp, dst, count]
-                        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
-                    }
+            return staticMethodCall(methodOwnerClass, methodName, paramCount, returnCount, pure, args);
+        };
+    }
+
+    private static MolangExpr staticMethodCall(Class<?> methodOwnerClass, String methodName, int paramCount, int returnCount, boolean pure, List<MolangExpr> args) {
+        return new MolangExpr() {
+            @Override
+            protected int computeReturnCount() {
+                return returnCount;
+            }
+            @Override
+            public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+                // Call the method.
+                for (MolangExpr arg : args) arg.compileToJvmBytecode(visitor, outputArrayIndex, context);
+                String descriptor = "(" + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
+                visitor.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(methodOwnerClass), methodName, descriptor, false);
+                // If it returned 1 float, we're done, otherwise copy from float[] into output
+                if (returnCount != 1) {
+                    BytecodeUtil.constInt(visitor, 0); // [arr, 0]
+                    visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [arr, 0, temp]
+                    BytecodeUtil.constInt(visitor, outputArrayIndex); // [arr, 0, temp, dst]
+                    BytecodeUtil.constInt(visitor, returnCount); // [arr, 0, temp, dst, count]
+                    visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
                 }
-            };
+            }
+            @Override
+            public void fingerprint(Fingerprint fingerprint) {
+                fingerprint.begin("static_query").add(methodOwnerClass.getName()).add(methodName).add(paramCount).add(returnCount).addAll(args).end();
+            }
+            private Method method; // Looked up on first interpret
+            @Override
+            public float interpret(InterpreterFrame frame, float[] out, int offset) {
+                if (method == null) method = findMethod(methodOwnerClass, methodName, null, paramCount);
+                Object[] values = new Object[paramCount];
+                for (int i = 0; i < paramCount; i++) values[i] = args.get(i).interpret(frame, out, offset);
+                return invoke(method, null, values, returnCount, out, offset);
+            }
+            @Override
+            public boolean canInterpret() {
+                return args.stream().allMatch(MolangExpr::canInterpret);
+            }
+            @Override
+            public boolean isPure() {
+                return pure && args.stream().allMatch(MolangExpr::isPure);
+            }
+            @Override
+            public List<MolangExpr> children() {
+                return args;
+            }
+            @Override
+            public MolangExpr withChildren(List<MolangExpr> children) {
+                return staticMethodCall(methodOwnerClass, methodName, paramCount, returnCount, pure, children);
+            }
         };
     }
 
@@ -103,62 +164,134 @@ public class QueryFactory<Actor> {
     }
 
 
-    private static <Actor> MolangInstance.Query<Actor, RuntimeException> fromActorMethod(String name, Class<Actor> actorClass, Class<?> methodOwnerClass, boolean isStatic, String methodName, int paramCount, int returnCount) {
+    private static <Actor> MolangInstance.Query<Actor, RuntimeException> fromActorMethod(String name, Class<Actor> actorClass, Class<?> methodOwnerClass, boolean isStatic, String methodName, int paramCount, int returnCount, boolean pure) {
         return (parser, args, source, funcNameStart, funcNameEnd) -> {
             // Verify args
             if (args.size() != paramCount) throw new MolangCompileException(MolangCompileException.WRONG_ARG_COUNT, name, String.valueOf(paramCount), String.valueOf(args.size()), source, funcNameStart, funcNameEnd);
             if (args.stream().anyMatch(MolangExpr::isVector)) throw new MolangCompileException(MolangCompileException.SCALAR_ARGS_ONLY, name, source, funcNameStart, funcNameEnd);
-            // Return
-            return new MolangExpr() {
-                @Override
-                protected int computeReturnCount() {
-                    return returnCount;
-                }
-                @Override
-                public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-                    // Test if actor instanceof actorClass
-                    visitor.visitVarInsn(Opcodes.ALOAD, 0);
-                    visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
-                    visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actor", Type.getDescriptor(Object.class));
-                    visitor.visitInsn(Opcodes.DUP);
-                    visitor.visitTypeInsn(Opcodes.INSTANCEOF, Type.getInternalName(actorClass));
-                    BytecodeUtil.ifElse(visitor, Opcodes.IFEQ, v -> {
-                        // If it's an instance, call the method
-                        visitor.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(actorClass));
-                        for (MolangExpr arg : args) arg.compileToJvmBytecode(v, outputArrayIndex, context);
-                        if (isStatic) {
-                            String descriptor = "(" + Type.getDescriptor(actorClass) + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
-                            v.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(methodOwnerClass), methodName, descriptor, false);
-                        } else {
-                            String descriptor = "(" + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
-                            v.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(actorClass), methodName, descriptor, false);
-                        }
-                        // If it returned 1 float, we're done, otherwise copy from float[] into output
-                        if (returnCount != 1) {
-                            BytecodeUtil.constInt(v, 0); // [arr, 0]
-                            v.visitVarInsn(Opcodes.ALOAD, 1); // [arr, 0, temp]
-                            BytecodeUtil.constInt(v, outputArrayIndex); // [arr, 0, temp, dst]
-                            BytecodeUtil.constInt(v, returnCount); // [arr, 0, temp, dst, count]
-                            v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
-                        }
-                    }, v -> {
-                        // Pop the extra reference
-                        v.visitInsn(Opcodes.POP);
-                        // Either push 0, or fill the result slice with 0.
-                        if (returnCount == 1) {
-                            BytecodeUtil.constFloat(v, 0);
-                        } else {
-                            v.visitVarInsn(Opcodes.ALOAD, 1);
-                            BytecodeUtil.constInt(v, outputArrayIndex);
-                            BytecodeUtil.constInt(v, outputArrayIndex + returnCount);
-                            BytecodeUtil.constFloat(v, 0);
-                            v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "fill", "([FIIF)V", false);
-                        }
-                    });
+            return actorMethodCall(actorClass, methodOwnerClass, isStatic, methodName, paramCount, returnCount, pure, args);
+        };
+    }
+
+    private static MolangExpr actorMethodCall(Class<?> actorClass, Class<?> methodOwnerClass, boolean isStatic, String methodName, int paramCount, int returnCount, boolean pure, List<MolangExpr> args) {
+        return new MolangExpr() {
+            @Override
+            protected int computeReturnCount() {
+                return returnCount;
+            }
+            @Override
+            public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+                // Test if actor instanceof actorClass
+                visitor.visitVarInsn(Opcodes.ALOAD, 0);
+                visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+                visitor.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(MolangInstance.class), "actor", Type.getDescriptor(Object.class));
+                visitor.visitInsn(Opcodes.DUP);
+                visitor.visitTypeInsn(Opcodes.INSTANCEOF, Type.getInternalName(actorClass));
+                BytecodeUtil.ifElse(visitor, Opcodes.IFEQ, v -> {
+                    // If it's an instance, call the method
+                    visitor.visitTypeInsn(Opcodes.CHECKCAST, Type.getInternalName(actorClass));
+                    for (MolangExpr arg : args) arg.compileToJvmBytecode(v, outputArrayIndex, context);
+                    if (isStatic) {
+                        String descriptor = "(" + Type.getDescriptor(actorClass) + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
+                        v.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(methodOwnerClass), methodName, descriptor, false);
+                    } else {
+                        String descriptor = "(" + "F".repeat(paramCount) + ")" + (returnCount == 1 ? "F" : "[F");
+                        v.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(actorClass), methodName, descriptor, false);
+                    }
+                    // If it returned 1 float, we're done, otherwise copy from float[] into output
+                    if (returnCount != 1) {
+                        BytecodeUtil.constInt(v, 0); // [arr, 0]
+                        v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [arr, 0, temp]
+                        BytecodeUtil.constInt(v, outputArrayIndex); // [arr, 0, temp, dst]
+                        BytecodeUtil.constInt(v, returnCount); // [arr, 0, temp, dst, count]
+                        v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
+                    }
+                }, v -> {
+                    // Pop the extra reference
+                    v.visitInsn(Opcodes.POP);
+                    // Either push 0, or fill the result slice with 0.
+                    if (returnCount == 1) {
+                        BytecodeUtil.constFloat(v, 0);
+                    } else {
+                        v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+                        BytecodeUtil.constInt(v, outputArrayIndex);
+                        BytecodeUtil.constInt(v, outputArrayIndex + returnCount);
+                        BytecodeUtil.constFloat(v, 0);
+                        v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "fill", "([FIIF)V", false);
+                    }
+                });
+            }
+            @Override
+            public void fingerprint(Fingerprint fingerprint) {
+                fingerprint.begin("actor_query").add(actorClass.getName()).add(methodOwnerClass.getName()).add(isStatic).add(methodName).add(paramCount).add(returnCount).addAll(args).end();
+            }
+            private Method method; // Looked up on first interpret
+            @Override
+            public float interpret(InterpreterFrame frame, float[] out, int offset) {
+                Object actor = frame.instance.actor;
+                // Not an instance, so 0 (or a vector of zeros). Args aren't evaluated, same as compiled.
+                if (!actorClass.isInstance(actor)) {
+                    if (returnCount != 1) Arrays.fill(out, offset, offset + returnCount, 0f);
+                    return 0;
                 }
-            };
+                if (method == null) method = findMethod(methodOwnerClass, methodName, isStatic ? actorClass : null, paramCount);
+                int first = isStatic ? 1 : 0;
+                Object[] values = new Object[first + paramCount];
+                if (isStatic) values[0] = actor;
+                for (int i = 0; i < paramCount; i++) values[first + i] = args.get(i).interpret(frame, out, offset);
+                return invoke(method, isStatic ? null : actor, values, returnCount, out, offset);
+            }
+            @Override
+            public boolean canInterpret() {
+                return args.stream().allMatch(MolangExpr::canInterpret);
+            }
+            @Override
+            public boolean isPure() {
+                return pure && args.stream().allMatch(MolangExpr::isPure);
+            }
+            @Override
+            public List<MolangExpr> children() {
+                return args;
+            }
+            @Override
+            public MolangExpr withChildren(List<MolangExpr> children) {
+                return actorMethodCall(actorClass, methodOwnerClass, isStatic, methodName, paramCount, returnCount, pure, children);
+            }
         };
     }
 
+    // Find the method a query calls, for interpreting. If actorParam is non-null, it's the first parameter.
+    private static Method findMethod(Class<?> owner, String methodName, @Nullable Class<?> actorParam, int paramCount) {
+        int first = actorParam == null ? 0 : 1;
+        Class<?>[] paramTypes = new Class<?>[first + paramCount];
+        if (actorParam != null) paramTypes[0] = actorParam;
+        Arrays.fill(paramTypes, first, paramTypes.length, float.class);
+        try {
+            return owner.getMethod(methodName, paramTypes);
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException("Query method " + owner.getName() + "." + methodName + " does not exist", ex);
+        }
+    }
+
+    // Call a query method reflectively, handling the result like the compiled code does
+    private static float invoke(Method method, @Nullable Object receiver, Object[] values, int returnCount, float[] out, int offset) {
+        Object result;
+        try {
+            result = method.invoke(receiver, values);
+        } catch (InvocationTargetException ex) {
+            // Let whatever the method threw through, as the compiled code would
+            throw QueryFactory.<RuntimeException>sneakyThrow(ex.getCause());
+        } catch (IllegalAccessException ex) {
+            throw new IllegalStateException("Query method " + method + " is not accessible", ex);
+        }
+        if (returnCount == 1) return (Float) result;
+        System.arraycopy((float[]) result, 0, out, offset, returnCount);
+        return 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> RuntimeException sneakyThrow(Throwable t) throws T {
+        throw (T) t;
+    }
 
 }
@@ -0,0 +1,62 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.ast.vars.ActorVariable;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each "v.name" actor variable a location in the actorVariables array.
+ * Variables are bound at parse time, so generated code uses these locations directly.
+ *
+ * A layout can be shared between many MolangInstances (through a MolangProgramCache).
+ * Every instance sharing it then agrees on where each variable lives, which lets them share generated classes too.
+ * Since instances sharing a layout may live on different threads, access is synchronized.
+ */
+public class VariableLayout {
+
+    private final Map<String, ActorVariable> variablesByName = new HashMap<>();
+    private int size = 0;
+
+    // Check if a variable exists
+    public synchronized @Nullable ActorVariable get(String name) {
+        return variablesByName.get(name);
+    }
+
+    // Fetch the variable, or allocate space for it at the end of the layout if it doesn't exist yet
+    public synchronized ActorVariable getOrCreate(String name, int variableSize) {
+        ActorVariable existing = variablesByName.get(name);
+        if (existing != null) return existing;
+        ActorVariable res = new ActorVariable(name, variableSize, size);
+        variablesByName.put(name, res);
+        size += variableSize;
+        return res;
+    }
+
+    // Whether binding these variables in order with getOrCreate() would put each one at its given location.
+    // Doesn't create anything.
+    synchronized boolean wouldBind(List<MolangClassArchive.Variable> variables) {
+        int next = size;
+        for (MolangClassArchive.Variable variable : variables) {
+            ActorVariable existing = variablesByName.get(variable.name());
+            int location;
+            if (existing != null) {
+                if (existing.size != variable.size()) return false;
+                location = existing.location;
+            } else {
+                location = next;
+                next += variable.size();
+            }
+            if (location != variable.location()) return false;
+        }
+        return true;
+    }
+
+    // Number of floats needed to hold every variable in this layout
+    public synchronized int size() {
+        return size;
+    }
+
+}
@@ -1,6 +1,10 @@
 package org.figuramc.figura_molang.ast;
 
+import org.figuramc.figura_molang.compile.ConstantFolding;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+import org.figuramc.figura_molang.func.FloatFunction;
 import org.figuramc.figura_molang.func.MolangFunction;
 import org.objectweb.asm.MethodVisitor;
 
@@ -11,8 +15,8 @@ import java.util.List;
  */
 public class FunctionCall extends MolangExpr {
 
-    private final MolangFunction func;
-    private final List<MolangExpr> args;
+    public final MolangFunction func;
+    public final List<MolangExpr> args;
 
     public FunctionCall(MolangFunction func, List<MolangExpr> args) {
         this.func = func;
@@ -28,4 +32,57 @@ public class FunctionCall extends MolangExpr {
     public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         func.compile(visitor, args, outputArrayIndex, context);
     }
+
+    @Override
+    public void compileToLocals(MethodVisitor visitor, int firstLocal, JvmCompilationContext context) {
+        // Element-wise functions can compute each element right into its local
+        if (func instanceof FloatFunction floatFunc) floatFunc.compileToLocals(visitor, args, firstLocal, context);
+        else super.compileToLocals(visitor, firstLocal, context);
+    }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("call").add(func.getClass().getName()).add(func.name()).addAll(args).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        return func.interpret(args, frame, out, offset);
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return func.canInterpret() && args.stream().allMatch(MolangExpr::canInterpret);
+    }
+
+    @Override
+    public MolangExpr foldConstants() {
+        List<MolangExpr> folded = args.stream().map(MolangExpr::foldConstants).toList();
+        MolangExpr res = new FunctionCall(func, folded);
+        // Pure functions with constant args can be evaluated now
+        if (func.isPure() && func.canInterpret() && folded.stream().allMatch(MolangExpr::isConstant))
+            return ConstantFolding.fold(res);
+        return res;
+    }
+
+    @Override
+    public boolean isPure() {
+        return func.isPure() && args.stream().allMatch(MolangExpr::isPure);
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return args;
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return new FunctionCall(func, children);
+    }
+
+    // Built-in functions always evaluate all their args
+    @Override
+    public boolean alwaysReturns() {
+        return args.stream().anyMatch(MolangExpr::alwaysReturns);
+    }
 }
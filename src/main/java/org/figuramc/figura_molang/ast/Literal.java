@@ -1,6 +1,8 @@
 package org.figuramc.figura_molang.ast;
 
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.MethodVisitor;
 
@@ -22,4 +24,29 @@ public class Literal extends MolangExpr {
     public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         BytecodeUtil.constFloat(visitor, value);
     }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("lit").add(value).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        return value;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
+
+    @Override
+    public boolean isConstant() {
+        return true;
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
 }
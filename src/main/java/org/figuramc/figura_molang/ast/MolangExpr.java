@@ -1,7 +1,13 @@
 package org.figuramc.figura_molang.ast;
 
+import org.figuramc.figura_molang.compile.Fingerprint;
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.List;
 
 public abstract class MolangExpr {
 
@@ -28,4 +34,86 @@ public abstract class MolangExpr {
     // If we Return multiple values, put them in the array at returnArrayIndex and jump to returnLabel.
     public abstract void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context);
 
+    // Compile this vector expression, putting element i into the float local variable firstLocal + i instead of the float[].
+    // Used for vector temp variables which live in locals. Exprs which keep this default go through scratch space in the float[].
+    public void compileToLocals(MethodVisitor visitor, int firstLocal, JvmCompilationContext context) {
+        context.push();
+        int scratch = context.reserveArraySlots(returnCount());
+        compileToJvmBytecode(visitor, scratch, context);
+        for (int i = 0; i < returnCount(); i++) {
+            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+            BytecodeUtil.constInt(visitor, scratch + i);
+            visitor.visitInsn(Opcodes.FALOAD);
+            visitor.visitVarInsn(Opcodes.FSTORE, firstLocal + i);
+        }
+        context.pop();
+    }
+
+    // Describe the structure of this expr, such that equal fingerprints always compile to the same bytecode.
+    // Exprs which can't describe themselves (like ones made by custom queries) keep this default, so they're never shared.
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.markUnshareable();
+    }
+
+    // Evaluate this expression directly, without compiling it. Mirrors compileToJvmBytecode():
+    // If this outputs multiple values, write them to out, starting at the given offset, and return anything.
+    // If it outputs one value, return it.
+    // Only called if canInterpret() returned true.
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        throw new UnsupportedOperationException("Cannot interpret " + getClass().getName());
+    }
+
+    // Whether this expr, and everything inside it, supports interpret().
+    // Exprs which keep this default (like ones made by custom queries) are always compiled.
+    public boolean canInterpret() {
+        return false;
+    }
+
+    // Whether this expr always evaluates to the same values, and evaluating it has no effects.
+    public boolean isConstant() {
+        return false;
+    }
+
+    // Return an equivalent expr with constant subtrees evaluated ahead of time. May return this.
+    // Exprs which keep this default are left alone, along with everything inside them.
+    public MolangExpr foldConstants() {
+        return this;
+    }
+
+    // Whether evaluating this has no effects, and gives the same values every time it's evaluated
+    // during one evaluation of the whole expression. Reading temp or actor variables isn't pure, since they can be assigned in between.
+    // Repeated pure subtrees are computed only once.
+    public boolean isPure() {
+        return false;
+    }
+
+    // Whether evaluating this always ends in a Return to the enclosing Compound, so it never finishes with a value of its own.
+    // False when unsure.
+    public boolean alwaysReturns() {
+        return false;
+    }
+
+    // Whether evaluating this might end in a Return to the enclosing Compound, skipping whatever comes after it.
+    public boolean mayReturn() {
+        for (MolangExpr child : children()) if (child.mayReturn()) return true;
+        return false;
+    }
+
+    // The exprs directly inside this one, in evaluation order, for passes which rewrite the tree.
+    // Exprs which keep this default are treated as leaves, along with everything inside them.
+    public List<MolangExpr> children() {
+        return List.of();
+    }
+
+    // The children() which run every time this expr does (unless an earlier one returns), in evaluation order.
+    // Override to leave out children which only run on some paths.
+    public List<MolangExpr> unconditionalChildren() {
+        return children();
+    }
+
+    // A copy of this expr with its children() replaced by the given ones, which have the same return counts. May return this.
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return this;
+    }
+
 }
@@ -1,6 +1,9 @@
 package org.figuramc.figura_molang.ast;
 
+import org.figuramc.figura_molang.compile.ConstantFolding;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -36,4 +39,72 @@ public class VectorConstructor extends MolangExpr {
             i += expr.returnCount();
         }
     }
+
+    @Override
+    public void compileToLocals(MethodVisitor visitor, int firstLocal, JvmCompilationContext context) {
+        int i = firstLocal;
+        for (var expr : exprs) {
+            if (expr.returnCount() == 1) {
+                expr.compileToJvmBytecode(visitor, -1, context);
+                visitor.visitVarInsn(Opcodes.FSTORE, i);
+            } else {
+                expr.compileToLocals(visitor, i, context);
+            }
+            i += expr.returnCount();
+        }
+    }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("vec").addAll(exprs).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        int i = offset;
+        for (var expr : exprs) {
+            if (expr.returnCount() == 1) out[i] = expr.interpret(frame, out, i);
+            else expr.interpret(frame, out, i);
+            i += expr.returnCount();
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return exprs.stream().allMatch(MolangExpr::canInterpret);
+    }
+
+    @Override
+    public boolean isConstant() {
+        return exprs.stream().allMatch(MolangExpr::isConstant);
+    }
+
+    @Override
+    public MolangExpr foldConstants() {
+        List<MolangExpr> folded = exprs.stream().map(MolangExpr::foldConstants).toList();
+        MolangExpr res = new VectorConstructor(folded);
+        // Flatten fully constant vectors into a plain list of literals
+        return res.isConstant() ? ConstantFolding.fold(res) : res;
+    }
+
+    @Override
+    public boolean isPure() {
+        return exprs.stream().allMatch(MolangExpr::isPure);
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.copyOf(exprs);
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return new VectorConstructor(children);
+    }
+
+    @Override
+    public boolean alwaysReturns() {
+        return exprs.stream().anyMatch(MolangExpr::alwaysReturns);
+    }
 }
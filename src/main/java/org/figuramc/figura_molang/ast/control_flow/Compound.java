@@ -2,13 +2,18 @@ package org.figuramc.figura_molang.ast.control_flow;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.ast.vars.TempVariable;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+import org.figuramc.figura_molang.interpret.ReturnSignal;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 // Built during parsing, tracks state to ensure consistency
 public class Compound extends MolangExpr {
@@ -47,24 +52,100 @@ public class Compound extends MolangExpr {
         // Compile each expr
         for (MolangExpr expr : exprs) {
             expr.compileToJvmBytecode(visitor, outputArrayIndex, context);
-            // If the expr returned 1 value, pop it.
-            if (!expr.isVector())
+            // If the expr returned 1 value, pop it. If it always returns, it jumped away without one.
+            if (!expr.isVector() && !expr.alwaysReturns())
                 visitor.visitInsn(Opcodes.POP);
         }
 
-        // If it didn't return, in which case it would jump past this, push 0s
-        if (isVector()) {
-            // Store 0s with Arrays.fill
-            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
-            BytecodeUtil.constInt(visitor, outputArrayIndex);
-            BytecodeUtil.constInt(visitor, outputArrayIndex + returnCount());
-            visitor.visitInsn(Opcodes.FCONST_0);
-            visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "fill", "([FIIF)V", false);
-        } else {
-            // Push 0 to stack
-            visitor.visitInsn(Opcodes.FCONST_0);
+        // If it didn't return, in which case it would jump past this, push 0s.
+        // Not needed when every path returns.
+        if (!alwaysReturnsInside()) {
+            if (isVector()) {
+                // Store 0s with Arrays.fill
+                visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+                BytecodeUtil.constInt(visitor, outputArrayIndex);
+                BytecodeUtil.constInt(visitor, outputArrayIndex + returnCount());
+                visitor.visitInsn(Opcodes.FCONST_0);
+                visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/util/Arrays", "fill", "([FIIF)V", false);
+            } else {
+                // Push 0 to stack
+                visitor.visitInsn(Opcodes.FCONST_0);
+            }
         }
         visitor.visitLabel(newReturnLabel); // Ending label
         context.pop(); // Pop context
     }
+
+    // Whether every path through the statements reaches a Return, so it never falls off the end.
+    // After dead code elimination, that Return is in the last statement.
+    public boolean alwaysReturnsInside() {
+        return !exprs.isEmpty() && exprs.getLast().alwaysReturns();
+    }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("block").add(returnCount()).addAll(exprs).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        if (!finalized) throw new IllegalStateException("Attempt to interpret Compound before it's finalized!");
+        // Returns inside target this compound's output
+        float[] prevArray = frame.returnArray;
+        int prevOffset = frame.returnOffset;
+        frame.returnArray = out;
+        frame.returnOffset = offset;
+        try {
+            for (MolangExpr expr : exprs) {
+                // Discarded vector results which don't fit our output get their own space
+                if (expr.isVector() && expr.returnCount() != returnCount()) expr.interpret(frame, new float[expr.returnCount()], 0);
+                else expr.interpret(frame, out, offset);
+            }
+            // Didn't return, so the result is 0s
+            if (isVector()) Arrays.fill(out, offset, offset + returnCount(), 0f);
+            return 0;
+        } catch (ReturnSignal signal) {
+            return frame.returnValue;
+        } finally {
+            frame.returnArray = prevArray;
+            frame.returnOffset = prevOffset;
+        }
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return exprs.stream().allMatch(MolangExpr::canInterpret);
+    }
+
+    @Override
+    public MolangExpr foldConstants() {
+        // Folded in place; Returns inside only care about the Compound they're in, not its identity
+        exprs.replaceAll(MolangExpr::foldConstants);
+        return this;
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.copyOf(exprs);
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        // Replaced in place, like foldConstants()
+        exprs.clear();
+        exprs.addAll(children);
+        return this;
+    }
+
+    // Returns inside end this block, not the enclosing one
+    @Override
+    public boolean mayReturn() {
+        return false;
+    }
+
+    // Statements' values are discarded, so a block of pure statements is pure too
+    @Override
+    public boolean isPure() {
+        return exprs.stream().allMatch(MolangExpr::isPure);
+    }
 }
@@ -1,11 +1,17 @@
 package org.figuramc.figura_molang.ast.control_flow;
 
+import org.figuramc.figura_molang.ast.Literal;
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.ConstantFolding;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.List;
+
 // Both arguments must be scalars, because this is a logical operation and we want short-circuiting.
 public class LogicalAnd extends MolangExpr {
 
@@ -47,4 +53,58 @@ public class LogicalAnd extends MolangExpr {
         // End:
         visitor.visitLabel(end);
     }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("&&").add(left).add(right).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        return left.interpret(frame, out, offset) != 0 && right.interpret(frame, out, offset) != 0 ? 1 : 0;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return left.canInterpret() && right.canInterpret();
+    }
+
+    @Override
+    public MolangExpr foldConstants() {
+        MolangExpr foldedLeft = left.foldConstants();
+        MolangExpr foldedRight = right.foldConstants();
+        if (foldedLeft.isConstant()) {
+            // Right never runs
+            if (ConstantFolding.evaluateScalar(foldedLeft) == 0) return new Literal(0);
+            // Result only depends on right
+            return ConstantFolding.isNonZero(foldedRight);
+        }
+        return new LogicalAnd(foldedLeft, foldedRight);
+    }
+
+    @Override
+    public boolean isPure() {
+        return left.isPure() && right.isPure();
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(left, right);
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return new LogicalAnd(children.get(0), children.get(1));
+    }
+
+    @Override
+    public List<MolangExpr> unconditionalChildren() {
+        return List.of(left);
+    }
+
+    // Right might not run
+    @Override
+    public boolean alwaysReturns() {
+        return left.alwaysReturns();
+    }
 }
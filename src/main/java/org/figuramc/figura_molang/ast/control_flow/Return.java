@@ -1,10 +1,15 @@
 package org.figuramc.figura_molang.ast.control_flow;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+import org.figuramc.figura_molang.interpret.ReturnSignal;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.List;
+
 // Return from the enclosing Compound
 public class Return extends MolangExpr {
 
@@ -29,4 +34,47 @@ public class Return extends MolangExpr {
         visitor.visitJumpInsn(Opcodes.GOTO, context.getReturnLabel());
         // Should we push 0 to be consistent with our "return count"(?) TODO figure out if this breaks things
     }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("return").add(expr).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        // Put the value where the enclosing Compound expects it, then unwind to it
+        if (expr.isVector()) expr.interpret(frame, frame.returnArray, frame.returnOffset);
+        else frame.returnValue = expr.interpret(frame, frame.returnArray, frame.returnOffset);
+        throw ReturnSignal.INSTANCE;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return expr.canInterpret();
+    }
+
+    @Override
+    public MolangExpr foldConstants() {
+        return new Return(expr.foldConstants());
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(expr);
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return new Return(children.getFirst());
+    }
+
+    @Override
+    public boolean alwaysReturns() {
+        return true;
+    }
+
+    @Override
+    public boolean mayReturn() {
+        return true;
+    }
 }
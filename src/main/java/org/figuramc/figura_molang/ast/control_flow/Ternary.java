@@ -1,11 +1,16 @@
 package org.figuramc.figura_molang.ast.control_flow;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.ConstantFolding;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.List;
+
 /**
  * Condition must be a scalar.
  * If the branches are both vectors, they must have the same size. If only one is a vector, the other will be splatted.
@@ -39,4 +44,56 @@ public class Ternary extends MolangExpr {
                 v -> ifFalse.compileToJvmBytecode(v, outputArrayIndex, context)
         );
     }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("?:").add(condition).add(ifTrue).add(ifFalse).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        if (condition.interpret(frame, out, offset) != 0)
+            return ifTrue.interpret(frame, out, offset);
+        return ifFalse.interpret(frame, out, offset);
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return condition.canInterpret() && ifTrue.canInterpret() && ifFalse.canInterpret();
+    }
+
+    @Override
+    public MolangExpr foldConstants() {
+        MolangExpr foldedCondition = condition.foldConstants();
+        // Only one branch can ever run
+        if (foldedCondition.isConstant())
+            return ConstantFolding.evaluateScalar(foldedCondition) != 0 ? ifTrue.foldConstants() : ifFalse.foldConstants();
+        return new Ternary(foldedCondition, ifTrue.foldConstants(), ifFalse.foldConstants());
+    }
+
+    @Override
+    public boolean isPure() {
+        return condition.isPure() && ifTrue.isPure() && ifFalse.isPure();
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(condition, ifTrue, ifFalse);
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return new Ternary(children.get(0), children.get(1), children.get(2));
+    }
+
+    // Only one of the branches runs
+    @Override
+    public List<MolangExpr> unconditionalChildren() {
+        return List.of(condition);
+    }
+
+    @Override
+    public boolean alwaysReturns() {
+        return condition.alwaysReturns() || ifTrue.alwaysReturns() && ifFalse.alwaysReturns();
+    }
 }
@@ -0,0 +1,57 @@
+package org.figuramc.figura_molang.ast.shared;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+/**
+ * A pure expr which appears several times in one expression, found by CommonSubexpressions.
+ * If some use of it runs on every path, it's computed once before the rest of the expression.
+ * Otherwise, it's computed the first time one of its SharedValueRefs runs, and reused by the rest.
+ *
+ * Where the value and its "computed yet" flag live is decided by the SharedValues scope while compiling,
+ * so this is only valid within one compilation at a time.
+ */
+public class SharedValue {
+
+    public final int index; // Position in the enclosing SharedValues, for fingerprinting
+    public final MolangExpr expr;
+
+    // Set by SharedValues while compiling.
+    // A scalar is in local valueLocation, a vector is in the float[] starting at valueLocation.
+    // flagLocal is an int local, non-zero once the value has been computed, or -1 if it's computed up front.
+    int valueLocation = -1;
+    int flagLocal = -1;
+
+    public SharedValue(int index, MolangExpr expr) {
+        this.index = index;
+        this.expr = expr;
+    }
+
+    // Compute the value into its location
+    void compileCompute(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        if (expr.isVector()) {
+            expr.compileToJvmBytecode(visitor, valueLocation, context);
+        } else {
+            expr.compileToJvmBytecode(visitor, outputArrayIndex, context);
+            visitor.visitVarInsn(Opcodes.FSTORE, valueLocation);
+        }
+    }
+
+    // Load the computed value, same as a TempVariable
+    void compileLoad(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        if (expr.isVector()) {
+            BytecodeUtil.constInt(visitor, valueLocation);
+            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+            visitor.visitInsn(Opcodes.DUP_X1);
+            BytecodeUtil.constInt(visitor, outputArrayIndex);
+            BytecodeUtil.constInt(visitor, expr.returnCount());
+            visitor.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
+        } else {
+            visitor.visitVarInsn(Opcodes.FLOAD, valueLocation);
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package org.figuramc.figura_molang.ast.shared;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Fingerprint;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+// One use of a SharedValue. Loads it, first computing it if it wasn't computed up front and no other use has yet.
+public class SharedValueRef extends MolangExpr {
+
+    public final SharedValue value;
+
+    public SharedValueRef(SharedValue value) {
+        this.value = value;
+    }
+
+    @Override
+    protected int computeReturnCount() {
+        return value.expr.returnCount();
+    }
+
+    @Override
+    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        if (value.valueLocation == -1) throw new IllegalStateException("Shared value compiled outside of its SharedValues scope");
+        if (value.flagLocal != -1) {
+            // Not computed up front. The first use to run computes it; uses can be in branches, so any of them might be first.
+            Label computed = new Label();
+            visitor.visitVarInsn(Opcodes.ILOAD, value.flagLocal);
+            visitor.visitJumpInsn(Opcodes.IFNE, computed);
+            value.compileCompute(visitor, outputArrayIndex, context);
+            visitor.visitInsn(Opcodes.ICONST_1);
+            visitor.visitVarInsn(Opcodes.ISTORE, value.flagLocal);
+            visitor.visitLabel(computed);
+        }
+        value.compileLoad(visitor, outputArrayIndex, context);
+    }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("ref").add(value.index).end();
+    }
+
+    // The value is pure, so evaluating it again gives the same result
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        return value.expr.interpret(frame, out, offset);
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return value.expr.canInterpret();
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+}
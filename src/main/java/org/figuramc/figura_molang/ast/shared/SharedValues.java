@@ -0,0 +1,111 @@
+package org.figuramc.figura_molang.ast.shared;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Fingerprint;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Wraps a whole expression whose repeated subtrees were replaced by SharedValueRefs.
+ * Reserves space for each value. Values with a use that runs on every path are computed before the body,
+ * so their refs are plain loads. The rest get a flag, cleared before the body, and are computed by whichever ref runs first.
+ */
+public class SharedValues extends MolangExpr {
+
+    public final List<SharedValue> values;
+    public final MolangExpr body;
+
+    public SharedValues(List<SharedValue> values, MolangExpr body) {
+        this.values = values;
+        this.body = body;
+    }
+
+    @Override
+    protected int computeReturnCount() {
+        return body.returnCount();
+    }
+
+    @Override
+    public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
+        context.push();
+        Set<SharedValue> unconditional = new HashSet<>();
+        findUnconditional(body, unconditional);
+        for (SharedValue value : values) {
+            if (!unconditional.contains(value)) {
+                value.flagLocal = context.reserveLocals(1);
+                visitor.visitInsn(Opcodes.ICONST_0);
+                visitor.visitVarInsn(Opcodes.ISTORE, value.flagLocal);
+            }
+            if (value.expr.isVector()) {
+                value.valueLocation = context.reserveArraySlots(value.expr.returnCount());
+            } else {
+                value.valueLocation = context.reserveLocals(1);
+                if (value.flagLocal != -1) {
+                    // Never read before it's computed, but the verifier can't tell that
+                    visitor.visitInsn(Opcodes.FCONST_0);
+                    visitor.visitVarInsn(Opcodes.FSTORE, value.valueLocation);
+                }
+            }
+        }
+        // A value only refers to values found before it, so computing in order works out
+        for (SharedValue value : values)
+            if (value.flagLocal == -1) value.compileCompute(visitor, outputArrayIndex, context);
+        body.compileToJvmBytecode(visitor, outputArrayIndex, context);
+        context.pop();
+        for (SharedValue value : values) {
+            value.flagLocal = -1;
+            value.valueLocation = -1;
+        }
+    }
+
+    // Add the values with a use that runs every time expr does, and so can be computed up front.
+    // Returns whether expr might Return, in which case nothing after it runs on every path.
+    private static boolean findUnconditional(MolangExpr expr, Set<SharedValue> found) {
+        if (expr instanceof SharedValueRef ref) {
+            // Computing it up front makes everything it uses unconditional too
+            if (found.add(ref.value)) findUnconditional(ref.value.expr, found);
+            return false;
+        }
+        for (MolangExpr child : expr.unconditionalChildren())
+            if (findUnconditional(child, found)) break;
+        return expr.mayReturn();
+    }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("shared").begin("list");
+        for (SharedValue value : values) fingerprint.add(value.expr);
+        fingerprint.end().add(body).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        return body.interpret(frame, out, offset);
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return body.canInterpret();
+    }
+
+    @Override
+    public boolean isPure() {
+        return body.isPure();
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(body);
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return new SharedValues(values, children.getFirst());
+    }
+}
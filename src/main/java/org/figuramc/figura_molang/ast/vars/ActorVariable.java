@@ -3,7 +3,9 @@ package org.figuramc.figura_molang.ast.vars;
 import org.figuramc.figura_molang.CompiledMolang;
 import org.figuramc.figura_molang.MolangInstance;
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.figuramc.memory_tracker.AllocationTracker;
 import org.objectweb.asm.MethodVisitor;
@@ -51,4 +53,24 @@ public class ActorVariable extends MolangExpr {
             visitor.visitInsn(Opcodes.FALOAD);
         }
     }
+
+    // The name doesn't matter, only where the variable lives
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("v").add(location).add(size).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        if (isVector()) {
+            System.arraycopy(frame.instance.actorVariables, location, out, offset, size);
+            return 0;
+        }
+        return frame.instance.actorVariables[location];
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
 }
@@ -3,12 +3,16 @@ package org.figuramc.figura_molang.ast.vars;
 import org.figuramc.figura_molang.CompiledMolang;
 import org.figuramc.figura_molang.MolangInstance;
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
+import java.util.List;
+
 public class ActorVariableAssign extends MolangExpr {
 
     private final ActorVariable variable;
@@ -58,4 +62,48 @@ public class ActorVariableAssign extends MolangExpr {
         }
         BytecodeUtil.constFloat(visitor, 0f); // Push 0 to stack, assignment result
     }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("v=").add(variable).add(rhs).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        if (variable.isVector()) {
+            float[] temp = new float[variable.size];
+            rhs.interpret(frame, temp, 0);
+            System.arraycopy(temp, 0, frame.instance.actorVariables, variable.location, variable.size);
+        } else {
+            // Fetch the array first, like the compiled code does
+            float[] vars = frame.instance.actorVariables;
+            vars[variable.location] = rhs.interpret(frame, out, offset);
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return rhs.canInterpret();
+    }
+
+    @Override
+    public MolangExpr foldConstants() {
+        return new ActorVariableAssign(variable, rhs.foldConstants());
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(rhs);
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return new ActorVariableAssign(variable, children.getFirst());
+    }
+
+    @Override
+    public boolean alwaysReturns() {
+        return rhs.alwaysReturns();
+    }
 }
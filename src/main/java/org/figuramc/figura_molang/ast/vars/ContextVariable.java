@@ -1,7 +1,9 @@
 package org.figuramc.figura_molang.ast.vars;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -26,4 +28,25 @@ public class ContextVariable extends MolangExpr {
         // Offset by 1 because that's where the "this" instance of CompiledMolang is stored.
         visitor.visitVarInsn(Opcodes.FLOAD, 1 + this.index);
     }
+
+    // Only the index matters, not the name
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("c").add(index).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        return frame.args[index];
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
 }
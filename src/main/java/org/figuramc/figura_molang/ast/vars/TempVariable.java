@@ -1,24 +1,33 @@
 package org.figuramc.figura_molang.ast.vars;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
 // Instanceof checks can be used to fetch the location, increasing efficiency of calls.
-// If this is a vector, the location is an index in the float[] where the values start.
-// If it's a scalar, it's a local variable index.
+// If this is in locals, the location is the local variable index of the first element, and each element has its own.
+// Scalars are always in locals. Otherwise, the location is an index in the float[] where the values start.
 public class TempVariable extends MolangExpr {
 
     public final String name;
     public final int size;
+    public final boolean inLocals;
     private final int location;
 
     public TempVariable(String name, int size, int location) {
+        this(name, size, location, size == 1);
+    }
+
+    public TempVariable(String name, int size, int location, boolean inLocals) {
+        if (size == 1 && !inLocals) throw new IllegalStateException("Scalar temp variable \"" + name + "\" must be in locals");
         this.name = name;
         this.size = size;
         this.location = location;
+        this.inLocals = inLocals;
     }
 
     @Override
@@ -32,13 +41,21 @@ public class TempVariable extends MolangExpr {
 
     public int getRealLocation(JvmCompilationContext context) {
         // Offset for reserved space
-        return isVector() ? location : location + context.arrayVariableIndex + 1;
+        return inLocals ? location + context.arrayVariableIndex + 1 : location + context.vectorTempOffset;
     }
 
     // Not always required to run; some code can use it directly from its local variable/array location without a copy
     @Override
     public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
-        if (isVector()) {
+        if (isVector() && inLocals) {
+            // Store each element in the output location
+            for (int i = 0; i < size; i++) {
+                visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+                BytecodeUtil.constInt(visitor, outputArrayIndex + i);
+                visitor.visitVarInsn(Opcodes.FLOAD, getRealLocation(context) + i);
+                visitor.visitInsn(Opcodes.FASTORE);
+            }
+        } else if (isVector()) {
             // If variable is already at the right location, don't need to do anything!
             if (outputArrayIndex == getRealLocation(context)) return;
             // Copy to the output location, use System.arraycopy()
@@ -53,4 +70,37 @@ public class TempVariable extends MolangExpr {
             visitor.visitVarInsn(Opcodes.FLOAD, getRealLocation(context));
         }
     }
+
+    @Override
+    public void compileToLocals(MethodVisitor visitor, int firstLocal, JvmCompilationContext context) {
+        for (int i = 0; i < size; i++) {
+            if (inLocals) {
+                visitor.visitVarInsn(Opcodes.FLOAD, getRealLocation(context) + i);
+            } else {
+                visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+                BytecodeUtil.constInt(visitor, getRealLocation(context) + i);
+                visitor.visitInsn(Opcodes.FALOAD);
+            }
+            visitor.visitVarInsn(Opcodes.FSTORE, firstLocal + i);
+        }
+    }
+
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("t").add(location).add(size).add(inLocals).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        if (isVector()) {
+            System.arraycopy(inLocals ? frame.locals : frame.vectorTemps, location, out, offset, size);
+            return 0;
+        }
+        return frame.locals[location];
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
 }
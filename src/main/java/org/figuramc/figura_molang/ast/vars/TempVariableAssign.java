@@ -1,11 +1,15 @@
 package org.figuramc.figura_molang.ast.vars;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.Fingerprint;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
+import java.util.List;
+
 // Assign to a temp variable
 public class TempVariableAssign extends MolangExpr {
 
@@ -28,7 +32,10 @@ public class TempVariableAssign extends MolangExpr {
     @Override
     public void compileToJvmBytecode(MethodVisitor visitor, int outputArrayIndex, JvmCompilationContext context) {
         // Compile the expr, putting its result into the variable
-        if (variable.isVector()) {
+        if (variable.isVector() && variable.inLocals) {
+            // If vector in locals, compile straight into them
+            rhs.compileToLocals(visitor, variable.getRealLocation(context), context);
+        } else if (variable.isVector()) {
             // If vector, compile and place result there
             rhs.compileToJvmBytecode(visitor, variable.getRealLocation(context), context);
         } else {
@@ -40,4 +47,43 @@ public class TempVariableAssign extends MolangExpr {
         BytecodeUtil.constFloat(visitor, 0f);
     }
 
+    @Override
+    public void fingerprint(Fingerprint fingerprint) {
+        fingerprint.begin("t=").add(variable).add(rhs).end();
+    }
+
+    @Override
+    public float interpret(InterpreterFrame frame, float[] out, int offset) {
+        if (variable.isVector()) {
+            rhs.interpret(frame, variable.inLocals ? frame.locals : frame.vectorTemps, variable.getLogicalLocation());
+        } else {
+            frame.locals[variable.getLogicalLocation()] = rhs.interpret(frame, out, offset);
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return rhs.canInterpret();
+    }
+
+    @Override
+    public MolangExpr foldConstants() {
+        return new TempVariableAssign(variable, rhs.foldConstants());
+    }
+
+    @Override
+    public List<MolangExpr> children() {
+        return List.of(rhs);
+    }
+
+    @Override
+    public MolangExpr withChildren(List<MolangExpr> children) {
+        return new TempVariableAssign(variable, children.getFirst());
+    }
+
+    @Override
+    public boolean alwaysReturns() {
+        return rhs.alwaysReturns();
+    }
 }
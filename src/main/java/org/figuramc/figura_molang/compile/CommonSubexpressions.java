@@ -0,0 +1,115 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.shared.SharedValue;
+import org.figuramc.figura_molang.ast.shared.SharedValueRef;
+import org.figuramc.figura_molang.ast.shared.SharedValues;
+import org.figuramc.figura_molang.ast.vars.ContextVariable;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Common subexpression elimination within one parsed expression.
+ * Pure subtrees are hash-consed by their Fingerprint, and any that appear more than once become a SharedValue,
+ * computed once and reused after that (up front if some use always runs, otherwise by whichever use runs first).
+ * Like "math.sin(q.anim_time * 90) * 3 + math.sin(q.anim_time * 90)", which only calls sin once.
+ *
+ * Runs last, after the other passes, since those don't look inside SharedValues.
+ */
+public final class CommonSubexpressions {
+
+    private final Map<MolangExpr, String> keys = new IdentityHashMap<>();
+    private final Map<String, Integer> sizes = new HashMap<>();
+    private final Set<String> chosen = new HashSet<>();
+    private final Map<String, SharedValue> shared = new LinkedHashMap<>();
+
+    private CommonSubexpressions() {}
+
+    // Return an equivalent expr where repeated pure subtrees are only computed once. May return the same expr.
+    public static MolangExpr eliminate(MolangExpr expr) {
+        CommonSubexpressions pass = new CommonSubexpressions();
+        pass.collect(expr);
+        // Try the biggest repeats first. Choosing one means the repeats inside its other copies go away,
+        // so things inside it are only chosen if they're also used somewhere else.
+        Map<String, Integer> allUses = new HashMap<>();
+        pass.countUses(expr, new HashSet<>(), allUses);
+        List<String> candidates = new ArrayList<>(allUses.keySet());
+        candidates.removeIf(key -> allUses.get(key) < 2);
+        if (candidates.isEmpty()) return expr;
+        candidates.sort(Comparator.comparing(pass.sizes::get, Comparator.reverseOrder()));
+        for (String key : candidates) {
+            pass.chosen.add(key);
+            Map<String, Integer> uses = new HashMap<>();
+            pass.countUses(expr, new HashSet<>(), uses);
+            if (uses.get(key) < 2) pass.chosen.remove(key);
+        }
+        if (pass.chosen.isEmpty()) return expr;
+        MolangExpr body = pass.rewrite(expr);
+        return new SharedValues(List.copyOf(pass.shared.values()), body);
+    }
+
+    // Fingerprint every subtree worth sharing, returning the size of the given one
+    private int collect(MolangExpr expr) {
+        int size = 1;
+        for (MolangExpr child : expr.children()) size += collect(child);
+        @Nullable String key = isCandidate(expr) ? Fingerprint.ofSubtree(expr) : null;
+        if (key != null) {
+            keys.put(expr, key);
+            sizes.put(key, size);
+        }
+        return size;
+    }
+
+    // Literals and context variables are already as cheap as loading a shared value
+    private static boolean isCandidate(MolangExpr expr) {
+        return expr.isPure() && !expr.isConstant() && !(expr instanceof ContextVariable);
+    }
+
+    // Count how many times each candidate would be computed, if only the chosen ones were shared
+    private void countUses(MolangExpr expr, Set<String> seenChosen, Map<String, Integer> uses) {
+        @Nullable String key = keys.get(expr);
+        if (key != null) {
+            uses.merge(key, 1, Integer::sum);
+            // Later copies of a chosen value reuse the first, so nothing inside them runs
+            if (chosen.contains(key) && !seenChosen.add(key)) return;
+        }
+        for (MolangExpr child : expr.children()) countUses(child, seenChosen, uses);
+    }
+
+    private MolangExpr rewrite(MolangExpr expr) {
+        @Nullable String key = keys.get(expr);
+        if (key != null && chosen.contains(key)) {
+            SharedValue value = shared.get(key);
+            if (value == null) {
+                MolangExpr inner = rewriteChildren(expr);
+                value = new SharedValue(shared.size(), inner);
+                shared.put(key, value);
+            }
+            return new SharedValueRef(value);
+        }
+        return rewriteChildren(expr);
+    }
+
+    private MolangExpr rewriteChildren(MolangExpr expr) {
+        List<MolangExpr> children = expr.children();
+        if (children.isEmpty()) return expr;
+        List<MolangExpr> rewritten = new ArrayList<>(children.size());
+        boolean changed = false;
+        for (MolangExpr child : children) {
+            MolangExpr res = rewrite(child);
+            changed |= res != child;
+            rewritten.add(res);
+        }
+        return changed ? expr.withChildren(rewritten) : expr;
+    }
+
+}
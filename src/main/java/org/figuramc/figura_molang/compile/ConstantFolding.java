@@ -0,0 +1,63 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.FunctionCall;
+import org.figuramc.figura_molang.ast.Literal;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.VectorConstructor;
+import org.figuramc.figura_molang.func.ComparisonOperator;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for MolangExpr.foldConstants(), which runs over every parsed expression before it's interpreted or compiled.
+ * Constant subtrees are evaluated with the interpreter, which computes exactly what the generated code would,
+ * so folding never changes results.
+ */
+public final class ConstantFolding {
+
+    private ConstantFolding() {}
+
+    // Evaluate an interpretable expr (whose inputs are all constant) into a Literal, or a VectorConstructor of Literals.
+    // If evaluating it throws, it's left for runtime to throw instead.
+    public static MolangExpr fold(MolangExpr expr) {
+        float[] values;
+        try {
+            values = evaluate(expr);
+        } catch (RuntimeException ex) {
+            return expr;
+        }
+        return literal(values);
+    }
+
+    // A Literal, or a VectorConstructor of Literals, with the given values
+    public static MolangExpr literal(float[] values) {
+        if (values.length == 1) return new Literal(values[0]);
+        List<Literal> literals = new ArrayList<>(values.length);
+        for (float value : values) literals.add(new Literal(value));
+        return new VectorConstructor(literals);
+    }
+
+    // Evaluate a constant scalar expr
+    public static float evaluateScalar(MolangExpr expr) {
+        if (expr.isVector()) throw new IllegalStateException("Expected a scalar constant");
+        return evaluate(expr)[0];
+    }
+
+    // An expr which is 1 if the given scalar is non-zero (including NaN), else 0. Like "x && 1".
+    public static MolangExpr isNonZero(MolangExpr scalar) {
+        MolangExpr res = new FunctionCall(ComparisonOperator.NE_OP, List.of(scalar, new Literal(0)));
+        return scalar.isConstant() ? fold(res) : res;
+    }
+
+    // Evaluate a constant expr
+    public static float[] evaluate(MolangExpr expr) {
+        float[] out = new float[expr.returnCount()];
+        InterpreterFrame frame = InterpreterFrame.forConstants();
+        if (expr.isVector()) expr.interpret(frame, out, 0);
+        else out[0] = expr.interpret(frame, out, 0);
+        return out;
+    }
+
+}
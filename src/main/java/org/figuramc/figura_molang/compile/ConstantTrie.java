@@ -0,0 +1,122 @@
+package org.figuramc.figura_molang.compile;
+
+import java.util.*;
+
+/**
+ * Immutable prefix trie over the names of a constants map, so the parser can find the constant at some position
+ * in time proportional to the name's length, however many constants there are.
+ * Built once per constants map, and reusable across any number of parses.
+ *
+ * Names are matched against the source character by character, so they may contain any characters.
+ * When several names match at a position, like "pi" and "pivot", the longest one wins.
+ */
+public final class ConstantTrie {
+
+    public static final ConstantTrie EMPTY = of(Map.of());
+
+    // Node 0 is the root. Each node's children are sorted by character, for binary search.
+    private final char[][] childChars;
+    private final int[][] childNodes;
+    private final int[] constantAt; // Index of the constant whose name ends at each node, or -1
+    private final String[] names;
+    private final float[][] values;
+
+    private ConstantTrie(char[][] childChars, int[][] childNodes, int[] constantAt, String[] names, float[][] values) {
+        this.childChars = childChars;
+        this.childNodes = childNodes;
+        this.constantAt = constantAt;
+        this.names = names;
+        this.values = values;
+    }
+
+    // Values are copied, so later changes to the map or its arrays don't affect the trie
+    public static ConstantTrie of(Map<String, float[]> constants) {
+        // Build with maps first, then flatten into arrays
+        List<TreeMap<Character, Integer>> children = new ArrayList<>();
+        List<Integer> constantAt = new ArrayList<>();
+        children.add(new TreeMap<>());
+        constantAt.add(-1);
+        String[] names = new String[constants.size()];
+        float[][] values = new float[constants.size()][];
+        int index = 0;
+        for (var constant : constants.entrySet()) {
+            String name = constant.getKey();
+            int node = 0;
+            for (int i = 0; i < name.length(); i++) {
+                Integer child = children.get(node).get(name.charAt(i));
+                if (child == null) {
+                    child = children.size();
+                    children.get(node).put(name.charAt(i), child);
+                    children.add(new TreeMap<>());
+                    constantAt.add(-1);
+                }
+                node = child;
+            }
+            constantAt.set(node, index);
+            names[index] = name;
+            values[index] = constant.getValue().clone();
+            index++;
+        }
+
+        int nodeCount = children.size();
+        char[][] childChars = new char[nodeCount][];
+        int[][] childNodes = new int[nodeCount][];
+        int[] constantAtArray = new int[nodeCount];
+        for (int node = 0; node < nodeCount; node++) {
+            TreeMap<Character, Integer> nodeChildren = children.get(node);
+            childChars[node] = new char[nodeChildren.size()];
+            childNodes[node] = new int[nodeChildren.size()];
+            int i = 0;
+            for (var child : nodeChildren.entrySet()) {
+                childChars[node][i] = child.getKey();
+                childNodes[node][i] = child.getValue();
+                i++;
+            }
+            constantAtArray[node] = constantAt.get(node);
+        }
+        return new ConstantTrie(childChars, childNodes, constantAtArray, names, values);
+    }
+
+    // Index of the longest constant whose name appears in the source at start, or -1 if none do
+    public int longestMatch(String source, int start) {
+        int node = 0;
+        int best = constantAt[0];
+        for (int i = start; i < source.length(); i++) {
+            node = child(node, source.charAt(i));
+            if (node == -1) break;
+            if (constantAt[node] != -1) best = constantAt[node];
+        }
+        return best;
+    }
+
+    private int child(int node, char c) {
+        int i = Arrays.binarySearch(childChars[node], c);
+        return i < 0 ? -1 : childNodes[node][i];
+    }
+
+    public String name(int constant) {
+        return names[constant];
+    }
+
+    // Don't modify the result
+    public float[] value(int constant) {
+        return values[constant];
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    // Whether this trie was built from exactly these constants, with equal values.
+    // Compares in iteration order, which is cheap when it's the same map again; an equal map with a different order gives false.
+    public boolean matches(Map<String, float[]> constants) {
+        if (constants.size() != names.length) return false;
+        int index = 0;
+        for (var constant : constants.entrySet()) {
+            if (!names[index].equals(constant.getKey()) || !Arrays.equals(values[index], constant.getValue())) return false;
+            index++;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,48 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.control_flow.Compound;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Removes statements from Compounds which can never run, or whose only output is the value being discarded:
+ * anything after a statement which always returns, and pure statements.
+ * Runs after constant folding, which turns branches on constants into plain statements.
+ */
+public final class DeadCodeElimination {
+
+    private DeadCodeElimination() {}
+
+    // Return an equivalent expr without dead statements. May return the same expr.
+    public static MolangExpr eliminate(MolangExpr expr) {
+        List<MolangExpr> children = expr.children();
+        if (!children.isEmpty()) {
+            List<MolangExpr> rewritten = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (MolangExpr child : children) {
+                MolangExpr res = eliminate(child);
+                changed |= res != child;
+                rewritten.add(res);
+            }
+            if (changed) expr = expr.withChildren(rewritten);
+        }
+        if (expr instanceof Compound compound) return prune(compound);
+        return expr;
+    }
+
+    private static MolangExpr prune(Compound compound) {
+        List<MolangExpr> kept = new ArrayList<>(compound.exprs.size());
+        for (MolangExpr statement : compound.exprs) {
+            if (statement.isPure()) continue;
+            kept.add(statement);
+            if (statement.alwaysReturns()) break; // Nothing after this can run
+        }
+        MolangExpr pruned = kept.size() == compound.exprs.size() ? compound : compound.withChildren(kept);
+        // Nothing left but falling off the end, which evaluates to zeros
+        if (kept.isEmpty()) return ConstantFolding.fold(pruned);
+        return pruned;
+    }
+
+}
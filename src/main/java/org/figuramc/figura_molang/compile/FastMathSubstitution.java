@@ -0,0 +1,56 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.FunctionCall;
+import org.figuramc.figura_molang.ast.Literal;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.func.FloatFunction;
+import org.figuramc.figura_molang.func.MolangFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces transcendental functions with their float-only versions in FastFloatMath, when
+ * MolangCompilerOptions.fastMath is on. Unlike the other passes, this changes results slightly.
+ * Runs after constant folding and strength reduction, so constants and math.pow with small integer exponents stay exact.
+ * Slightly larger integer exponents, which strength reduction leaves alone, become multiplies here,
+ * which is both faster and more accurate than the fast pow.
+ */
+public final class FastMathSubstitution {
+
+    private FastMathSubstitution() {}
+
+    private static final Map<MolangFunction, FloatFunction> FAST_VERSIONS = Map.of(
+            FloatFunction.SIN, FloatFunction.FAST_SIN,
+            FloatFunction.COS, FloatFunction.FAST_COS,
+            FloatFunction.EXP, FloatFunction.FAST_EXP,
+            FloatFunction.LN, FloatFunction.FAST_LN,
+            FloatFunction.POW, FloatFunction.FAST_POW,
+            FloatFunction.ATAN, FloatFunction.FAST_ATAN
+    );
+
+    // Return the expr with fast versions of every function that has one. May return the same expr.
+    public static MolangExpr substitute(MolangExpr expr) {
+        List<MolangExpr> children = expr.children();
+        if (!children.isEmpty()) {
+            List<MolangExpr> rewritten = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (MolangExpr child : children) {
+                MolangExpr res = substitute(child);
+                changed |= res != child;
+                rewritten.add(res);
+            }
+            if (changed) expr = expr.withChildren(rewritten);
+        }
+        if (expr instanceof FunctionCall call && call.func == FloatFunction.POW && call.args.get(1) instanceof Literal exponent) {
+            float n = exponent.value;
+            if (n == (int) n && Math.abs(n) <= FloatFunction.MAX_INT_POW)
+                return new FunctionCall(FloatFunction.intPow((int) n), List.of(call.args.get(0)));
+        }
+        if (expr instanceof FunctionCall call && FAST_VERSIONS.containsKey(call.func))
+            return new FunctionCall(FAST_VERSIONS.get(call.func), call.args);
+        return expr;
+    }
+
+}
@@ -0,0 +1,108 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * Structural description of a parsed MolangExpr.
+ * Two expressions with equal fingerprints must compile to identical bytecode, so they can share one generated class.
+ * Because this is built from the AST rather than the source, "q.x" and "query.x", or differences in whitespace, don't matter.
+ *
+ * Exprs which can't describe themselves (see MolangExpr.fingerprint()) mark the fingerprint unshareable.
+ */
+public final class Fingerprint {
+
+    private final StringBuilder builder = new StringBuilder();
+    private boolean shareable = true;
+    private boolean needsSeparator = false;
+
+    private Fingerprint() {}
+
+    // Fingerprint of a whole expression, compiled with argCount context variables.
+    // Returns null if some part of it can't be fingerprinted.
+    public static @Nullable String of(MolangExpr expr, int argCount) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.begin("expr").add(argCount).add(expr).end();
+        return fingerprint.shareable ? fingerprint.builder.toString() : null;
+    }
+
+    // Fingerprint of a batch of expressions compiled into one class, in order.
+    // Returns null if any of them can't be fingerprinted.
+    public static @Nullable String ofBatch(List<? extends MolangExpr> exprs, int argCount) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.begin("batch").add(argCount).addAll(exprs).end();
+        return fingerprint.shareable ? fingerprint.builder.toString() : null;
+    }
+
+    // Fingerprint of one subtree, for finding repeats within an expression.
+    // Returns null if some part of it can't be fingerprinted.
+    public static @Nullable String ofSubtree(MolangExpr expr) {
+        Fingerprint fingerprint = new Fingerprint();
+        fingerprint.add(expr);
+        return fingerprint.shareable ? fingerprint.builder.toString() : null;
+    }
+
+    // Start a node of the given kind. Must be matched with end().
+    public Fingerprint begin(String kind) {
+        separate();
+        builder.append(kind).append('(');
+        needsSeparator = false;
+        return this;
+    }
+
+    public Fingerprint end() {
+        builder.append(')');
+        needsSeparator = true;
+        return this;
+    }
+
+    public Fingerprint add(int value) {
+        separate();
+        builder.append(value);
+        return this;
+    }
+
+    public Fingerprint add(boolean value) {
+        separate();
+        builder.append(value ? 'T' : 'F');
+        return this;
+    }
+
+    // Floats are stored by their exact bits, so -0.0 and NaN payloads stay distinct
+    public Fingerprint add(float value) {
+        separate();
+        builder.append('#').append(Integer.toHexString(Float.floatToRawIntBits(value)));
+        return this;
+    }
+
+    // Length-prefixed, so arbitrary strings can't be confused with structure
+    public Fingerprint add(String value) {
+        separate();
+        builder.append(value.length()).append('"').append(value);
+        return this;
+    }
+
+    public Fingerprint add(MolangExpr expr) {
+        expr.fingerprint(this);
+        return this;
+    }
+
+    public Fingerprint addAll(List<? extends MolangExpr> exprs) {
+        begin("list");
+        for (MolangExpr expr : exprs) add(expr);
+        return end();
+    }
+
+    // Call if this expr can't be described structurally. Programs containing it will not be shared.
+    public void markUnshareable() {
+        shareable = false;
+    }
+
+    private void separate() {
+        if (needsSeparator) builder.append(',');
+        needsSeparator = true;
+    }
+
+}
@@ -15,6 +15,7 @@ public class MolangCompileException extends Exception {
 
     public String sourceSnippet; // The snippet
     public int snippetStart, snippetEnd; // Start/end indices of the highlighted region within the snippet
+    public final int start, end; // Start/end indices of the region within the whole source
 
     public MolangCompileException(Translatable<TranslatableItems.Items0> translatable, String source, int start, int end) {
         this(Translatable.translate(EN_US, translatable), source, start, end);
@@ -34,6 +35,8 @@ public class MolangCompileException extends Exception {
 
     private MolangCompileException(String reason, String source, int start, int end) {
         super(Translatable.translate(EN_US, COMPILE_ERROR, reason));
+        this.start = start;
+        this.end = end;
         // Create the source snippet
         int length = end - start;
         if (length > TOTAL_LEN) length = TOTAL_LEN; // Truncate length if needed
@@ -0,0 +1,116 @@
+package org.figuramc.figura_molang.compile;
+
+import java.util.Arrays;
+
+/**
+ * Splits a source into tokens in one pass, for MolangParser.
+ * Tokens are stored in one int[], three ints each: kind, start offset, end offset. The last token is always EOF.
+ *
+ * Single character tokens use the character itself as their kind. Everything else has a negative kind below.
+ * Whitespace (space, tab, newline) only separates tokens; any other character becomes a token of its own,
+ * so the parser can report it in an error.
+ *
+ * Lexing never fails. A number with a second decimal point becomes a BAD_NUMBER token, ending just after that point,
+ * which the parser only reports if it actually tries to use the number.
+ */
+public final class MolangLexer {
+
+    public static final int EOF = -1;
+    public static final int IDENT = -2; // A run of a-z, '.' and '_', like "math.sin" or "v.x"
+    public static final int NUMBER = -3; // Digits and at most one '.', starting with a digit
+    public static final int BAD_NUMBER = -4;
+    public static final int EQ_EQ = -5; // ==
+    public static final int NOT_EQ = -6; // !=
+    public static final int LESS_EQ = -7; // <=
+    public static final int GREATER_EQ = -8; // >=
+    public static final int AND_AND = -9; // &&
+    public static final int OR_OR = -10; // ||
+
+    private int[] tokens;
+    private int count;
+
+    private MolangLexer(int capacity) {
+        this.tokens = new int[capacity * 3];
+    }
+
+    // Lex the source, starting at the given offset
+    public static MolangLexer lex(String source, int from) {
+        int length = source.length();
+        // Guess at about one token per two characters; grows if needed
+        MolangLexer lexer = new MolangLexer((length - from) / 2 + 2);
+        int i = from;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (isWhitespace(c)) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int kind;
+            if (isDigit(c)) {
+                // Same rules as the number parsing always had: a '.' may follow the first digit and any digit after it.
+                // Anything else ends the number, so "1..5" is "1." then ".5".
+                kind = NUMBER;
+                i++;
+                boolean foundDot = false;
+                while (true) {
+                    if (i < length && source.charAt(i) == '.') {
+                        i++;
+                        if (foundDot) {
+                            kind = BAD_NUMBER;
+                            break;
+                        }
+                        foundDot = true;
+                    }
+                    if (i >= length || !isDigit(source.charAt(i))) break;
+                    i++;
+                }
+            } else if (isIdentChar(c)) {
+                kind = IDENT;
+                i++;
+                while (i < length && isIdentChar(source.charAt(i))) i++;
+            } else {
+                char next = i + 1 < length ? source.charAt(i + 1) : 0;
+                kind = switch (c) {
+                    case '=' -> next == '=' ? EQ_EQ : c;
+                    case '!' -> next == '=' ? NOT_EQ : c;
+                    case '<' -> next == '=' ? LESS_EQ : c;
+                    case '>' -> next == '=' ? GREATER_EQ : c;
+                    case '&' -> next == '&' ? AND_AND : c;
+                    case '|' -> next == '|' ? OR_OR : c;
+                    default -> c;
+                };
+                i += kind == c ? 1 : 2;
+            }
+            lexer.add(kind, start, i);
+        }
+        lexer.add(EOF, length, length);
+        return lexer;
+    }
+
+    private void add(int kind, int start, int end) {
+        if (count * 3 == tokens.length) tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        tokens[count * 3] = kind;
+        tokens[count * 3 + 1] = start;
+        tokens[count * 3 + 2] = end;
+        count++;
+    }
+
+    public int kind(int index) { return tokens[index * 3]; }
+    public int start(int index) { return tokens[index * 3 + 1]; }
+    public int end(int index) { return tokens[index * 3 + 2]; }
+    public int size() { return count; }
+
+    static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    static boolean isIdentChar(char c) {
+        return c >= 'a' && c <= 'z' || c == '.' || c == '_';
+    }
+
+    static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n';
+    }
+
+}
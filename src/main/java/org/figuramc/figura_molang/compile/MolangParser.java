@@ -10,6 +10,8 @@ import org.figuramc.figura_molang.ast.vars.*;
 import org.figuramc.figura_molang.func.ComparisonOperator;
 import org.figuramc.figura_molang.func.FloatFunction;
 import org.figuramc.figura_molang.func.MolangFunction;
+import org.figuramc.figura_translations.Translatable;
+import org.figuramc.figura_translations.TranslatableItems;
 
 import java.util.*;
 
@@ -19,23 +21,38 @@ public class MolangParser<OOMErr extends Throwable> {
     private final MolangInstance<?, OOMErr> instance;
     public final List<String> contextVariables;
     public final Map<String, float[]> constants;
-    private int current;
+    private final ConstantTrie constantTrie; // The same constants, for lookup while parsing
+    private MolangLexer tokens; // Null until parsing starts
+    private int pos; // Index of the next token
 
     private final Stack<Compound> scopes = new Stack<>();
-    private int maxLocalVariables = 0; // Store maximum JVM local variables used, so temporaries can go past it
+    // Temp variables visible right now, by name. If a name is declared twice, the first declaration stays visible.
+    private final Map<String, TempVariable> tempVars = new HashMap<>();
+    private final List<TempVariable> declaredTemps = new ArrayList<>(); // Every visible declaration, in order, so popping a scope can undo its own
+    private int[] scopeStarts = new int[8]; // declaredTemps.size() when each open scope was pushed
+    private int nextLocal = 0, nextVectorTempSlot = 0; // Next free index for each kind of temp variable
+    private int maxLocalVariables = 0; // Store maximum JVM local variables used by temp variables, so temporaries can go past it
+    private int maxVectorTempSlots = 0; // Store maximum float[] slots used by vector temp variables, so they get their own region
+    private final Set<ActorVariable> actorVariables = new LinkedHashSet<>(); // Every actor variable bound, in order
 
     // Only a MolangInstance should ever construct one of these.
     // Please don't try to use this class on your own.
     public MolangParser(String source, MolangInstance<?, OOMErr> instance, List<String> contextVariables, Map<String, float[]> constants) {
+        this(source, instance, contextVariables, constants, ConstantTrie.of(constants));
+    }
+
+    // The trie must hold the same constants as the map. It's passed in so it can be built once and reused across parses.
+    public MolangParser(String source, MolangInstance<?, OOMErr> instance, List<String> contextVariables, Map<String, float[]> constants, ConstantTrie constantTrie) {
         this.source = source;
         this.instance = instance;
         this.contextVariables = contextVariables;
         this.constants = constants;
-        this.current = 0;
+        this.constantTrie = constantTrie;
     }
     
     public MolangExpr parseAll() throws OOMErr, MolangCompileException {
-        if (current != 0) throw new UnsupportedOperationException("Cannot parse with a Parser multiple times!");
+        if (tokens != null) throw new UnsupportedOperationException("Cannot parse with a Parser multiple times!");
+        tokens = MolangLexer.lex(source, 0);
         return parse();
     }
 
@@ -45,115 +62,100 @@ public class MolangParser<OOMErr extends Throwable> {
         return maxLocalVariables;
     }
 
-    // ---------------------
-    // | PARSING OPERATORS |
-    // ---------------------
-
-    private MolangExpr parse() throws OOMErr, MolangCompileException {
-        return parseTernary();
+    // Get the maximum number of float[] slots taken by vector temp variables at any point in this expr
+    public int getMaxVectorTempSlots() {
+        return maxVectorTempSlots;
     }
 
-    private MolangExpr parseTernary() throws OOMErr, MolangCompileException {
-        MolangExpr res = parseLogicalOr();
-        if (consume('?', true)) {
-            if (res.isVector()) throw new MolangCompileException(MolangCompileException.TERNARY_CONDITION_EXPECTS_SCALAR, source, current - 1, current);
-            MolangExpr ifTrue = parseLogicalOr();
-            if (!consume(':', true)) throw new MolangCompileException(MolangCompileException.EXPECTED_TERNARY_COLON, source, current - 1, current);
-            int falseStart = current;
-            MolangExpr ifFalse = parseTernary();
-            if (ifTrue.returnCount() != ifFalse.returnCount())
-                throw new MolangCompileException(MolangCompileException.TERNARY_BRANCHES_MUST_BE_SAME_SIZE, ifTrue.returnCount(), ifFalse.returnCount(), source, falseStart, current);
-            return new Ternary(res, ifTrue, ifFalse);
-        }
-        return res;
+    // Get the actor variables this expr refers to, in the order they were first bound
+    public List<ActorVariable> getActorVariables() {
+        return List.copyOf(actorVariables);
     }
 
-    private MolangExpr parseLogicalOr() throws OOMErr, MolangCompileException {
-        MolangExpr res = parseLogicalAnd();
-        while (consume("||", true)) {
-            int start = current - 2; int end = current;
-            MolangExpr rhs = parseLogicalAnd();
-            if (res.isVector() || rhs.isVector())
-                throw new MolangCompileException(MolangCompileException.LOGICAL_OR_EXPECTS_SCALARS, source, start, end);
-            res = new LogicalOr(res, rhs);
-        }
-        return res;
-    }
-
-    private MolangExpr parseLogicalAnd() throws OOMErr, MolangCompileException {
-        MolangExpr res = parseEquality();
-        while (consume("&&", true)) {
-            int start = current - 2; int end = current;
-            MolangExpr rhs = parseEquality();
-            if (res.isVector() || rhs.isVector())
-                throw new MolangCompileException(MolangCompileException.LOGICAL_AND_EXPECTS_SCALARS, source, start, end);
-            res = new LogicalAnd(res, rhs);
-        }
-        return res;
-    }
-
-    private MolangExpr parseEquality() throws OOMErr, MolangCompileException {
-        MolangExpr res = parseComparison();
-        while (consume("==", true) || consume("!=", true))
-            res = new FunctionCall(switch (last(2)) {
-                case "==" -> ComparisonOperator.EQ_OP;
-                case "!=" -> ComparisonOperator.NE_OP;
-                default -> throw new IllegalStateException();
-            }, List.of(res, parseComparison()));
-        return res;
-    }
+    // ---------------------
+    // | PARSING OPERATORS |
+    // ---------------------
 
-    private MolangExpr parseComparison() throws OOMErr, MolangCompileException {
-        MolangExpr res = parseSum();
-        while (consumeAny("><", true)) {
-            if (consume('=', false)) {
-                res = new FunctionCall(switch (last(2)) {
-                    case "<=" -> ComparisonOperator.LE_OP;
-                    case ">=" -> ComparisonOperator.GE_OP;
-                    default -> throw new IllegalStateException();
-                }, List.of(res, parseSum()));
-            } else {
-                res = new FunctionCall(switch (last()) {
-                    case "<" -> ComparisonOperator.LT_OP;
-                    case ">" -> ComparisonOperator.GT_OP;
+    // The ternary is handled here rather than with the other operators, since its middle only allows binary operators
+    private MolangExpr parse() throws OOMErr, MolangCompileException {
+        MolangExpr res = parseBinary(1);
+        if (peek() != '?') return res;
+        int questionStart = start(), questionEnd = end();
+        pos++;
+        if (res.isVector()) throw new MolangCompileException(MolangCompileException.TERNARY_CONDITION_EXPECTS_SCALAR, source, questionStart, questionEnd);
+        MolangExpr ifTrue = parseBinary(1);
+        if (peek() != ':') throw new MolangCompileException(MolangCompileException.EXPECTED_TERNARY_COLON, source, start() - 1, start());
+        int falseStart = end();
+        pos++;
+        MolangExpr ifFalse = parse();
+        if (ifTrue.returnCount() != ifFalse.returnCount())
+            throw new MolangCompileException(MolangCompileException.TERNARY_BRANCHES_MUST_BE_SAME_SIZE, ifTrue.returnCount(), ifFalse.returnCount(), source, falseStart, start());
+        return new Ternary(res, ifTrue, ifFalse);
+    }
+
+    // How tightly each binary operator binds; 0 if the token isn't one. All of them are left-associative.
+    private static int precedence(int kind) {
+        return switch (kind) {
+            case MolangLexer.OR_OR -> 1;
+            case MolangLexer.AND_AND -> 2;
+            case MolangLexer.EQ_EQ, MolangLexer.NOT_EQ -> 3;
+            case '<', '>', MolangLexer.LESS_EQ, MolangLexer.GREATER_EQ -> 4;
+            case '+', '-' -> 5;
+            case '*', '/', '%' -> 6;
+            default -> 0;
+        };
+    }
+
+    // Parse an expression whose binary operators all bind at least as tightly as minPrecedence
+    private MolangExpr parseBinary(int minPrecedence) throws OOMErr, MolangCompileException {
+        MolangExpr res = parseUnary();
+        while (true) {
+            int kind = peek();
+            int precedence = precedence(kind);
+            if (precedence == 0 || precedence < minPrecedence) return res;
+            int opStart = start(), opEnd = end();
+            pos++;
+            MolangExpr rhs = parseBinary(precedence + 1);
+            res = switch (kind) {
+                case MolangLexer.OR_OR -> {
+                    if (res.isVector() || rhs.isVector())
+                        throw new MolangCompileException(MolangCompileException.LOGICAL_OR_EXPECTS_SCALARS, source, opStart, opEnd);
+                    yield new LogicalOr(res, rhs);
+                }
+                case MolangLexer.AND_AND -> {
+                    if (res.isVector() || rhs.isVector())
+                        throw new MolangCompileException(MolangCompileException.LOGICAL_AND_EXPECTS_SCALARS, source, opStart, opEnd);
+                    yield new LogicalAnd(res, rhs);
+                }
+                default -> new FunctionCall(switch (kind) {
+                    case MolangLexer.EQ_EQ -> ComparisonOperator.EQ_OP;
+                    case MolangLexer.NOT_EQ -> ComparisonOperator.NE_OP;
+                    case '<' -> ComparisonOperator.LT_OP;
+                    case '>' -> ComparisonOperator.GT_OP;
+                    case MolangLexer.LESS_EQ -> ComparisonOperator.LE_OP;
+                    case MolangLexer.GREATER_EQ -> ComparisonOperator.GE_OP;
+                    case '+' -> FloatFunction.ADD_OP;
+                    case '-' -> FloatFunction.SUB_OP;
+                    case '*' -> FloatFunction.MUL_OP;
+                    case '/' -> FloatFunction.DIV_OP;
+                    case '%' -> FloatFunction.MOD_OP;
                     default -> throw new IllegalStateException();
-                }, List.of(res, parseSum()));
-            }
+                }, List.of(res, rhs));
+            };
         }
-        return res;
-    }
-
-    private MolangExpr parseSum() throws OOMErr, MolangCompileException {
-        MolangExpr res = parseProduct();
-        while (consumeAny("+-", true))
-            res = new FunctionCall(switch (last()) {
-                case "+" -> FloatFunction.ADD_OP;
-                case "-" -> FloatFunction.SUB_OP;
-                default -> throw new IllegalStateException();
-            }, List.of(res, parseProduct()));
-        return res;
-    }
-
-    private MolangExpr parseProduct() throws OOMErr, MolangCompileException {
-        MolangExpr res = parseUnary();
-        while (consumeAny("*/%", true))
-            res = new FunctionCall(switch (last()) {
-                case "*" -> FloatFunction.MUL_OP;
-                case "/" -> FloatFunction.DIV_OP;
-                case "%" -> FloatFunction.MOD_OP;
-                default -> throw new IllegalStateException();
-            }, List.of(res, parseUnary()));
-        return res;
     }
 
     private MolangExpr parseUnary() throws OOMErr, MolangCompileException {
-        if (consumeAny("-!", true))
-            return new FunctionCall(switch (last()) {
-                case "-" -> FloatFunction.NEG_OP;
-                case "!" -> throw new UnsupportedOperationException("TODO");
-                default -> throw new IllegalStateException();
-            }, List.of(parseUnary()));
-        return parseAtom();
+        switch (peek()) {
+            case '-' -> {
+                pos++;
+                return new FunctionCall(FloatFunction.NEG_OP, List.of(parseUnary()));
+            }
+            case '!', MolangLexer.NOT_EQ -> throw new UnsupportedOperationException("TODO");
+            default -> {
+                return parseAtom();
+            }
+        }
     }
 
     // ---------
@@ -161,188 +163,203 @@ public class MolangParser<OOMErr extends Throwable> {
     // ---------
 
     private MolangExpr parseAtom() throws OOMErr, MolangCompileException {
-        if (consumeDigit(true)) return finishNumber();
-        if (consume("math.", true)) return finishMath();
-        // Test constants
-        for (var constant : constants.entrySet()) {
-            if (consume(constant.getKey(), true)) {
-                return switch (constant.getValue().length) {
-                    case 0 -> throw new IllegalStateException("Constants must have at least 1 size");
-                    case 1 -> new Literal(constant.getValue()[0]);
-                    default -> {
-                        List<Literal> list = new ArrayList<>(constant.getValue().length);
-                        for (int i = 0; i < constant.getValue().length; i++)
-                            list.add(new Literal(constant.getValue()[i]));
-                        yield new VectorConstructor(list);
-                    }
-                };
-            }
+        int kind = peek();
+        int start = start();
+        if (kind == MolangLexer.NUMBER) {
+            pos++;
+            return new Literal(Float.parseFloat(source.substring(start, end(pos - 1))));
         }
-        if (consume('q', true)) return finishQuery();
-        if (consume('c', true)) return finishContextVar();
-        if (consume('t', true)) return finishTemp();
-        if (consume('v', true)) return finishActorVar();
-        if (consume('(', true)) return finishParen();
-        if (consume('{', true)) return finishBlock();
-        if (consume('[', true)) return finishVectorConstructor();
-        if (consume("return ", true)) {
-            int pre = current - 7;
-            // Ensure we're inside a block before returning
-            if (scopes.isEmpty())
-                throw new MolangCompileException(MolangCompileException.RETURN_OUTSIDE_BLOCK, source, pre, current - 1);
-            // Ensure return size lines up
-            MolangExpr e = parse();
-            if (e.isVector()) {
-                // If it's a vector, ensure it doesn't conflict with existing vectors being returned
-                int retCount = e.returnCount();
-                int prevRetCount = scopes.peek().getCurrentReturnCount();
-                if (prevRetCount == 1) {
-                    scopes.peek().setCurrentReturnCount(retCount);
-                } else if (prevRetCount != retCount) {
-                    throw new MolangCompileException(MolangCompileException.DIFF_RETURN_SIZES, prevRetCount, retCount, source, pre, current);
+        if (kind == MolangLexer.BAD_NUMBER) throw new MolangCompileException(MolangCompileException.NUMBER_PARSE, source, start, end());
+        if (kind == MolangLexer.IDENT && source.startsWith("math.", start)) return parseMath();
+        // Test constants. They're matched against the source itself, so they may contain any characters.
+        // If several match, like "pi" and "pivot", the longest wins.
+        int constant = constantTrie.longestMatch(source, start);
+        if (constant != -1) {
+            seek(start + constantTrie.name(constant).length());
+            float[] value = constantTrie.value(constant);
+            return switch (value.length) {
+                case 0 -> throw new IllegalStateException("Constants must have at least 1 size");
+                case 1 -> new Literal(value[0]);
+                default -> {
+                    List<Literal> list = new ArrayList<>(value.length);
+                    for (float f : value) list.add(new Literal(f));
+                    yield new VectorConstructor(list);
                 }
-            }
-            return new Return(e);
+            };
         }
-        throw new MolangCompileException(MolangCompileException.EXPECTED_EXPRESSION, source, current - 1, current);
-    }
-
-    // First digit was just consumed
-    private MolangExpr finishNumber() throws MolangCompileException {
-        int start = current - 1;
-        boolean foundDot = false;
-        while (true) {
-            if (consume('.', false)) {
-                if (foundDot) throw new MolangCompileException(MolangCompileException.NUMBER_PARSE, source, start, current);
-                foundDot = true;
-            }
-            if (!consumeDigit(false)) {
-                return new Literal(Float.parseFloat(source.substring(start, current)));
+        if (kind == MolangLexer.IDENT) {
+            switch (source.charAt(start)) {
+                case 'q': return parseQuery();
+                case 'c': return parseContextVar();
+                case 't': return parseTemp();
+                case 'v': return parseActorVar();
             }
+            if (source.startsWith("return ", start)) return parseReturn();
         }
-    }
-
-    // "math." was already parsed
-    private MolangExpr finishMath() throws OOMErr, MolangCompileException {
-        int start = current - 5;
-        String s = expectIdent();
-        int funcNameEnd = current;
+        if (kind == '(') return parseParen();
+        if (kind == '{') return parseBlock();
+        if (kind == '[') return parseVectorConstructor();
+        // Points just before what was found instead, or at it when it's at the very start
+        int at = Math.max(start - 1, 0);
+        throw new MolangCompileException(MolangCompileException.EXPECTED_EXPRESSION, source, at, Math.min(at + 1, source.length()));
+    }
+
+    // Offset where the name of the current ident token starts, after "q." or "query." and so on.
+    // Throws the given error if the token doesn't start with either.
+    private int expectPrefix(String shortPrefix, String longPrefix, Translatable<TranslatableItems.Items0> error) throws MolangCompileException {
+        int start = start();
+        if (source.startsWith(shortPrefix, start)) return start + shortPrefix.length();
+        if (source.startsWith(longPrefix, start)) return start + longPrefix.length();
+        throw new MolangCompileException(error, source, start, start + 1);
+    }
+
+    // The name making up the rest of the current ident token, from nameStart. Consumes the token.
+    private String expectName(int nameStart) throws MolangCompileException {
+        int end = end();
+        if (nameStart == end) throw new MolangCompileException(MolangCompileException.EXPECTED_NAME, source, nameStart - 1, nameStart);
+        pos++;
+        return source.substring(nameStart, end);
+    }
+
+    private MolangExpr parseMath() throws OOMErr, MolangCompileException {
+        int start = start();
+        String s = expectName(start + 5);
+        int funcNameEnd = end(pos - 1);
         MolangFunction function = MolangFunction.ALL_MATH_FUNCTIONS.get(s);
-        if (function == null) throw new MolangCompileException(MolangCompileException.UNKNOWN_MATH, s, source, start, current);
+        if (function == null) throw new MolangCompileException(MolangCompileException.UNKNOWN_MATH, s, source, start, funcNameEnd);
         List<MolangExpr> args = parseParams();
         function.checkArgs(args, source, start, funcNameEnd);
         return new FunctionCall(function, args);
     }
 
-    // "t" was already parsed
-    private MolangExpr finishTemp() throws OOMErr, MolangCompileException {
-        int start = current - 1;
-        // Get variable name
-        if (!(consume('.', false) || consume("emp.", false)))
-            throw new MolangCompileException(MolangCompileException.EXPECTED_TEMP_VAR, source, start, current);
-        String varName = expectIdent();
+    private MolangExpr parseTemp() throws OOMErr, MolangCompileException {
+        int start = start();
+        String varName = expectName(expectPrefix("t.", "temp.", MolangCompileException.EXPECTED_TEMP_VAR));
+        int nameEnd = end(pos - 1);
         // Find existing variable
-        Optional<TempVariable> existing = scopes.stream().map(x -> x.tempVars).flatMap(List::stream).filter(it -> it.name.equals(varName)).findAny();
+        TempVariable existing = tempVars.get(varName);
         // Check if this is an assignment
-        if (!check("==", true) && consume('=', true)) {
-            int equals = current - 1;
+        if (peek() == '=') {
+            int equals = start();
+            pos++;
             // Parse RHS
             MolangExpr rhs = parse();
             // If the variable already exists, ensure size matches then emit assignment for it
-            if (existing.isPresent()) {
-                TempVariable existingVar = existing.get();
-                if (existingVar.size != rhs.returnCount())
-                    throw new MolangCompileException(MolangCompileException.INCOMPATIBLE_VAR_SIZE, "t." + varName, existingVar.size, rhs.returnCount(), source, equals, equals + 1);
-                return new TempVariableAssign(existingVar, rhs);
+            if (existing != null) {
+                if (existing.size != rhs.returnCount())
+                    throw new MolangCompileException(MolangCompileException.INCOMPATIBLE_VAR_SIZE, "t." + varName, existing.size, rhs.returnCount(), source, equals, equals + 1);
+                return new TempVariableAssign(existing, rhs);
             }
             // Otherwise, declare it
             TempVariable newVariable = declareTempVar(varName, rhs.returnCount(), start, equals);
-            scopes.peek().tempVars.add(newVariable);
             // Return assignment
             return new TempVariableAssign(newVariable, rhs);
         } else {
-            // If this isn't an assignment, but the var doesn't exist, error
-            if (existing.isEmpty())
-                throw new MolangCompileException(MolangCompileException.NONEXISTENT_TEMP_VAR, varName, source, start, current);
+            // If this isn't an assignment, but the var doesn't exist, error.
+            // The error ends where the old parser's lookahead happened to leave off: before "==", or after whitespace otherwise.
+            if (existing == null)
+                throw new MolangCompileException(MolangCompileException.NONEXISTENT_TEMP_VAR, varName, source, start, peek() == MolangLexer.EQ_EQ ? nameEnd : start());
             // Return variable
-            return existing.get();
+            return existing;
         }
     }
 
-    // "v" was parsed
-    private MolangExpr finishActorVar() throws OOMErr, MolangCompileException {
-        int start = current - 1;
-        if (!(consume('.', false) || consume("ariable.", false)))
-            throw new MolangCompileException(MolangCompileException.EXPECTED_ACTOR_VAR, source, start, current);
+    private MolangExpr parseActorVar() throws OOMErr, MolangCompileException {
+        int i = expectPrefix("v.", "variable.", MolangCompileException.EXPECTED_ACTOR_VAR);
         // To support vectors, we need to know at compile time how many elements are in this variable.
-        // We use the syntax "v.size_integer.name" to facilitate this. When the integer is not present, size is assumed to be 1.
+        // We use the syntax "v.size_integer$name" to facilitate this. When the integer is not present, size is assumed to be 1.
+        // Digits end the ident token, so this part reads the source directly, then picks the tokens back up after it.
         int varSize = 1;
-        if (consumeDigit(false)) {
-            int countStart = current - 1;
-            while (consumeDigit(false));
-            String s = source.substring(countStart, current);
+        if (i < source.length() && MolangLexer.isDigit(source.charAt(i))) {
+            int countStart = i;
+            while (i < source.length() && MolangLexer.isDigit(source.charAt(i))) i++;
+            String s = source.substring(countStart, i);
             varSize = Integer.parseInt(s);
-            if (varSize <= 1) throw new MolangCompileException(MolangCompileException.VAR_SIZE_TOO_LOW, source, countStart, current);
-            if (!consume('$', false)) throw new MolangCompileException(MolangCompileException.EXPECT_DOLLAR_AFTER_VAR_SIZE, s, source, countStart, current);
+            if (varSize <= 1) throw new MolangCompileException(MolangCompileException.VAR_SIZE_TOO_LOW, source, countStart, i);
+            if (i == source.length() || source.charAt(i) != '$') throw new MolangCompileException(MolangCompileException.EXPECT_DOLLAR_AFTER_VAR_SIZE, s, source, countStart, i);
+            i++;
         }
-        String varName = (varSize == 1 ? expectIdent() : varSize + "$" + expectIdent());
+        int nameStart = i;
+        while (i < source.length() && MolangLexer.isIdentChar(source.charAt(i))) i++;
+        if (i == nameStart) throw new MolangCompileException(MolangCompileException.EXPECTED_NAME, source, i - 1, i);
+        seek(i);
+        String name = source.substring(nameStart, i);
+        String varName = (varSize == 1 ? name : varSize + "$" + name);
         ActorVariable variable = instance.getOrCreateActorVariable(varName, varSize); // Get the variable
-        if (!check("==", true) && consume('=', true)) {
-            int equals = current - 1;
+        actorVariables.add(variable);
+        if (peek() == '=') {
+            int equals = start();
+            pos++;
             MolangExpr rhs = parse();
             if (rhs.returnCount() != variable.size)
                 throw new MolangCompileException(MolangCompileException.INCOMPATIBLE_VAR_SIZE, "v." + varName, variable.size, rhs.returnCount(), source, equals, equals + 1);
-            return new ActorVariableAssign(variable, parse());
+            return new ActorVariableAssign(variable, rhs);
         } else {
             return variable;
         }
     }
 
-    // "q" was parsed
-    private MolangExpr finishQuery() throws OOMErr, MolangCompileException {
-        int start = current - 1;
-        if (!(consume('.', false) || consume("uery.", false)))
-            throw new MolangCompileException(MolangCompileException.EXPECTED_QUERY, source, start, current);
-        String queryName = expectIdent();
-        int afterFuncName = current;
+    private MolangExpr parseQuery() throws OOMErr, MolangCompileException {
+        int start = start();
+        String queryName = expectName(expectPrefix("q.", "query.", MolangCompileException.EXPECTED_QUERY));
+        int afterFuncName = end(pos - 1);
         MolangInstance.Query<?, OOMErr> query = instance.getQuery(queryName);
-        if (query == null) throw new MolangCompileException(MolangCompileException.UNKNOWN_QUERY, queryName, source, start, current);
+        if (query == null) throw new MolangCompileException(MolangCompileException.UNKNOWN_QUERY, queryName, source, start, afterFuncName);
         return query.bind(this, parseParams(), source, start, afterFuncName);
     }
 
-    // "c" was parsed
-    private MolangExpr finishContextVar() throws OOMErr, MolangCompileException {
-        int start = current - 1;
-        if (!(consume('.', false) || consume("ontext.", false)))
-            throw new MolangCompileException(MolangCompileException.EXPECTED_CONTEXT_VAR, source, start, current);
-        String contextVarName = expectIdent();
+    private MolangExpr parseContextVar() throws OOMErr, MolangCompileException {
+        int start = start();
+        String contextVarName = expectName(expectPrefix("c.", "context.", MolangCompileException.EXPECTED_CONTEXT_VAR));
         int varIndex = contextVariables.indexOf(contextVarName);
-        if (varIndex == -1) throw new MolangCompileException(MolangCompileException.UNKNOWN_CONTEXT_VAR, contextVarName, source, start, current);
+        if (varIndex == -1) throw new MolangCompileException(MolangCompileException.UNKNOWN_CONTEXT_VAR, contextVarName, source, start, end(pos - 1));
         return new ContextVariable(contextVarName, varIndex);
     }
 
-    // ( was already consumed
-    private MolangExpr finishParen() throws OOMErr, MolangCompileException {
+    // "return " must be followed by a space exactly, which ends the ident token
+    private MolangExpr parseReturn() throws OOMErr, MolangCompileException {
+        int pre = start();
+        pos++;
+        // Ensure we're inside a block before returning
+        if (scopes.isEmpty())
+            throw new MolangCompileException(MolangCompileException.RETURN_OUTSIDE_BLOCK, source, pre, pre + 6);
+        // Ensure return size lines up
+        MolangExpr e = parse();
+        if (e.isVector()) {
+            // If it's a vector, ensure it doesn't conflict with existing vectors being returned
+            int retCount = e.returnCount();
+            int prevRetCount = scopes.peek().getCurrentReturnCount();
+            if (prevRetCount == 1) {
+                scopes.peek().setCurrentReturnCount(retCount);
+            } else if (prevRetCount != retCount) {
+                throw new MolangCompileException(MolangCompileException.DIFF_RETURN_SIZES, prevRetCount, retCount, source, pre, start());
+            }
+        }
+        return new Return(e);
+    }
+
+    private MolangExpr parseParen() throws OOMErr, MolangCompileException {
+        pos++;
         MolangExpr res = parse();
-        if (!consume(')', true))
-            throw new MolangCompileException(MolangCompileException.EXPECTED_CLOSE_PAREN, source, current - 1, current);
+        if (!consume(')'))
+            throw new MolangCompileException(MolangCompileException.EXPECTED_CLOSE_PAREN, source, start() - 1, start());
         return res;
     }
 
-    // { was already consumed
-    private MolangExpr finishBlock() throws OOMErr, MolangCompileException {
+    private MolangExpr parseBlock() throws OOMErr, MolangCompileException {
+        pos++;
         Compound c = pushScope();
         separatedList(';', '}', true, () -> c.exprs.add(parse()));
         popScope();
         return c;
     }
 
-    // [ was already consumed
-    private MolangExpr finishVectorConstructor() throws OOMErr, MolangCompileException {
-        int start = current - 1;
+    private MolangExpr parseVectorConstructor() throws OOMErr, MolangCompileException {
+        int start = start();
+        pos++;
         List<MolangExpr> exprs = separatedList(',', ']', true, this::parse);
         if (exprs.size() <= 1)
-            throw new MolangCompileException(MolangCompileException.VECTOR_CONSTRUCTOR_EXPECTS_TWO_ARGS, source, start, current);
+            throw new MolangCompileException(MolangCompileException.VECTOR_CONSTRUCTOR_EXPECTS_TWO_ARGS, source, start, end(pos - 1));
         return new VectorConstructor(exprs);
     }
 
@@ -351,21 +368,21 @@ public class MolangParser<OOMErr extends Throwable> {
     // ------------------
 
     private List<MolangExpr> parseParams() throws OOMErr, MolangCompileException {
-        if (!consume('(', true)) return List.of();
+        if (!consume('(')) return List.of();
         return separatedList(',', ')', false, this::parse);
     }
 
     private <T> List<T> separatedList(char separator, char end, boolean allowTrailingSeparator, BiThrowingSupplier<T, OOMErr, MolangCompileException> parser) throws OOMErr, MolangCompileException {
-        if (consume(end, true)) return List.of();
+        if (consume(end)) return List.of();
         ArrayList<T> res = new ArrayList<>();
         while (true) {
             res.add(parser.get());
-            if (!consume(separator, true)) {
-                if (!consume(end, true))
-                    throw new MolangCompileException(MolangCompileException.EXPECTED_LIST, String.valueOf(separator), String.valueOf(end), source, current - 1, current);
+            if (!consume(separator)) {
+                if (!consume(end))
+                    throw new MolangCompileException(MolangCompileException.EXPECTED_LIST, String.valueOf(separator), String.valueOf(end), source, start() - 1, start());
                 return res;
             } else if (allowTrailingSeparator) {
-                if (consume(end, true)) return res;
+                if (consume(end)) return res;
             }
         }
     }
@@ -376,23 +393,47 @@ public class MolangParser<OOMErr extends Throwable> {
 
     public Compound pushScope() {
         Compound res = new Compound();
+        if (scopes.size() == scopeStarts.length) scopeStarts = Arrays.copyOf(scopeStarts, scopeStarts.length * 2);
+        scopeStarts[scopes.size()] = declaredTemps.size();
         scopes.push(res);
         return res;
     }
 
+    // Forget the scope's temp variables, and free their indices for whatever's declared next
     public void popScope() {
+        int scopeStart = scopeStarts[scopes.size() - 1];
+        for (int i = declaredTemps.size() - 1; i >= scopeStart; i--) {
+            TempVariable variable = declaredTemps.remove(i);
+            if (tempVars.get(variable.name) == variable) tempVars.remove(variable.name);
+            if (variable.inLocals) nextLocal = variable.getLogicalLocation();
+            else nextVectorTempSlot = variable.getLogicalLocation();
+        }
         scopes.pop().finish();
     }
 
+    // Declare a temp variable in the innermost scope, visible until that scope is popped.
     // Pass error locations. When calling from outside the parser, just pass -1 for varStart and equalsSign, since it can't error.
     public TempVariable declareTempVar(String name, int size, int varStart, int equalsSign) throws MolangCompileException {
         // If there are no scopes, error
         if (scopes.isEmpty())
             throw new MolangCompileException(MolangCompileException.TEMP_VAR_OUTSIDE_BLOCK, name, source, varStart, equalsSign);
-        // Add it to scope. Find the next unused index:
-        int nextIndex = scopes.reversed().stream().map(x -> x.tempVars).map(List::reversed).flatMap(List::stream).filter(v -> v.isVector() == (size != 1)).findFirst().map(it -> it.getLogicalLocation() + it.size).orElse(0);
-        if (size == 1) maxLocalVariables = Math.max(maxLocalVariables, nextIndex + 1);
-        return new TempVariable(name, size, nextIndex);
+        // Add it to scope, at the next unused index:
+        // Scalars, and vectors small enough to replace with one local per element, go in JVM locals. Other vectors go in the float[].
+        boolean inLocals = size == 1 || size <= instance.getCompilerOptions().scalarReplacementThreshold();
+        TempVariable variable;
+        if (inLocals) {
+            variable = new TempVariable(name, size, nextLocal, true);
+            nextLocal += size;
+            maxLocalVariables = Math.max(maxLocalVariables, nextLocal);
+        } else {
+            variable = new TempVariable(name, size, nextVectorTempSlot, false);
+            nextVectorTempSlot += size;
+            maxVectorTempSlots = Math.max(maxVectorTempSlots, nextVectorTempSlot);
+        }
+        tempVars.putIfAbsent(name, variable);
+        declaredTemps.add(variable);
+        scopes.peek().tempVars.add(variable);
+        return variable;
     }
 
     @FunctionalInterface
@@ -402,85 +443,29 @@ public class MolangParser<OOMErr extends Throwable> {
 
 
     // ----------
-    // | LEXING |
+    // | TOKENS |
     // ----------
 
-    private boolean consumeAny(String toks, boolean skipWhitespace) {
-        if (skipWhitespace) skipWhitespace();
-        if (current == source.length()) return false;
-        return (toks.indexOf(source.charAt(current)) != -1) && advance();
-    }
-
-    private boolean consume(char tok, boolean skipWhitespace) {
-        if (skipWhitespace) skipWhitespace();
-        if (current == source.length()) return false;
-        return source.charAt(current) == tok && advance();
-    }
-
-    private boolean consume(String tok, boolean skipWhitespace) {
-        if (skipWhitespace) skipWhitespace();
-        int start = current;
-        for (int i = 0; i < tok.length(); i++) {
-            if (!consume(tok.charAt(i), false)) {
-                current = start;
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private boolean check(String tok, boolean skipWhitespace) {
-        int start = current;
-        boolean success = consume(tok, skipWhitespace);
-        if (success) current = start;
-        return success;
-    }
-
-    private boolean consumeDigit(boolean skipWhitespace) {
-        if (skipWhitespace) skipWhitespace();
-        if (current == source.length()) return false;
-        return isDigit(source.charAt(current)) && advance();
-    }
-    private boolean consumeIdentChar(boolean skipWhitespace) {
-        if (skipWhitespace) skipWhitespace();
-        if (current == source.length()) return false;
-        return isIdentChar(source.charAt(current)) && advance();
-    }
-
-    private String expectIdent() throws MolangCompileException {
-        int start = current;
-        while (consumeIdentChar(false));
-        if (start == current) throw new MolangCompileException(MolangCompileException.EXPECTED_NAME, source, current - 1, current);
-        return source.substring(start, current);
-    }
-
-    private void skipWhitespace() {
-        while (current < source.length() && isWhitespace(source.charAt(current)))
-            current++;
-    }
+    // Kind, start and end of the next token
+    private int peek() { return tokens.kind(pos); }
+    private int start() { return tokens.start(pos); }
+    private int end() { return tokens.end(pos); }
+    private int end(int index) { return tokens.end(index); }
 
-    private boolean advance() {
-        current++;
+    private boolean consume(int kind) {
+        if (tokens.kind(pos) != kind) return false;
+        pos++;
         return true;
     }
 
-    private String last() {
-        return last(1);
-    }
-    private String last(int count) {
-        return source.substring(current - count, current);
-    }
-
-    private static boolean isDigit(char c) {
-        return c >= '0' && c <= '9';
-    }
-
-    private static boolean isIdentChar(char c) {
-        return c >= 'a' && c <= 'z' || c == '.' || c == '_';
-    }
-
-    private static boolean isWhitespace(char c) {
-        return c == ' ' || c == '\t' || c == '\n';
+    // Continue with the tokens after this source offset, once something has read the source directly up to it.
+    // If the offset is in the middle of a token, the rest of the source is lexed again from there.
+    private void seek(int offset) {
+        while (tokens.kind(pos) != MolangLexer.EOF && tokens.end(pos) <= offset) pos++;
+        if (tokens.start(pos) < offset) {
+            tokens = MolangLexer.lex(source, offset);
+            pos = 0;
+        }
     }
 
 }
@@ -0,0 +1,19 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.vars.ActorVariable;
+
+import java.util.List;
+
+/**
+ * The result of parsing one expression, with the frame sizes needed to run it.
+ *
+ * @param expr The root of the AST.
+ * @param argCount The number of context variables.
+ * @param maxLocalVariables The number of JVM locals needed by the temp variables alive at once: one per scalar, and one per element of vectors in locals.
+ * @param maxVectorTempSlots The number of floats needed to hold the vector temp variables in the float[] alive at once.
+ * @param actorVariables The actor variables the expression refers to, in the order they were first bound.
+ *                       Generated code depends on their locations in the layout.
+ */
+public record ParsedMolang(MolangExpr expr, int argCount, int maxLocalVariables, int maxVectorTempSlots, List<ActorVariable> actorVariables) {
+}
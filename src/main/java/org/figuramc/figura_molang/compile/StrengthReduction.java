@@ -0,0 +1,72 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.FunctionCall;
+import org.figuramc.figura_molang.ast.Literal;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.func.FloatFunction;
+import org.figuramc.figura_molang.func.MolangFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces expensive operations on a constant with cheaper ones that give the same results:
+ * - math.pow(x, n) for n up to FloatFunction.EXACT_INT_POW becomes multiplies, and math.pow(x, 0.5) becomes a sqrt
+ * - x / c becomes x * (1 / c), when c is a power of two, so the reciprocal is exact
+ * - x % c avoids FREM when c is a power of two
+ * Runs after constant folding, so constants which were computed are caught too.
+ */
+public final class StrengthReduction {
+
+    private StrengthReduction() {}
+
+    // Return an equivalent expr with cheaper operations. May return the same expr.
+    public static MolangExpr reduce(MolangExpr expr) {
+        List<MolangExpr> children = expr.children();
+        if (!children.isEmpty()) {
+            List<MolangExpr> rewritten = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (MolangExpr child : children) {
+                MolangExpr res = reduce(child);
+                changed |= res != child;
+                rewritten.add(res);
+            }
+            if (changed) expr = expr.withChildren(rewritten);
+        }
+        if (expr instanceof FunctionCall call && call.args.size() == 2) return reduceBinary(call);
+        return expr;
+    }
+
+    private static MolangExpr reduceBinary(FunctionCall call) {
+        MolangFunction func = call.func;
+        MolangExpr lhs = call.args.get(0);
+        MolangExpr rhs = call.args.get(1);
+        if (!rhs.isConstant()) return call;
+        if (func == FloatFunction.POW && rhs instanceof Literal exponent) {
+            float n = exponent.value;
+            if (n == 1) return lhs;
+            if (n == 0.5f) return new FunctionCall(FloatFunction.SQRT_POW, List.of(lhs));
+            if (n == (int) n && Math.abs(n) <= FloatFunction.EXACT_INT_POW) return new FunctionCall(FloatFunction.intPow((int) n), List.of(lhs));
+        } else if (func == FloatFunction.DIV_OP) {
+            float[] divisors = ConstantFolding.evaluate(rhs);
+            for (int i = 0; i < divisors.length; i++) {
+                if (!hasExactReciprocal(divisors[i])) return call;
+                divisors[i] = 1 / divisors[i];
+            }
+            return new FunctionCall(FloatFunction.MUL_OP, List.of(lhs, ConstantFolding.literal(divisors)));
+        } else if (func == FloatFunction.MOD_OP || func == FloatFunction.MOD) {
+            for (float divisor : ConstantFolding.evaluate(rhs))
+                if (!hasExactReciprocal(divisor) || Math.abs(divisor) < 1) return call;
+            return new FunctionCall(FloatFunction.REM_POWER_OF_TWO, call.args);
+        }
+        return call;
+    }
+
+    // Whether value is a power of two (or its negation) whose reciprocal is a normal float,
+    // so dividing by it rounds exactly like multiplying by the reciprocal
+    private static boolean hasExactReciprocal(float value) {
+        int exponent = Math.getExponent(value);
+        return exponent >= -126 && exponent <= 126 && Math.abs(value) == Math.scalb(1f, exponent);
+    }
+
+}
@@ -0,0 +1,66 @@
+package org.figuramc.figura_molang.compile;
+
+import org.figuramc.figura_molang.ast.FunctionCall;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.func.FloatFunction;
+import org.figuramc.figura_molang.func.MolangFunction;
+import org.figuramc.figura_molang.func.VecReduceFunction;
+import org.figuramc.figura_molang.func.VecReduceFunctionBinary;
+import org.figuramc.figura_molang.func.VectorApiFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces element-wise functions and reductions on large vectors with versions using the Java Vector API,
+ * when MolangCompilerOptions.vectorApiThreshold is set. See VectorApiFunction.
+ * Does nothing if the JVM doesn't have the incubator module, so the scalar loops are used instead.
+ */
+public final class VectorApiSubstitution {
+
+    private VectorApiSubstitution() {}
+
+    private static final Map<MolangFunction, VectorApiFunction> VECTOR_VERSIONS = Map.ofEntries(
+            Map.entry(FloatFunction.ADD_OP, VectorApiFunction.ADD_OP),
+            Map.entry(FloatFunction.SUB_OP, VectorApiFunction.SUB_OP),
+            Map.entry(FloatFunction.MUL_OP, VectorApiFunction.MUL_OP),
+            Map.entry(FloatFunction.DIV_OP, VectorApiFunction.DIV_OP),
+            Map.entry(FloatFunction.NEG_OP, VectorApiFunction.NEG_OP),
+            Map.entry(FloatFunction.ABS, VectorApiFunction.ABS),
+            Map.entry(FloatFunction.SQRT, VectorApiFunction.SQRT),
+            Map.entry(FloatFunction.MIN, VectorApiFunction.MIN),
+            Map.entry(FloatFunction.MAX, VectorApiFunction.MAX),
+            Map.entry(VecReduceFunction.SUM, VectorApiFunction.SUM),
+            Map.entry(VecReduceFunction.PRODUCT, VectorApiFunction.PRODUCT),
+            Map.entry(VecReduceFunction.MIN_ELEM, VectorApiFunction.MIN_ELEM),
+            Map.entry(VecReduceFunction.MAX_ELEM, VectorApiFunction.MAX_ELEM),
+            Map.entry(VecReduceFunctionBinary.DOT_PRODUCT, VectorApiFunction.DOT_PRODUCT),
+            Map.entry(VecReduceFunctionBinary.DISTANCE, VectorApiFunction.DISTANCE)
+    );
+
+    // Return the expr with Vector API versions of calls on vectors with at least threshold elements. May return the same expr.
+    public static MolangExpr substitute(MolangExpr expr, int threshold) {
+        if (!VectorApiFunction.isAvailable()) return expr;
+        return substituteAvailable(expr, threshold);
+    }
+
+    private static MolangExpr substituteAvailable(MolangExpr expr, int threshold) {
+        List<MolangExpr> children = expr.children();
+        if (!children.isEmpty()) {
+            List<MolangExpr> rewritten = new ArrayList<>(children.size());
+            boolean changed = false;
+            for (MolangExpr child : children) {
+                MolangExpr res = substituteAvailable(child, threshold);
+                changed |= res != child;
+                rewritten.add(res);
+            }
+            if (changed) expr = expr.withChildren(rewritten);
+        }
+        if (expr instanceof FunctionCall call && VECTOR_VERSIONS.containsKey(call.func)
+                && call.args.stream().anyMatch(arg -> arg.isVector() && arg.returnCount() >= threshold))
+            return new FunctionCall(VECTOR_VERSIONS.get(call.func), call.args);
+        return expr;
+    }
+
+}
@@ -60,6 +60,39 @@ public class BytecodeUtil {
         methodVisitor.visitLabel(endLabel);
     }
 
+    // Body of a loop which may be unrolled. index is the iteration as a constant, or UNKNOWN_INDEX inside a real loop,
+    // where it's in the counter local instead.
+    public interface LoopBody {
+        void accept(MethodVisitor methodVisitor, int index);
+    }
+
+    public static final int UNKNOWN_INDEX = -1;
+
+    // Like repeatNTimes, but if repeatCount is at most unrollThreshold, the body is emitted once per iteration
+    // with a constant index, and no loop. Vector sizes are known ahead of time, so this is common.
+    // Reserves a local variable slot in counterLocalSlot, which is only used when looping!
+    public static void repeatNTimes(MethodVisitor methodVisitor, int repeatCount, int unrollThreshold, int counterLocalSlot, LoopBody body) {
+        if (repeatCount <= unrollThreshold) {
+            for (int i = 0; i < repeatCount; i++)
+                body.accept(methodVisitor, i);
+            return;
+        }
+        repeatNTimes(methodVisitor, repeatCount, counterLocalSlot, v -> body.accept(v, UNKNOWN_INDEX));
+    }
+
+    // Push base + the index of a LoopBody. If the index is unknown, it's read from counterLocalSlot.
+    public static void loopIndex(MethodVisitor methodVisitor, int base, int index, int counterLocalSlot) {
+        if (index != UNKNOWN_INDEX) {
+            constInt(methodVisitor, base + index);
+            return;
+        }
+        methodVisitor.visitVarInsn(Opcodes.ILOAD, counterLocalSlot);
+        if (base != 0) {
+            constInt(methodVisitor, base);
+            methodVisitor.visitInsn(Opcodes.IADD);
+        }
+    }
+
     public static void constInt(MethodVisitor methodVisitor, int value) {
         switch (value) {
             case -1 -> methodVisitor.visitInsn(Opcodes.ICONST_M1);
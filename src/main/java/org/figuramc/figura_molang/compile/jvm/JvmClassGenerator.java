@@ -0,0 +1,354 @@
+package org.figuramc.figura_molang.compile.jvm;
+
+import org.figuramc.figura_molang.CompiledMolang;
+import org.figuramc.figura_molang.MolangCompilerOptions;
+import org.figuramc.figura_molang.MolangInstance;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.ParsedMolang;
+import org.jetbrains.annotations.Nullable;
+import org.objectweb.asm.*;
+import org.objectweb.asm.util.CheckClassAdapter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Generates the bytes of a CompiledMolang subclass from a parsed expression.
+ * Doesn't define the class or touch any MolangInstance, so the result can be shared or stored.
+ */
+public class JvmClassGenerator {
+
+    // Batches bigger than this are split over multiple classes, to stay well clear of class file limits
+    public static final int MAX_BATCH_SIZE = 1024;
+
+    // The output of generating a class.
+    // returnCounts holds the return count of each expression in the class; non-batched classes have exactly one.
+    // maxArraySlots is the size of tempStack that the class needs while running.
+    public record GeneratedClass(String name, byte[] bytes, int argCount, int[] returnCounts, int maxArraySlots, boolean batched) {}
+
+    // Generate a class with the given internal name, implementing evaluateImpl for the expression's args
+    public static GeneratedClass generate(String name, ParsedMolang parsed) {
+        return generate(name, parsed, MolangCompilerOptions.DEFAULT);
+    }
+
+    // Only the options affecting bytecode matter here; the tree was already optimized while parsing.
+    public static GeneratedClass generate(String name, ParsedMolang parsed, MolangCompilerOptions options) {
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor classWriter = options.verify() ? new CheckClassAdapter(writer) : writer;
+        classWriter.visit(options.classfileVersion(), Opcodes.ACC_PUBLIC, name, null, Type.getInternalName(CompiledMolang.class), null);
+
+        // Constructor
+        MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II)V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitVarInsn(Opcodes.ALOAD, 1);
+        constructor.visitVarInsn(Opcodes.ILOAD, 2);
+        constructor.visitVarInsn(Opcodes.ILOAD, 3);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(CompiledMolang.class), "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II)V", false);
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        // evaluateImpl method, with the appropriate arg count
+        int maxArraySlots = generateEvaluateMethod(classWriter, Opcodes.ACC_PROTECTED, "evaluateImpl", parsed, options.unrollThreshold());
+        // Scalars also get evaluateScalarImpl, returning the value itself
+        if (parsed.expr().returnCount() == 1)
+            maxArraySlots = Math.max(maxArraySlots, generateScalarEvaluateMethod(classWriter, Opcodes.ACC_PROTECTED, "evaluateScalarImpl", parsed, options.unrollThreshold()));
+        // And evaluateBatchImpl, looping over rows of args. Batched classes don't get one, and loop over evaluateImpl instead.
+        maxArraySlots = Math.max(maxArraySlots, generateBatchEvaluateMethod(classWriter, parsed, options.unrollThreshold()));
+
+        classWriter.visitEnd();
+        byte[] classBytes = finish(writer, name, options);
+        return new GeneratedClass(name, classBytes, parsed.argCount(), new int[] { parsed.expr().returnCount() }, maxArraySlots, false);
+    }
+
+    // Generate one class holding many expressions, all taking the same number of args.
+    // Each expression becomes its own private method. Instances carry an index, and evaluateImpl dispatches on it,
+    // so every expression is a lightweight instance of the same class instead of a class of its own.
+    // Scalar expressions get a second method, which evaluateScalarImpl dispatches to the same way.
+    // The constructor takes (MolangInstance, argCount, returnCount, index).
+    public static GeneratedClass generateBatch(String name, List<ParsedMolang> exprs) {
+        return generateBatch(name, exprs, MolangCompilerOptions.DEFAULT);
+    }
+
+    public static GeneratedClass generateBatch(String name, List<ParsedMolang> exprs, MolangCompilerOptions options) {
+        if (exprs.isEmpty() || exprs.size() > MAX_BATCH_SIZE) throw new IllegalArgumentException("Batch must contain between 1 and " + MAX_BATCH_SIZE + " expressions");
+        int argCount = exprs.getFirst().argCount();
+        if (exprs.stream().anyMatch(e -> e.argCount() != argCount)) throw new IllegalArgumentException("Every expression in a batch must take the same number of args");
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES);
+        ClassVisitor classWriter = options.verify() ? new CheckClassAdapter(writer) : writer;
+        classWriter.visit(options.classfileVersion(), Opcodes.ACC_PUBLIC, name, null, Type.getInternalName(CompiledMolang.class), null);
+        classWriter.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL, "index", "I", null, null).visitEnd();
+
+        // Constructor, which also stores the index
+        MethodVisitor constructor = classWriter.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "III)V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitVarInsn(Opcodes.ALOAD, 1);
+        constructor.visitVarInsn(Opcodes.ILOAD, 2);
+        constructor.visitVarInsn(Opcodes.ILOAD, 3);
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, Type.getInternalName(CompiledMolang.class), "<init>", "(" + Type.getDescriptor(MolangInstance.class) + "II)V", false);
+        constructor.visitVarInsn(Opcodes.ALOAD, 0);
+        constructor.visitVarInsn(Opcodes.ILOAD, 4);
+        constructor.visitFieldInsn(Opcodes.PUTFIELD, name, "index", "I");
+        constructor.visitInsn(Opcodes.RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        // One method per expression
+        int maxArraySlots = 1;
+        int[] returnCounts = new int[exprs.size()];
+        boolean[] scalar = new boolean[exprs.size()];
+        boolean anyScalar = false;
+        for (int i = 0; i < exprs.size(); i++) {
+            maxArraySlots = Math.max(maxArraySlots, generateEvaluateMethod(classWriter, Opcodes.ACC_PRIVATE, "evaluate$" + i, exprs.get(i), options.unrollThreshold()));
+            returnCounts[i] = exprs.get(i).expr().returnCount();
+            if (returnCounts[i] == 1) {
+                maxArraySlots = Math.max(maxArraySlots, generateScalarEvaluateMethod(classWriter, Opcodes.ACC_PRIVATE, "evaluateScalar$" + i, exprs.get(i), options.unrollThreshold()));
+                scalar[i] = anyScalar = true;
+            }
+        }
+
+        // evaluateImpl, switching on the index to call the right method
+        generateDispatch(classWriter, name, "evaluateImpl", "evaluate$", "(" + "F".repeat(argCount) + ")[F", argCount, exprs.size(), null);
+        // evaluateScalarImpl too, if there's anything for it to call. Non-scalar expressions never call it.
+        if (anyScalar) generateDispatch(classWriter, name, "evaluateScalarImpl", "evaluateScalar$", "(" + "F".repeat(argCount) + ")F", argCount, exprs.size(), scalar);
+
+        classWriter.visitEnd();
+        byte[] classBytes = finish(writer, name, options);
+        return new GeneratedClass(name, classBytes, argCount, returnCounts, maxArraySlots, true);
+    }
+
+    // Emit a method switching on the index field, calling methodPrefix + index with the same args and returning its result.
+    // If there's a filter, indices it doesn't include throw like a bad index does.
+    private static void generateDispatch(ClassVisitor classWriter, String name, String methodName, String methodPrefix, String desc, int argCount, int count, boolean @Nullable [] filter) {
+        Type returnType = Type.getReturnType(desc);
+        MethodVisitor dispatch = classWriter.visitMethod(Opcodes.ACC_PROTECTED, methodName, desc, null, null);
+        dispatch.visitCode();
+        Label badIndex = new Label();
+        Label[] cases = new Label[count];
+        for (int i = 0; i < cases.length; i++) cases[i] = filter == null || filter[i] ? new Label() : badIndex;
+        dispatch.visitVarInsn(Opcodes.ALOAD, 0);
+        dispatch.visitFieldInsn(Opcodes.GETFIELD, name, "index", "I");
+        dispatch.visitTableSwitchInsn(0, cases.length - 1, badIndex, cases);
+        for (int i = 0; i < cases.length; i++) {
+            if (cases[i] == badIndex) continue;
+            dispatch.visitLabel(cases[i]);
+            dispatch.visitVarInsn(Opcodes.ALOAD, 0);
+            for (int arg = 0; arg < argCount; arg++)
+                dispatch.visitVarInsn(Opcodes.FLOAD, 1 + arg);
+            dispatch.visitMethodInsn(Opcodes.INVOKESPECIAL, name, methodPrefix + i, desc, false);
+            dispatch.visitInsn(returnType.getOpcode(Opcodes.IRETURN));
+        }
+        // Can't happen unless someone constructs the class by hand
+        dispatch.visitLabel(badIndex);
+        dispatch.visitTypeInsn(Opcodes.NEW, "java/lang/IllegalStateException");
+        dispatch.visitInsn(Opcodes.DUP);
+        dispatch.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/IllegalStateException", "<init>", "()V", false);
+        dispatch.visitInsn(Opcodes.ATHROW);
+        dispatch.visitMaxs(0, 0);
+        dispatch.visitEnd();
+    }
+
+    // Get the bytes of a finished class, and dump them if the options ask for it
+    private static byte[] finish(ClassWriter writer, String name, MolangCompilerOptions options) {
+        byte[] bytes = writer.toByteArray();
+        if (options.dumpDirectory() != null) {
+            Path file = options.dumpDirectory().resolve(name + ".class");
+            try {
+                Files.createDirectories(file.getParent());
+                Files.write(file, bytes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException("Failed to dump class " + name, ex);
+            }
+        }
+        if (options.dumpCallback() != null) options.dumpCallback().accept(name, bytes);
+        return bytes;
+    }
+
+    // Emit a method "float[] methodName(float... args)" evaluating the expr.
+    // Returns how many tempStack slots the method requires.
+    public static int generateEvaluateMethod(ClassVisitor classWriter, int access, String methodName, ParsedMolang parsed, int unrollThreshold) {
+        return generateEvaluateMethod(classWriter, access, methodName, parsed, unrollThreshold, false);
+    }
+
+    // Emit a method "float methodName(float... args)" evaluating a scalar expr, returning the value straight off the stack
+    // instead of storing it in the float[]. The float[] is still fetched if the expr needs scratch space or vector temps.
+    // Returns how many tempStack slots the method requires.
+    public static int generateScalarEvaluateMethod(ClassVisitor classWriter, int access, String methodName, ParsedMolang parsed, int unrollThreshold) {
+        if (parsed.expr().returnCount() != 1) throw new IllegalArgumentException("Expression returns " + parsed.expr().returnCount() + " values, not 1");
+        return generateEvaluateMethod(classWriter, access, methodName, parsed, unrollThreshold, true);
+    }
+
+    private static int generateEvaluateMethod(ClassVisitor classWriter, int access, String methodName, ParsedMolang parsed, int unrollThreshold, boolean returnScalar) {
+        MolangExpr expr = parsed.expr();
+        int argCount = parsed.argCount();
+        int arrayVariableIndex = argCount + 1;
+        int firstUnusedLocal = arrayVariableIndex + 1 + parsed.maxLocalVariables();
+
+        String evaluateImplDesc = "(" + "F".repeat(argCount) + (returnScalar ? ")F" : ")[F");
+        ArrayUseTracker evaluateMethod = new ArrayUseTracker(classWriter.visitMethod(access, methodName, evaluateImplDesc, null, null), arrayVariableIndex);
+        evaluateMethod.visitCode();
+
+        // Cursed garbage required for re-entrancy support, plus our compiler is bad so it doesn't know how much space
+        // is needed until after compiling it
+        Label runCode = new Label();
+        Label setupFloatArrayLocal = new Label();
+        Label end = new Label();
+
+        // Jump to set up the float array local
+        evaluateMethod.visitJumpInsn(Opcodes.GOTO, setupFloatArrayLocal);
+        evaluateMethod.visitLabel(runCode);
+        // Run code, then jump to end (or return the scalar right away)
+        if (expr.returnCount() == 1 && !returnScalar) {
+            evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
+            BytecodeUtil.constInt(evaluateMethod, 0);
+        }
+        // The output goes first in the float[], then the vector temp variables, then scratch space
+        JvmCompilationContext ctx = new JvmCompilationContext(arrayVariableIndex, firstUnusedLocal, expr.returnCount() + parsed.maxVectorTempSlots(), expr.returnCount(), unrollThreshold);
+        int outputArrayIndex = 0;
+        expr.compileToJvmBytecode(evaluateMethod, outputArrayIndex, ctx);
+        if (returnScalar) {
+            evaluateMethod.visitInsn(Opcodes.FRETURN);
+        } else {
+            if (expr.returnCount() == 1) evaluateMethod.visitInsn(Opcodes.FASTORE);
+            evaluateMethod.visitJumpInsn(Opcodes.GOTO, end);
+        }
+        // Set up float array local at index 1.
+        // A scalar returned straight off the stack might never touch it, in which case it isn't worth fetching.
+        evaluateMethod.visitLabel(setupFloatArrayLocal);
+        if (!returnScalar || evaluateMethod.arrayUsed) {
+            evaluateMethod.visitVarInsn(Opcodes.ALOAD, 0);
+            evaluateMethod.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+            BytecodeUtil.constInt(evaluateMethod, ctx.getMaxArraySlots());
+            evaluateMethod.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MolangInstance.class), "getTempStack", "(I)[F", false);
+        } else {
+            evaluateMethod.visitInsn(Opcodes.ACONST_NULL);
+        }
+        evaluateMethod.visitVarInsn(Opcodes.ASTORE, arrayVariableIndex);
+        // Run the code now
+        evaluateMethod.visitJumpInsn(Opcodes.GOTO, runCode);
+        // End
+        if (!returnScalar) {
+            evaluateMethod.visitLabel(end);
+            // Return the float array
+            evaluateMethod.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
+            evaluateMethod.visitInsn(Opcodes.ARETURN);
+        }
+        evaluateMethod.visitMaxs(0, 0);
+        evaluateMethod.visitEnd();
+
+        return ctx.getMaxArraySlots();
+    }
+
+    // Emit "void evaluateBatchImpl(float[] args, int rows, float[] out)", with the expr's code inside the loop over rows.
+    // Arg i of row r is args[i * rows + r], and row r's results go in out from r * returnCount, like CompiledMolang.evaluateBatch().
+    // Returns how many tempStack slots the method requires.
+    public static int generateBatchEvaluateMethod(ClassVisitor classWriter, ParsedMolang parsed, int unrollThreshold) {
+        MolangExpr expr = parsed.expr();
+        int argCount = parsed.argCount();
+        int returnCount = expr.returnCount();
+        // Same locals as evaluateImpl: the expr expects its args in locals 1 to argCount, then the float[].
+        // The parameters start out in those locals too, so they're moved into locals of their own before the loop.
+        int arrayVariableIndex = argCount + 1;
+        int firstUnusedLocal = arrayVariableIndex + 1 + parsed.maxLocalVariables();
+        JvmCompilationContext ctx = new JvmCompilationContext(arrayVariableIndex, firstUnusedLocal, returnCount + parsed.maxVectorTempSlots(), returnCount, unrollThreshold);
+        int argsLocal = ctx.reserveLocals(1);
+        int rowsLocal = ctx.reserveLocals(1);
+        int outLocal = ctx.reserveLocals(1);
+        int rowLocal = ctx.reserveLocals(1);
+
+        MethodVisitor method = classWriter.visitMethod(Opcodes.ACC_PROTECTED, "evaluateBatchImpl", "([FI[F)V", null, null);
+        method.visitCode();
+        // Like in generateEvaluateMethod, the float[] is fetched after the code is generated, once the space it needs is known
+        Label setup = new Label();
+        Label loop = new Label();
+        Label end = new Label();
+        method.visitJumpInsn(Opcodes.GOTO, setup);
+
+        // Loop while row < rows
+        method.visitLabel(loop);
+        method.visitVarInsn(Opcodes.ILOAD, rowLocal);
+        method.visitVarInsn(Opcodes.ILOAD, rowsLocal);
+        method.visitJumpInsn(Opcodes.IF_ICMPGE, end);
+        // Load this row's args into their locals
+        for (int arg = 0; arg < argCount; arg++) {
+            method.visitVarInsn(Opcodes.ALOAD, argsLocal);
+            method.visitVarInsn(Opcodes.ILOAD, rowLocal);
+            if (arg > 0) {
+                method.visitVarInsn(Opcodes.ILOAD, rowsLocal);
+                BytecodeUtil.constInt(method, arg);
+                method.visitInsn(Opcodes.IMUL);
+                method.visitInsn(Opcodes.IADD);
+            }
+            method.visitInsn(Opcodes.FALOAD);
+            method.visitVarInsn(Opcodes.FSTORE, 1 + arg);
+        }
+        if (returnCount == 1) {
+            // Store the scalar straight into out[row]
+            method.visitVarInsn(Opcodes.ALOAD, outLocal);
+            method.visitVarInsn(Opcodes.ILOAD, rowLocal);
+            expr.compileToJvmBytecode(method, 0, ctx);
+            method.visitInsn(Opcodes.FASTORE);
+        } else {
+            // Vectors are output at the start of the float[], as usual, then copied to out[row * returnCount]
+            expr.compileToJvmBytecode(method, 0, ctx);
+            method.visitVarInsn(Opcodes.ALOAD, arrayVariableIndex);
+            BytecodeUtil.constInt(method, 0);
+            method.visitVarInsn(Opcodes.ALOAD, outLocal);
+            method.visitVarInsn(Opcodes.ILOAD, rowLocal);
+            BytecodeUtil.constInt(method, returnCount);
+            method.visitInsn(Opcodes.IMUL);
+            BytecodeUtil.constInt(method, returnCount);
+            method.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/System", "arraycopy", "(Ljava/lang/Object;ILjava/lang/Object;II)V", false);
+        }
+        method.visitIincInsn(rowLocal, 1);
+        method.visitJumpInsn(Opcodes.GOTO, loop);
+
+        // Move the parameters out of the way, then fetch the float[] once for the whole batch.
+        // They all go on the stack first, since their new locals may overlap the old ones.
+        method.visitLabel(setup);
+        method.visitVarInsn(Opcodes.ALOAD, 1);
+        method.visitVarInsn(Opcodes.ILOAD, 2);
+        method.visitVarInsn(Opcodes.ALOAD, 3);
+        method.visitVarInsn(Opcodes.ASTORE, outLocal);
+        method.visitVarInsn(Opcodes.ISTORE, rowsLocal);
+        method.visitVarInsn(Opcodes.ASTORE, argsLocal);
+        BytecodeUtil.constInt(method, 0);
+        method.visitVarInsn(Opcodes.ISTORE, rowLocal);
+        method.visitVarInsn(Opcodes.ALOAD, 0);
+        method.visitFieldInsn(Opcodes.GETFIELD, Type.getInternalName(CompiledMolang.class), "instance", Type.getDescriptor(MolangInstance.class));
+        BytecodeUtil.constInt(method, ctx.getMaxArraySlots());
+        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, Type.getInternalName(MolangInstance.class), "getTempStack", "(I)[F", false);
+        method.visitVarInsn(Opcodes.ASTORE, arrayVariableIndex);
+        method.visitJumpInsn(Opcodes.GOTO, loop);
+
+        method.visitLabel(end);
+        method.visitInsn(Opcodes.RETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+
+        return ctx.getMaxArraySlots();
+    }
+
+    // Passes everything through, noting whether the code ever uses the float[] local
+    private static final class ArrayUseTracker extends MethodVisitor {
+        private final int arrayVariableIndex;
+        boolean arrayUsed;
+
+        ArrayUseTracker(MethodVisitor visitor, int arrayVariableIndex) {
+            super(Opcodes.ASM9, visitor);
+            this.arrayVariableIndex = arrayVariableIndex;
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int varIndex) {
+            if (varIndex == arrayVariableIndex && opcode == Opcodes.ALOAD) arrayUsed = true;
+            super.visitVarInsn(opcode, varIndex);
+        }
+    }
+
+}
@@ -1,5 +1,6 @@
 package org.figuramc.figura_molang.compile.jvm;
 
+import org.figuramc.figura_molang.MolangCompilerOptions;
 import org.objectweb.asm.Label;
 
 import java.util.Stack;
@@ -11,6 +12,10 @@ public class JvmCompilationContext {
 
     // Index of the float[] variable used as temp stack space
     public final int arrayVariableIndex;
+    // Where the region of the float[] holding vector temp variables starts
+    public final int vectorTempOffset;
+    // Loops over vectors of at most this many elements are unrolled
+    public final int unrollThreshold;
 
     private final Stack<Integer> nextLocal = new Stack<>();
     private final Stack<Integer> nextArraySlot = new Stack<>();
@@ -20,8 +25,14 @@ public class JvmCompilationContext {
 
     private int maxLocals, maxArraySlots;
 
-    public JvmCompilationContext(int arrayVariableIndex, int firstUnusedLocal, int firstUnusedArraySlot) {
+    public JvmCompilationContext(int arrayVariableIndex, int firstUnusedLocal, int firstUnusedArraySlot, int vectorTempOffset) {
+        this(arrayVariableIndex, firstUnusedLocal, firstUnusedArraySlot, vectorTempOffset, MolangCompilerOptions.DEFAULT_UNROLL_THRESHOLD);
+    }
+
+    public JvmCompilationContext(int arrayVariableIndex, int firstUnusedLocal, int firstUnusedArraySlot, int vectorTempOffset, int unrollThreshold) {
         this.arrayVariableIndex = arrayVariableIndex;
+        this.vectorTempOffset = vectorTempOffset;
+        this.unrollThreshold = unrollThreshold;
         this.nextLocal.push(firstUnusedLocal);
         this.nextArraySlot.push(firstUnusedArraySlot);
         this.returnLabel.push(null);
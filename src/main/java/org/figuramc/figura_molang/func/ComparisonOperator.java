@@ -6,6 +6,7 @@ import org.figuramc.figura_molang.ast.vars.TempVariable;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -16,14 +17,15 @@ import java.util.function.BiConsumer;
 // Used for operations like ==, <=, etc, which always yield a scalar.
 // Two values are on the stack in the tester.
 // If the comparison fails, and we should yield false, jump to the label.
-public record ComparisonOperator(String name, BiConsumer<MethodVisitor, Label> tester) implements MolangFunction {
+// The test does the same comparison in plain Java, for the interpreter.
+public record ComparisonOperator(String name, BiConsumer<MethodVisitor, Label> tester, FloatOps.Test test) implements MolangFunction {
 
-    public static final ComparisonOperator EQ_OP = new ComparisonOperator("a == b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFNE, fail); });
-    public static final ComparisonOperator NE_OP = new ComparisonOperator("a != b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFEQ, fail); });
-    public static final ComparisonOperator LT_OP = new ComparisonOperator("a < b", (v, fail) -> { v.visitInsn(Opcodes.FCMPG); v.visitJumpInsn(Opcodes.IFGE, fail); });
-    public static final ComparisonOperator LE_OP = new ComparisonOperator("a <= b", (v, fail) -> { v.visitInsn(Opcodes.FCMPG); v.visitJumpInsn(Opcodes.IFGT, fail); });
-    public static final ComparisonOperator GT_OP = new ComparisonOperator("a > b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFLE, fail); });
-    public static final ComparisonOperator GE_OP = new ComparisonOperator("a >= b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFLT, fail); });
+    public static final ComparisonOperator EQ_OP = new ComparisonOperator("a == b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFNE, fail); }, (a, b) -> a == b);
+    public static final ComparisonOperator NE_OP = new ComparisonOperator("a != b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFEQ, fail); }, (a, b) -> a != b);
+    public static final ComparisonOperator LT_OP = new ComparisonOperator("a < b", (v, fail) -> { v.visitInsn(Opcodes.FCMPG); v.visitJumpInsn(Opcodes.IFGE, fail); }, (a, b) -> a < b);
+    public static final ComparisonOperator LE_OP = new ComparisonOperator("a <= b", (v, fail) -> { v.visitInsn(Opcodes.FCMPG); v.visitJumpInsn(Opcodes.IFGT, fail); }, (a, b) -> a <= b);
+    public static final ComparisonOperator GT_OP = new ComparisonOperator("a > b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFLE, fail); }, (a, b) -> a > b);
+    public static final ComparisonOperator GE_OP = new ComparisonOperator("a >= b", (v, fail) -> { v.visitInsn(Opcodes.FCMPL); v.visitJumpInsn(Opcodes.IFLT, fail); }, (a, b) -> a >= b);
 
     @Override
     public void checkArgs(List<MolangExpr> args, String source, int funcNameStart, int funcNameEnd) throws MolangCompileException {
@@ -69,13 +71,11 @@ public record ComparisonOperator(String name, BiConsumer<MethodVisitor, Label> t
         // For loop
         int counterLocal = context.reserveLocals(1);
         // Combine vec values
-        BytecodeUtil.repeatNTimes(visitor, a.returnCount(), counterLocal, v -> {
+        BytecodeUtil.repeatNTimes(visitor, a.returnCount(), context.unrollThreshold, counterLocal, (v, i) -> {
             // Load A
             if (a.isVector()) {
                 v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp]
-                BytecodeUtil.constInt(v, aIdx); // [temp, aIdx]
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [temp, aIdx, counter]
-                v.visitInsn(Opcodes.IADD); // [temp, aIdx + counter]
+                BytecodeUtil.loopIndex(v, aIdx, i, counterLocal); // [temp, aIdx + i]
                 v.visitInsn(Opcodes.FALOAD); // [a]
             } else {
                 v.visitVarInsn(Opcodes.FLOAD, aIdx); // [a]
@@ -84,9 +84,7 @@ public record ComparisonOperator(String name, BiConsumer<MethodVisitor, Label> t
             if (b.isVector()) {
                 // Load elem of B
                 v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [a, temp]
-                BytecodeUtil.constInt(v, bIdx); // [a, temp, bIdx]
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [a, temp, bIdx, counter]
-                v.visitInsn(Opcodes.IADD); // [a, temp, bIdx + counter]
+                BytecodeUtil.loopIndex(v, bIdx, i, counterLocal); // [a, temp, bIdx + i]
                 v.visitInsn(Opcodes.FALOAD); // [a, b]
             } else {
                 v.visitVarInsn(Opcodes.FLOAD, bIdx); // [a, b]
@@ -105,7 +103,8 @@ public record ComparisonOperator(String name, BiConsumer<MethodVisitor, Label> t
     }
 
     private static int store(MolangExpr expr, MethodVisitor visitor, JvmCompilationContext context) {
-        if (expr instanceof TempVariable temp) {
+        // Vectors in locals are copied into the float[] like anything else
+        if (expr instanceof TempVariable temp && !(temp.isVector() && temp.inLocals)) {
             return temp.getRealLocation(context);
         } else if (!expr.isVector()) {
             int idx = context.reserveLocals(1);
@@ -118,4 +117,33 @@ public record ComparisonOperator(String name, BiConsumer<MethodVisitor, Label> t
             return idx;
         }
     }
+
+    @Override
+    public float interpret(List<MolangExpr> args, InterpreterFrame frame, float[] out, int offset) {
+        MolangExpr a = args.get(0);
+        MolangExpr b = args.get(1);
+        // Evaluate both sides fully before comparing, like the compiled code
+        int size = Math.max(a.returnCount(), b.returnCount());
+        float[] aValues = new float[a.returnCount()];
+        float[] bValues = new float[b.returnCount()];
+        if (a.isVector()) a.interpret(frame, aValues, 0);
+        else aValues[0] = a.interpret(frame, out, offset);
+        if (b.isVector()) b.interpret(frame, bValues, 0);
+        else bValues[0] = b.interpret(frame, out, offset);
+        for (int i = 0; i < size; i++) {
+            if (!test.test(aValues[a.isVector() ? i : 0], bValues[b.isVector() ? i : 0]))
+                return 0;
+        }
+        return 1;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
 }
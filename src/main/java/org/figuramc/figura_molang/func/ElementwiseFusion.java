@@ -0,0 +1,112 @@
+package org.figuramc.figura_molang.func;
+
+import org.figuramc.figura_molang.ast.FunctionCall;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.vars.TempVariable;
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes vector args one element at a time, for functions which loop over them.
+ * Element-wise FloatFunction calls with a vector result are "fused": rather than being stored in the float[] and
+ * read back, their elements are computed inside the loop of whatever consumes them. Like in math.sum(a * b + c).
+ * Everything else in the tree (the leaves) is evaluated once, in order, before the loop.
+ *
+ * Usage: prepare() before the loop, then compileElements() with the same exprs inside it.
+ * The loop may be unrolled (see BytecodeUtil.repeatNTimes), in which case elements are read at constant indices.
+ */
+final class ElementwiseFusion {
+
+    private final List<MolangExpr> leaves = new ArrayList<>();
+    private final List<Integer> locations = new ArrayList<>(); // Array slot for vector leaves, local for scalar ones
+    private final List<Boolean> inLocals = new ArrayList<>(); // Whether each element of a vector leaf is its own local
+    private int nextLeaf;
+
+    private ElementwiseFusion() {}
+
+    static boolean isFused(MolangExpr expr) {
+        return expr.isVector() && expr instanceof FunctionCall call && call.func instanceof FloatFunction;
+    }
+
+    // Evaluate the leaves under these exprs, in evaluation order. Reserves space in the current context.
+    static ElementwiseFusion prepare(List<MolangExpr> exprs, MethodVisitor visitor, JvmCompilationContext context) {
+        ElementwiseFusion fusion = new ElementwiseFusion();
+        for (MolangExpr expr : exprs) fusion.collectLeaves(expr);
+        // Temp variables can be read in place, unless something evaluated after them might assign to them
+        boolean readTempsInPlace = fusion.leaves.stream().allMatch(leaf -> leaf instanceof TempVariable || leaf.isPure());
+        for (MolangExpr leaf : fusion.leaves) {
+            // Vectors in locals can only be read at constant indices, so only when the loop is unrolled
+            if (leaf instanceof TempVariable tempVar && readTempsInPlace && !(tempVar.isVector() && tempVar.inLocals && tempVar.size > context.unrollThreshold)) {
+                // Already stored somewhere, use that location
+                fusion.locations.add(tempVar.getRealLocation(context));
+                fusion.inLocals.add(tempVar.isVector() && tempVar.inLocals);
+            } else if (leaf.isVector()) {
+                // Compile it to scratch space
+                int loc = context.reserveArraySlots(leaf.returnCount());
+                fusion.locations.add(loc);
+                fusion.inLocals.add(false);
+                leaf.compileToJvmBytecode(visitor, loc, context);
+            } else {
+                // Compile it to push to stack, then store in a local variable
+                int loc = context.reserveLocals(1);
+                fusion.locations.add(loc);
+                fusion.inLocals.add(false);
+                leaf.compileToJvmBytecode(visitor, -1, context);
+                visitor.visitVarInsn(Opcodes.FSTORE, loc);
+            }
+        }
+        return fusion;
+    }
+
+    private void collectLeaves(MolangExpr expr) {
+        if (isFused(expr)) ((FunctionCall) expr).args.forEach(this::collectLeaves);
+        else leaves.add(expr);
+    }
+
+    // Push the element at the given loop index of each expr, which must be the exprs given to prepare().
+    // Scalars are the same for every element. If toDouble, each is converted to a double.
+    void compileElements(MethodVisitor visitor, List<MolangExpr> exprs, boolean toDouble, int index, int counterLocal, JvmCompilationContext context) {
+        nextLeaf = 0;
+        for (MolangExpr expr : exprs) {
+            compileElement(visitor, expr, index, counterLocal, context);
+            if (toDouble) visitor.visitInsn(Opcodes.F2D);
+        }
+    }
+
+    private void compileElement(MethodVisitor visitor, MolangExpr expr, int index, int counterLocal, JvmCompilationContext context) {
+        if (isFused(expr)) {
+            FunctionCall call = (FunctionCall) expr;
+            FloatFunction func = (FloatFunction) call.func;
+            for (MolangExpr arg : call.args) {
+                compileElement(visitor, arg, index, counterLocal, context);
+                if (func.usesDouble()) visitor.visitInsn(Opcodes.F2D);
+            }
+            func.floatFunc().accept(visitor);
+            if (func.usesDouble()) visitor.visitInsn(Opcodes.D2F);
+            return;
+        }
+        MolangExpr leaf = leaves.get(nextLeaf);
+        int location = locations.get(nextLeaf);
+        boolean leafInLocals = inLocals.get(nextLeaf);
+        nextLeaf++;
+        if (leafInLocals) {
+            // If it's a vector in locals, load the i'th one
+            if (index == BytecodeUtil.UNKNOWN_INDEX) throw new IllegalStateException("Vector in locals read inside a loop");
+            visitor.visitVarInsn(Opcodes.FLOAD, location + index);
+        } else if (leaf.isVector()) {
+            // If it's a vector, load the i'th term from its location:
+            visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+            BytecodeUtil.loopIndex(visitor, location, index, counterLocal);
+            visitor.visitInsn(Opcodes.FALOAD);
+        } else {
+            // If it's a scalar, load the location'th local variable
+            visitor.visitVarInsn(Opcodes.FLOAD, location);
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+package org.figuramc.figura_molang.func;
+
+/**
+ * Float-only versions of the transcendental math functions, for MolangCompilerOptions.fastMath.
+ * java.lang.Math works in double, and its exact results take more work than a float result needs.
+ * These use range reduction and short polynomials in float arithmetic instead, and are deterministic on every JVM.
+ *
+ * Trig functions take and return degrees, like Molang, so there's no separate conversion step.
+ * Error bounds, measured against the correctly rounded result (ulp = unit in the last place of the float result):
+ * - sinDeg, cosDeg: at most 1e-7 absolute error. Exact at multiples of 90 degrees.
+ * - exp: at most 2 ulp.
+ * - ln: at most 1 ulp.
+ * - pow: for a positive finite base, relative error at most (2 + |b * ln(a)|) * 2^-23, since the error of b * ln(a) is
+ *   scaled by exp. Other bases go through Math.pow.
+ * - atanDeg: at most 1e-5 degrees of absolute error.
+ * NaN and infinite inputs give the same results as java.lang.Math. Results which are zero may have the other sign.
+ */
+public final class FastFloatMath {
+
+    private FastFloatMath() {}
+
+    private static final float DEG_TO_RAD = (float) (Math.PI / 180);
+    private static final float RAD_TO_DEG = (float) (180 / Math.PI);
+
+    public static float sinDeg(float degrees) {
+        return sinQuadrant(degrees, 0);
+    }
+
+    public static float cosDeg(float degrees) {
+        return sinQuadrant(degrees, 1);
+    }
+
+    // sin(degrees + quadrantOffset * 90)
+    private static float sinQuadrant(float degrees, int quadrantOffset) {
+        // The remainder is exact, and so is removing the nearest multiple of 90 after it, leaving [-45, 45].
+        // Only then does anything round.
+        // Infinities give NaN here, which passes through everything after.
+        float r = degrees % 360f;
+        int quadrant = Math.round(r * (1f / 90f));
+        float t = (r - quadrant * 90f) * DEG_TO_RAD;
+        float t2 = t * t;
+        // Taylor series; the first omitted term is below 2e-9 over [-pi/4, pi/4]
+        return switch ((quadrant + quadrantOffset) & 3) {
+            case 0 -> sinPoly(t, t2);
+            case 1 -> cosPoly(t2);
+            case 2 -> -sinPoly(t, t2);
+            default -> -cosPoly(t2);
+        };
+    }
+
+    private static float sinPoly(float t, float t2) {
+        return t + t * t2 * (-1f / 6 + t2 * (1f / 120 + t2 * (-1f / 5040 + t2 * (1f / 362880))));
+    }
+
+    private static float cosPoly(float t2) {
+        return 1f + t2 * (-1f / 2 + t2 * (1f / 24 + t2 * (-1f / 720 + t2 * (1f / 40320 + t2 * (-1f / 3628800)))));
+    }
+
+    // ln(2) split in two, so multiples of the first part by small integers are exact
+    private static final float LN2_HI = 6.9313812256e-01f;
+    private static final float LN2_LO = 9.0580006145e-06f;
+    private static final float LOG2_E = (float) (1 / Math.log(2));
+    private static final float EXP_OVERFLOW = 88.72284f; // Above this, e^x is infinite in float
+    private static final float EXP_UNDERFLOW = -103.97208f; // Below this, e^x rounds to 0 in float
+
+    public static float exp(float x) {
+        if (x > EXP_OVERFLOW) return Float.POSITIVE_INFINITY;
+        if (x < EXP_UNDERFLOW) return 0f;
+        // e^x = 2^n * e^r, with |r| <= ln(2) / 2
+        int n = Math.round(x * LOG2_E);
+        float r = (x - n * LN2_HI) - n * LN2_LO;
+        // Taylor series; the first omitted term is below 6e-9 over that range
+        float p = 1f + r * (1f + r * (1f / 2 + r * (1f / 6 + r * (1f / 24 + r * (1f / 120 + r * (1f / 720 + r * (1f / 5040)))))));
+        // Build 2^n directly when it's a normal float, which it almost always is
+        if (n >= -126 && n <= 127) return p * Float.intBitsToFloat((n + 127) << 23);
+        return Math.scalb(p, n);
+    }
+
+    private static final float SQRT_2 = (float) Math.sqrt(2);
+
+    public static float ln(float x) {
+        if (!(x > 0)) return x == 0 ? Float.NEGATIVE_INFINITY : Float.NaN;
+        if (x == Float.POSITIVE_INFINITY) return x;
+        int exponent = 0;
+        if (x < Float.MIN_NORMAL) {
+            // Normalize subnormals
+            x *= 0x1p25f;
+            exponent = -25;
+        }
+        int bits = Float.floatToRawIntBits(x);
+        exponent += (bits >>> 23) - 127;
+        // x = 2^exponent * m, with m in [sqrt(2) / 2, sqrt(2)]
+        float m = Float.intBitsToFloat((bits & 0x007FFFFF) | 0x3F800000);
+        if (m > SQRT_2) {
+            m *= 0.5f;
+            exponent++;
+        }
+        // ln(m) = ln(1 + f) = 2 atanh(s), arranged like fdlibm so the large terms are added last
+        float f = m - 1f;
+        float s = f / (2f + f);
+        float s2 = s * s;
+        float series = s2 * (2f / 3 + s2 * (2f / 5 + s2 * (2f / 7 + s2 * (2f / 9))));
+        float halfF2 = 0.5f * f * f;
+        return exponent * LN2_HI - ((halfF2 - (s * (halfF2 + series) + exponent * LN2_LO)) - f);
+    }
+
+    public static float pow(float a, float b) {
+        // Signs, zeros, infinities and NaN all have special cases; leave those to Math
+        if (!(a > 0) || a == Float.POSITIVE_INFINITY || !Float.isFinite(b)) return (float) Math.pow(a, b);
+        return exp(b * ln(a));
+    }
+
+    private static final float TAN_15_DEG = (float) Math.tan(Math.PI / 12);
+    private static final float SQRT_3 = (float) Math.sqrt(3);
+
+    public static float atanDeg(float x) {
+        float ax = Math.abs(x);
+        // atan(x) = 90 - atan(1 / x)
+        boolean inverted = ax > 1f;
+        if (inverted) ax = 1f / ax;
+        // atan(x) = 30 + atan((x * sqrt(3) - 1) / (x + sqrt(3))), leaving |ax| <= tan(15)
+        boolean shifted = ax > TAN_15_DEG;
+        if (shifted) ax = (ax * SQRT_3 - 1f) / (ax + SQRT_3);
+        // Taylor series; the first omitted term is below 3e-9 over that range
+        float a2 = ax * ax;
+        float degrees = (ax + ax * a2 * (-1f / 3 + a2 * (1f / 5 + a2 * (-1f / 7 + a2 * (1f / 9 + a2 * (-1f / 11)))))) * RAD_TO_DEG;
+        if (shifted) degrees += 30f;
+        if (inverted) degrees = 90f - degrees;
+        return Math.copySign(degrees, x);
+    }
+
+}
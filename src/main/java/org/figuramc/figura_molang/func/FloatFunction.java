@@ -1,15 +1,14 @@
 package org.figuramc.figura_molang.func;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
-import org.figuramc.figura_molang.ast.vars.TempVariable;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
@@ -18,80 +17,164 @@ import java.util.function.Consumer;
  * Vector args are processed element-wise.
  * Float args are splatted to match vector args.
  * All vector args are expected to be the same size.
+ * The evaluator does the same thing as floatFunc in plain Java, for the interpreter.
  */
-public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> floatFunc, boolean usesDouble) implements MolangFunction {
+public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> floatFunc, boolean usesDouble, FloatOps.Nary evaluator) implements MolangFunction {
 
     // Basic operators
-    public static final FloatFunction ADD_OP = binop("a + b", Opcodes.FADD);
-    public static final FloatFunction SUB_OP = binop("a - b", Opcodes.FSUB);
-    public static final FloatFunction MUL_OP = binop("a * b", Opcodes.FMUL);
-    public static final FloatFunction DIV_OP = binop("a / b", Opcodes.FDIV);
-    public static final FloatFunction MOD_OP = binop("a % b", Opcodes.FREM);
-    public static final FloatFunction NEG_OP = unop("-a", Opcodes.FNEG);
+    public static final FloatFunction ADD_OP = binop("a + b", Opcodes.FADD, a -> a[0] + a[1]);
+    public static final FloatFunction SUB_OP = binop("a - b", Opcodes.FSUB, a -> a[0] - a[1]);
+    public static final FloatFunction MUL_OP = binop("a * b", Opcodes.FMUL, a -> a[0] * a[1]);
+    public static final FloatFunction DIV_OP = binop("a / b", Opcodes.FDIV, a -> a[0] / a[1]);
+    public static final FloatFunction MOD_OP = binop("a % b", Opcodes.FREM, a -> a[0] % a[1]);
+    public static final FloatFunction NEG_OP = unop("-a", Opcodes.FNEG, a -> -a[0]);
     // ! operator
 
     // Element-wise comparison operators
-    public static final FloatFunction EQ = new FloatFunction("math.eq", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFNE), false);
-    public static final FloatFunction NE = new FloatFunction("math.ne", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFEQ), false);
-    public static final FloatFunction LT = new FloatFunction("math.lt", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFGE), false);
-    public static final FloatFunction LE = new FloatFunction("math.le", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFGT), false);
-    public static final FloatFunction GT = new FloatFunction("math.gt", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFLE), false);
-    public static final FloatFunction GE = new FloatFunction("math.ge", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFLT), false);
+    public static final FloatFunction EQ = new FloatFunction("math.eq", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFNE), false, a -> a[0] == a[1] ? 1 : 0);
+    public static final FloatFunction NE = new FloatFunction("math.ne", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFEQ), false, a -> a[0] != a[1] ? 1 : 0);
+    public static final FloatFunction LT = new FloatFunction("math.lt", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFGE), false, a -> a[0] < a[1] ? 1 : 0);
+    public static final FloatFunction LE = new FloatFunction("math.le", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFGT), false, a -> a[0] <= a[1] ? 1 : 0);
+    public static final FloatFunction GT = new FloatFunction("math.gt", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFLE), false, a -> a[0] > a[1] ? 1 : 0);
+    public static final FloatFunction GE = new FloatFunction("math.ge", 2, v -> BytecodeUtil.compareFloats(v, Opcodes.IFLT), false, a -> a[0] >= a[1] ? 1 : 0);
 
     // Math functions
-    public static final FloatFunction ABS = math("math.abs", 1, "abs", false);
-    public static final FloatFunction ACOS = math("math.acos", 1, "acos", true, false, true);
-    public static final FloatFunction ASIN = math("math.asin", 1, "asin", true, false, true);
-    public static final FloatFunction ATAN = math("math.atan", 1, "atan", true, false, true);
-    public static final FloatFunction ATAN2 = math("math.atan2", 2, "atan2", true, false, true);
-    public static final FloatFunction CEIL = math("math.ceil", 1, "ceil", true);
-    public static final FloatFunction CLAMP = math("math.clamp", 3, "clamp", false);
-    public static final FloatFunction COS = math("math.cos", 1, "cos", true, true, false);
+    public static final FloatFunction ABS = math("math.abs", 1, "abs", false, a -> Math.abs(a[0]));
+    public static final FloatFunction ACOS = math("math.acos", 1, "acos", true, false, true, a -> (float) Math.toDegrees(Math.acos(a[0])));
+    public static final FloatFunction ASIN = math("math.asin", 1, "asin", true, false, true, a -> (float) Math.toDegrees(Math.asin(a[0])));
+    public static final FloatFunction ATAN = math("math.atan", 1, "atan", true, false, true, a -> (float) Math.toDegrees(Math.atan(a[0])));
+    public static final FloatFunction ATAN2 = math("math.atan2", 2, "atan2", true, false, true, a -> (float) Math.toDegrees(Math.atan2(a[0], a[1])));
+    public static final FloatFunction CEIL = math("math.ceil", 1, "ceil", true, a -> (float) Math.ceil(a[0]));
+    public static final FloatFunction CLAMP = math("math.clamp", 3, "clamp", false, a -> Math.clamp(a[0], a[1], a[2]));
+    public static final FloatFunction COS = math("math.cos", 1, "cos", true, true, false, a -> (float) Math.cos(Math.toRadians(a[0])));
     // Die roll
     // Die roll integer
-    public static final FloatFunction EXP = math("math.exp", 1, "exp", true);
-    public static final FloatFunction FLOOR = math("math.floor", 1, "floor", true);
+    public static final FloatFunction EXP = math("math.exp", 1, "exp", true, a -> (float) Math.exp(a[0]));
+    public static final FloatFunction FLOOR = math("math.floor", 1, "floor", true, a -> (float) Math.floor(a[0]));
     // Hermite blend
     public static float lerp(float a, float b, float delta) { return Math.fma(delta, b - a, a); }
-    public static final FloatFunction LERP = custom("math.lerp", 3, "lerp");
+    public static final FloatFunction LERP = custom("math.lerp", 3, "lerp", a -> lerp(a[0], a[1], a[2]));
     // Lerp rotate
-    public static final FloatFunction LN = math("math.ln", 1, "log", true);
-    public static final FloatFunction MAX = math("math.max", 2, "max", false);
+    public static final FloatFunction LN = math("math.ln", 1, "log", true, a -> (float) Math.log(a[0]));
+    public static final FloatFunction MAX = math("math.max", 2, "max", false, a -> Math.max(a[0], a[1]));
     // Min Angle
-    public static final FloatFunction MIN = math("math.min", 2, "min", false);
-    public static final FloatFunction MOD = new FloatFunction("math.mod", 2, v -> v.visitInsn(Opcodes.FREM), false);
-    public static final FloatFunction POW = math("math.pow", 2, "pow", true);
+    public static final FloatFunction MIN = math("math.min", 2, "min", false, a -> Math.min(a[0], a[1]));
+    public static final FloatFunction MOD = new FloatFunction("math.mod", 2, v -> v.visitInsn(Opcodes.FREM), false, a -> a[0] % a[1]);
+    public static final FloatFunction POW = math("math.pow", 2, "pow", true, a -> (float) Math.pow(a[0], a[1]));
     // Random
     // Random integer
     public static final FloatFunction ROUND = new FloatFunction("math.round", 1, v -> {
-        v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "round", "(F)F", false);
+        v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "round", "(F)I", false);
         v.visitInsn(Opcodes.I2F);
-    }, false);
-    public static final FloatFunction SIN = math("math.sin", 1, "sin", true, true, false);
-    public static final FloatFunction SQRT = math("math.sqrt", 1, "sqrt", true);
+    }, false, a -> Math.round(a[0]));
+    public static final FloatFunction SIN = math("math.sin", 1, "sin", true, true, false, a -> (float) Math.sin(Math.toRadians(a[0])));
+    public static final FloatFunction SQRT = math("math.sqrt", 1, "sqrt", true, a -> (float) Math.sqrt(a[0]));
     public static final FloatFunction TRUNC = new FloatFunction("math.trunc", 1, v -> {
         v.visitInsn(Opcodes.F2I);
         v.visitInsn(Opcodes.I2F);
-    }, false);
+    }, false, a -> (int) a[0]);
+
+    // Cheaper forms of the above, for when an arg is a known constant. Only introduced by StrengthReduction.
+    // a % b, where b is a power of two with magnitude at least 1
+    public static float remPowerOfTwo(float a, float b) {
+        // a / b is exact for such b, and folds to a multiply once this is inlined with a constant b
+        float quotient = a * (1f / b);
+        // Truncate; anything this big is already an integer (or infinite or NaN)
+        float truncated = Math.abs(quotient) < 0x1p23f ? (int) quotient : quotient;
+        // Exact, and the remainder takes the sign of a, like FREM. Infinite a gives NaN.
+        return Math.copySign(a - b * truncated, a);
+    }
+    public static final FloatFunction REM_POWER_OF_TWO = custom("math.mod$pow2", 2, "remPowerOfTwo", a -> remPowerOfTwo(a[0], a[1]));
+    // math.pow(a, 0.5). Math.pow gives +0 for -0, and +Infinity for -Infinity, where sqrt doesn't.
+    public static float sqrtPow(float a) {
+        return a == Float.NEGATIVE_INFINITY ? Float.POSITIVE_INFINITY : (float) Math.sqrt(a + 0f);
+    }
+    public static final FloatFunction SQRT_POW = custom("math.pow$sqrt", 1, "sqrtPow", a -> sqrtPow(a[0]));
+    // math.pow(a, n) for small integer n, as a chain of multiplies in double.
+    // Up to EXACT_INT_POW, that rounds at most once, and matches math.pow exactly after the cast to float.
+    // Beyond it, the chain rounds several times, which may be an ulp away from Math.pow, so those are only for fast math.
+    public static final int EXACT_INT_POW = 2;
+    public static final int MAX_INT_POW = 4;
+    private static final FloatFunction[] INT_POWS = new FloatFunction[MAX_INT_POW * 2 + 1];
+    public static FloatFunction intPow(int exponent) {
+        if (Math.abs(exponent) > MAX_INT_POW) throw new IllegalArgumentException("Exponent " + exponent + " too large for intPow");
+        return INT_POWS[exponent + MAX_INT_POW];
+    }
+    static {
+        for (int n = -MAX_INT_POW; n <= MAX_INT_POW; n++) {
+            int exponent = n;
+            INT_POWS[n + MAX_INT_POW] = new FloatFunction("math.pow$" + exponent, 1, v -> {
+                int magnitude = Math.abs(exponent);
+                if (magnitude == 0) {
+                    v.visitInsn(Opcodes.POP2);
+                    v.visitInsn(Opcodes.DCONST_1);
+                    return;
+                }
+                // [x] -> [x^magnitude], squaring where possible
+                if (magnitude == 3) v.visitInsn(Opcodes.DUP2);
+                if (magnitude >= 2) {
+                    v.visitInsn(Opcodes.DUP2);
+                    v.visitInsn(Opcodes.DMUL);
+                }
+                if (magnitude == 3) v.visitInsn(Opcodes.DMUL);
+                if (magnitude == 4) {
+                    v.visitInsn(Opcodes.DUP2);
+                    v.visitInsn(Opcodes.DMUL);
+                }
+                if (exponent < 0) {
+                    // [p] -> [1 / p]
+                    v.visitInsn(Opcodes.DCONST_1);
+                    v.visitInsn(Opcodes.DUP2_X2);
+                    v.visitInsn(Opcodes.POP2);
+                    v.visitInsn(Opcodes.DDIV);
+                }
+            }, true, a -> (float) intPow(a[0], exponent));
+        }
+    }
+    // Same operations, in the same order, as the bytecode above
+    private static double intPow(double x, int exponent) {
+        double p = switch (Math.abs(exponent)) {
+            case 0 -> 1;
+            case 1 -> x;
+            case 2 -> x * x;
+            case 3 -> x * (x * x);
+            default -> (x * x) * (x * x);
+        };
+        return exponent < 0 ? 1 / p : p;
+    }
+
+    // Float-only versions of the transcendental functions above, see FastFloatMath for their accuracy.
+    // Only introduced by FastMathSubstitution, when MolangCompilerOptions.fastMath is on.
+    public static final FloatFunction FAST_SIN = custom("math.sin$fast", 1, FastFloatMath.class, "sinDeg", a -> FastFloatMath.sinDeg(a[0]));
+    public static final FloatFunction FAST_COS = custom("math.cos$fast", 1, FastFloatMath.class, "cosDeg", a -> FastFloatMath.cosDeg(a[0]));
+    public static final FloatFunction FAST_EXP = custom("math.exp$fast", 1, FastFloatMath.class, "exp", a -> FastFloatMath.exp(a[0]));
+    public static final FloatFunction FAST_LN = custom("math.ln$fast", 1, FastFloatMath.class, "ln", a -> FastFloatMath.ln(a[0]));
+    public static final FloatFunction FAST_POW = custom("math.pow$fast", 2, FastFloatMath.class, "pow", a -> FastFloatMath.pow(a[0], a[1]));
+    public static final FloatFunction FAST_ATAN = custom("math.atan$fast", 1, FastFloatMath.class, "atanDeg", a -> FastFloatMath.atanDeg(a[0]));
 
 
     // Function calling java's Math.jvmName
-    private static FloatFunction math(String  name, int argCount, String jvmName, boolean usesDouble) {
-        return math(name, argCount, jvmName, usesDouble, false, false);
+    private static FloatFunction math(String  name, int argCount, String jvmName, boolean usesDouble, FloatOps.Nary evaluator) {
+        return math(name, argCount, jvmName, usesDouble, false, false, evaluator);
     }
 
     // Call a function defined in here, accepting float args and returning float
-    private static FloatFunction custom(String name, int argCount, String jvmName) {
+    private static FloatFunction custom(String name, int argCount, String jvmName, FloatOps.Nary evaluator) {
+        return custom(name, argCount, FloatFunction.class, jvmName, evaluator);
+    }
+
+    // Call a public static function in the owner class, accepting float args and returning float
+    private static FloatFunction custom(String name, int argCount, Class<?> owner, String jvmName, FloatOps.Nary evaluator) {
         String desc = "(" + "F".repeat(argCount) + ")F";
         return new FloatFunction(name, argCount, v -> {
-            v.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(FloatFunction.class), jvmName, desc, false);
-        }, false);
+            v.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(owner), jvmName, desc, false);
+        }, false, evaluator);
     }
 
 
     // inputToRadians: Whether to convert the input to radians first (the function accepts radians, but molang spec uses degrees)
     // outputToDegrees: Whether to convert the output to degrees (the function returns radians, but molang spec uses degrees)
-    private static FloatFunction math(String name, int argCount, String jvmName, boolean usesDouble, boolean inputToRadians, boolean outputToDegrees) {
+    private static FloatFunction math(String name, int argCount, String jvmName, boolean usesDouble, boolean inputToRadians, boolean outputToDegrees, FloatOps.Nary evaluator) {
         if (inputToRadians && argCount != 1) throw new IllegalStateException("inputToRadians arg should only be used on 1-arg calls");
         String desc = usesDouble ? "D" : "F";
         String fullDesc =  "(" + desc.repeat(argCount) + ")" + desc;
@@ -113,15 +196,15 @@ public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> f
                     v.visitInsn(Opcodes.FMUL);
                 }
             }
-        }, usesDouble);
+        }, usesDouble, evaluator);
     }
 
-    private static FloatFunction binop(String name, int opcode) {
-        return new FloatFunction(name, 2, v -> v.visitInsn(opcode), false);
+    private static FloatFunction binop(String name, int opcode, FloatOps.Nary evaluator) {
+        return new FloatFunction(name, 2, v -> v.visitInsn(opcode), false, evaluator);
     }
 
-    private static FloatFunction unop(String name, int opcode) {
-        return new FloatFunction(name, 1, v -> v.visitInsn(opcode), false);
+    private static FloatFunction unop(String name, int opcode, FloatOps.Nary evaluator) {
+        return new FloatFunction(name, 1, v -> v.visitInsn(opcode), false, evaluator);
     }
 
 
@@ -167,56 +250,18 @@ public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> f
             // If we use doubles, convert the result back to float
             if (usesDouble) visitor.visitInsn(Opcodes.D2F);
         } else {
-            // TODO DOUBLES HERE!!!
-            // There are some vector args. We need to set up a loop.
-
-            // Collect args into local variables or float[] storage
-            List<Integer> locations = new ArrayList<>();
-            for (MolangExpr arg : args) {
-                if (arg instanceof TempVariable tempVar) {
-                    // Already stored somewhere, use that location
-                    locations.add(tempVar.getRealLocation(context));
-                } else if (arg.isVector()) {
-                    // Compile it to scratch space
-                    int loc = context.reserveArraySlots(arg.returnCount());
-                    locations.add(loc);
-                    System.gc();
-                    arg.compileToJvmBytecode(visitor, loc, context); // Compile to loc
-                } else {
-                    // Compile it to push to stack, then store in a local variable
-                    int loc = context.reserveLocals(1);
-                    locations.add(loc);
-                    arg.compileToJvmBytecode(visitor, -1, context);
-                    visitor.visitVarInsn(Opcodes.FSTORE, loc);
-                }
-            }
-
+            // There are some vector args. Compute one output element at a time, in a loop.
+            // Element-wise calls inside the args are computed in the same loop, rather than being stored and looped over separately.
+            ElementwiseFusion fusion = ElementwiseFusion.prepare(args, visitor, context);
             int counterLocal = context.reserveLocals(1);
-            BytecodeUtil.repeatNTimes(visitor, returnCount(args), counterLocal, v -> {
+            BytecodeUtil.repeatNTimes(visitor, returnCount(args), context.unrollThreshold, counterLocal, (v, i) -> {
                 // Prepare float[] and output location:
                 v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal);
-                BytecodeUtil.constInt(v, outputArrayIndex);
-                v.visitInsn(Opcodes.IADD);
-
-                // Load all the args:
-                for (int j = 0; j < args.size(); j++) {
-                    MolangExpr arg = args.get(j);
-                    int location = locations.get(j);
-                    if (arg.isVector()) {
-                        // If it's a vector, load the i'th term from its location:
-                        v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
-                        v.visitVarInsn(Opcodes.ILOAD, counterLocal);
-                        BytecodeUtil.constInt(v, location);
-                        v.visitInsn(Opcodes.IADD);
-                        v.visitInsn(Opcodes.FALOAD);
-                    } else {
-                        // If it's a scalar, load the location'th local variable
-                        v.visitVarInsn(Opcodes.FLOAD, location);
-                    }
-                }
-                // Invoke the function, pushing result to the stack
+                BytecodeUtil.loopIndex(v, outputArrayIndex, i, counterLocal);
+                // Load the i'th element of each arg, run the function
+                fusion.compileElements(v, args, usesDouble, i, counterLocal, context);
                 floatFunc.accept(v);
+                if (usesDouble) v.visitInsn(Opcodes.D2F);
                 // Store in the float[] at the previously prepared location
                 v.visitInsn(Opcodes.FASTORE);
             });
@@ -224,4 +269,56 @@ public record FloatFunction(String name, int argCount, Consumer<MethodVisitor> f
         context.pop();
     }
 
+    // Like compile() with vector args, but element i goes into the float local firstLocal + i.
+    // Locals can't be indexed by a loop counter, so this is always unrolled.
+    public void compileToLocals(MethodVisitor visitor, List<MolangExpr> args, int firstLocal, JvmCompilationContext context) {
+        context.push();
+        ElementwiseFusion fusion = ElementwiseFusion.prepare(args, visitor, context);
+        for (int i = 0; i < returnCount(args); i++) {
+            fusion.compileElements(visitor, args, usesDouble, i, -1, context); // No counter, the index is always known
+            floatFunc.accept(visitor);
+            if (usesDouble) visitor.visitInsn(Opcodes.D2F);
+            visitor.visitVarInsn(Opcodes.FSTORE, firstLocal + i);
+        }
+        context.pop();
+    }
+
+    @Override
+    public float interpret(List<MolangExpr> args, InterpreterFrame frame, float[] out, int offset) {
+        float[] values = new float[argCount];
+        if (args.stream().noneMatch(MolangExpr::isVector)) {
+            for (int j = 0; j < argCount; j++)
+                values[j] = args.get(j).interpret(frame, out, offset);
+            return evaluator.apply(values);
+        }
+        // Evaluate each vector arg into its own array, and each scalar arg once
+        int size = returnCount(args);
+        float[][] vectors = new float[argCount][];
+        for (int j = 0; j < argCount; j++) {
+            MolangExpr arg = args.get(j);
+            if (arg.isVector()) {
+                vectors[j] = new float[size];
+                arg.interpret(frame, vectors[j], 0);
+            } else {
+                values[j] = arg.interpret(frame, out, offset);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < argCount; j++)
+                if (vectors[j] != null) values[j] = vectors[j][i];
+            out[offset + i] = evaluator.apply(values);
+        }
+        return 0;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
 }
@@ -0,0 +1,18 @@
+package org.figuramc.figura_molang.func;
+
+/**
+ * Plain Java counterparts of the bytecode snippets that functions are built from.
+ * The interpreter runs these instead of compiling, so each must match its bytecode exactly,
+ * including float vs double precision and NaN behavior.
+ */
+public final class FloatOps {
+
+    private FloatOps() {}
+
+    public interface Unary { float apply(float a); }
+    public interface Binary { float apply(float a, float b); }
+    public interface Ternary { float apply(float a, float b, float c); }
+    public interface Nary { float apply(float[] args); }
+    public interface Test { boolean test(float a, float b); }
+
+}
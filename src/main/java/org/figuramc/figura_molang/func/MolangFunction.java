@@ -3,6 +3,7 @@ package org.figuramc.figura_molang.func;
 import org.figuramc.figura_molang.ast.MolangExpr;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.objectweb.asm.MethodVisitor;
 
 import java.util.HashMap;
@@ -25,6 +26,20 @@ public interface MolangFunction {
     // If this has one output, push it on the stack.
     void compile(MethodVisitor visitor, List<MolangExpr> args, int outputArrayIndex, JvmCompilationContext context);
 
+    // Evaluate directly given these args, without compiling. Must behave exactly like the compiled code.
+    // If this has multiple outputs, write them to out at the given offset.
+    // If this has one output, return it.
+    // Only called if canInterpret() returns true.
+    // (Not a default method: that would make implementing classes initialize this interface, and ALL_MATH_FUNCTIONS with it, too early)
+    float interpret(List<MolangExpr> args, InterpreterFrame frame, float[] out, int offset);
+
+    // Whether interpret() is implemented. If not, expressions calling this function are always compiled.
+    boolean canInterpret();
+
+    // Whether calling this has no effects, and always gives the same result for the same args.
+    // Calls to pure functions can be folded when their args are constant, and shared when repeated.
+    boolean isPure();
+
     // All the math functions! :D
     Map<String, MolangFunction> ALL_MATH_FUNCTIONS = new HashMap<>() {{
         // Molang
@@ -1,10 +1,10 @@
 package org.figuramc.figura_molang.func;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
-import org.figuramc.figura_molang.ast.vars.TempVariable;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -18,32 +18,40 @@ import java.util.function.Consumer;
  * @param preAccum An element of the vec is on the stack. Prep it for the accumulator.
  * @param postAccum The result of preAccum and the accumulator are on the stack. Reduce to just the accumulator.
  * @param post The accumulator result is on the stack. Post-process it.
+ * @param scalarEvaluator Plain Java version of ifScalar, for the interpreter.
+ * @param accumEvaluator Plain Java version of preAccum and postAccum together: (elem, accum) -> accum.
+ * @param postEvaluator Plain Java version of post.
  */
-public record VecReduceFunction(String name, float initial, Consumer<MethodVisitor> ifScalar, Consumer<MethodVisitor> preAccum, Consumer<MethodVisitor> postAccum, Consumer<MethodVisitor> post) implements MolangFunction {
+public record VecReduceFunction(String name, float initial, Consumer<MethodVisitor> ifScalar, Consumer<MethodVisitor> preAccum, Consumer<MethodVisitor> postAccum, Consumer<MethodVisitor> post,
+                                FloatOps.Unary scalarEvaluator, FloatOps.Binary accumEvaluator, FloatOps.Unary postEvaluator) implements MolangFunction {
 
     public static final VecReduceFunction SUM = new VecReduceFunction("math.sum", 0f,
             v -> {},
             v -> {},
             v -> v.visitInsn(Opcodes.FADD),
-            v -> {}
+            v -> {},
+            x -> x, (elem, accum) -> elem + accum, x -> x
     );
     public static final VecReduceFunction PRODUCT = new VecReduceFunction("math.product", 1f,
             v -> {},
             v -> {},
             v -> v.visitInsn(Opcodes.FMUL),
-            v -> {}
+            v -> {},
+            x -> x, (elem, accum) -> elem * accum, x -> x
     );
     public static final VecReduceFunction MIN_ELEM = new VecReduceFunction("math.min_elem", Float.POSITIVE_INFINITY,
             v -> {},
             v -> {},
             v -> v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "min", "(FF)F", false),
-            v -> {}
+            v -> {},
+            x -> x, Math::min, x -> x
     );
     public static final VecReduceFunction MAX_ELEM = new VecReduceFunction("math.max_elem", Float.NEGATIVE_INFINITY,
             v -> {},
             v -> {},
             v -> v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "max", "(FF)F", false),
-            v -> {}
+            v -> {},
+            x -> x, Math::max, x -> x
     );
 
 
@@ -70,28 +78,19 @@ public record VecReduceFunction(String name, float initial, Consumer<MethodVisit
         }
 
         context.push();
-        int arrayLocation;
-        // If already in temp variable,
-        if (arg instanceof TempVariable tempVar) {
-            arrayLocation = tempVar.getRealLocation(context);
-        } else {
-            arrayLocation = context.reserveArraySlots(arg.returnCount());
-            arg.compileToJvmBytecode(visitor, arrayLocation, context);
-        }
+        // Element-wise math inside the arg is computed as we go, rather than stored first
+        List<MolangExpr> vec = List.of(arg);
+        ElementwiseFusion fusion = ElementwiseFusion.prepare(vec, visitor, context);
         int accum = context.reserveLocals(1);
         int counterLocal = context.reserveLocals(1);
         // Store initial in accumulator
         BytecodeUtil.constFloat(visitor, initial);
         visitor.visitVarInsn(Opcodes.FSTORE, accum);
         // Reduce all values from vec
-        BytecodeUtil.repeatNTimes(visitor, arg.returnCount(), counterLocal, v -> {
-            v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp]
-            BytecodeUtil.constInt(v, arrayLocation); // [temp, varloc]
-            v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [temp, varloc, counter]
-            v.visitInsn(Opcodes.IADD); // [temp, varloc + counter]
-            v.visitInsn(Opcodes.FALOAD); // [temp[varloc + counter]]
+        BytecodeUtil.repeatNTimes(visitor, arg.returnCount(), context.unrollThreshold, counterLocal, (v, i) -> {
+            fusion.compileElements(v, vec, false, i, counterLocal, context); // [elem]
             preAccum.accept(v);
-            v.visitVarInsn(Opcodes.FLOAD, accum); // [temp[varloc + counter], accum]
+            v.visitVarInsn(Opcodes.FLOAD, accum); // [elem, accum]
             postAccum.accept(v);
             v.visitVarInsn(Opcodes.FSTORE, accum); // []
         });
@@ -101,4 +100,26 @@ public record VecReduceFunction(String name, float initial, Consumer<MethodVisit
         context.pop();
     }
 
+    @Override
+    public float interpret(List<MolangExpr> args, InterpreterFrame frame, float[] out, int offset) {
+        MolangExpr arg = args.getFirst();
+        if (!arg.isVector())
+            return scalarEvaluator.apply(arg.interpret(frame, out, offset));
+        float[] values = new float[arg.returnCount()];
+        arg.interpret(frame, values, 0);
+        float accum = initial;
+        for (float value : values)
+            accum = accumEvaluator.apply(value, accum);
+        return postEvaluator.apply(accum);
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
 }
@@ -1,10 +1,10 @@
 package org.figuramc.figura_molang.func;
 
 import org.figuramc.figura_molang.ast.MolangExpr;
-import org.figuramc.figura_molang.ast.vars.TempVariable;
 import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
 import org.figuramc.figura_molang.compile.MolangCompileException;
 import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 
@@ -19,20 +19,26 @@ import java.util.function.Consumer;
  * @param preAccum 2 floats are on the stack (a, b). Prepare for the accumulator to be pushed.
  * @param postAccum The result of preAccum and the accumulator are on the stack. Reduce to the accumulator.
  * @param post The accumulator result is on the stack. Post-process it.
+ * @param reduceEvaluator Plain Java version of reduce, for the interpreter.
+ * @param accumEvaluator Plain Java version of preAccum and postAccum together: (a, b, accum) -> accum.
+ * @param postEvaluator Plain Java version of post.
  */
-public record VecReduceFunctionBinary(String name, float initial, Consumer<MethodVisitor> reduce, Consumer<MethodVisitor> preAccum, Consumer<MethodVisitor> postAccum, Consumer<MethodVisitor> post) implements MolangFunction {
+public record VecReduceFunctionBinary(String name, float initial, Consumer<MethodVisitor> reduce, Consumer<MethodVisitor> preAccum, Consumer<MethodVisitor> postAccum, Consumer<MethodVisitor> post,
+                                      FloatOps.Binary reduceEvaluator, FloatOps.Ternary accumEvaluator, FloatOps.Unary postEvaluator) implements MolangFunction {
 
     public static final VecReduceFunctionBinary DOT_PRODUCT = new VecReduceFunctionBinary("math.dot", 0f,
             v -> v.visitInsn(Opcodes.FMUL),
             v -> {},
             v -> v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "fma", "(FFF)F", false),
-            v -> {}
+            v -> {},
+            (a, b) -> a * b, Math::fma, x -> x
     );
     public static final VecReduceFunctionBinary DISTANCE = new VecReduceFunctionBinary("math.dist", 0f,
             v -> { v.visitInsn(Opcodes.FSUB); v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "abs", "(F)F", false); },
             v -> { v.visitInsn(Opcodes.FSUB); v.visitInsn(Opcodes.DUP); }, // [a, b] -> [(a - b), (a - b)]
             v -> v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "fma", "(FFF)F", false), // [(a - b), (a - b), accum] -> [accum + (a - b)^2]
-            v -> { v.visitInsn(Opcodes.F2D); v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "sqrt", "(D)D", false); v.visitInsn(Opcodes.D2F); } // sqrt(sum((a - b)^2))
+            v -> { v.visitInsn(Opcodes.F2D); v.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Math", "sqrt", "(D)D", false); v.visitInsn(Opcodes.D2F); }, // sqrt(sum((a - b)^2))
+            (a, b) -> Math.abs(a - b), (a, b, accum) -> Math.fma(a - b, a - b, accum), x -> (float) Math.sqrt(x)
     );
 
     @Override
@@ -62,10 +68,10 @@ public record VecReduceFunctionBinary(String name, float initial, Consumer<Metho
             return;
         }
 
-        // Store A and B
+        // Evaluate A and B. Element-wise math inside them is computed as we go, rather than stored first
         context.push();
-        int aIdx = store(a, visitor, context);
-        int bIdx = store(b, visitor, context);
+        List<MolangExpr> vecs = List.of(a, b);
+        ElementwiseFusion fusion = ElementwiseFusion.prepare(vecs, visitor, context);
 
         // For loop
         int accum = context.reserveLocals(1);
@@ -74,31 +80,13 @@ public record VecReduceFunctionBinary(String name, float initial, Consumer<Metho
         BytecodeUtil.constFloat(visitor, initial);
         visitor.visitVarInsn(Opcodes.FSTORE, accum);
         // Combine vec values
-        BytecodeUtil.repeatNTimes(visitor, Math.max(a.returnCount(), b.returnCount()), counterLocal, v -> {
-            // Load A
-            if (a.isVector()) {
-                v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp]
-                BytecodeUtil.constInt(v, aIdx); // [temp, aIdx]
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [temp, aIdx, counter]
-                v.visitInsn(Opcodes.IADD); // [temp, aIdx + counter]
-                v.visitInsn(Opcodes.FALOAD); // [temp[aIdx + counter]]
-            } else {
-                v.visitVarInsn(Opcodes.FLOAD, aIdx);
-            }
-            // Load B
-            if (b.isVector()) {
-                v.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex); // [temp[aIdx + counter], temp]
-                BytecodeUtil.constInt(v, bIdx); // [temp[aIdx + counter], temp, bIdx]
-                v.visitVarInsn(Opcodes.ILOAD, counterLocal); // [temp[aIdx + counter], temp, bIdx, counter]
-                v.visitInsn(Opcodes.IADD); // [temp[aIdx + counter], temp, bIdx + counter]
-                v.visitInsn(Opcodes.FALOAD); // [temp[aIdx + counter], temp[bIdx + counter]]
-            } else {
-                v.visitVarInsn(Opcodes.FLOAD, bIdx);
-            }
+        BytecodeUtil.repeatNTimes(visitor, Math.max(a.returnCount(), b.returnCount()), context.unrollThreshold, counterLocal, (v, i) -> {
+            // Load A and B
+            fusion.compileElements(v, vecs, false, i, counterLocal, context); // [a[i], b[i]]
             // Pre-accumulator stage
             preAccum.accept(v);
             // Load accumulator
-            v.visitVarInsn(Opcodes.FLOAD, accum); // [temp[aIdx + counter], temp[bIdx + counter], accum]
+            v.visitVarInsn(Opcodes.FLOAD, accum); // [a[i], b[i], accum]
             // Post-accumulator
             postAccum.accept(v);
             // Store accumulator
@@ -112,19 +100,31 @@ public record VecReduceFunctionBinary(String name, float initial, Consumer<Metho
         context.pop();
     }
 
-    private static int store(MolangExpr expr, MethodVisitor visitor, JvmCompilationContext context) {
-        if (expr instanceof TempVariable temp) {
-            return temp.getRealLocation(context);
-        } else if (!expr.isVector()) {
-            int idx = context.reserveLocals(1);
-            expr.compileToJvmBytecode(visitor, -1, context);
-            visitor.visitVarInsn(Opcodes.FSTORE, idx);
-            return idx;
-        } else {
-            int idx = context.reserveArraySlots(expr.returnCount());
-            expr.compileToJvmBytecode(visitor, idx, context);
-            return idx;
-        }
+    @Override
+    public float interpret(List<MolangExpr> args, InterpreterFrame frame, float[] out, int offset) {
+        MolangExpr a = args.get(0);
+        MolangExpr b = args.get(1);
+        if (!a.isVector() && !b.isVector())
+            return reduceEvaluator.apply(a.interpret(frame, out, offset), b.interpret(frame, out, offset));
+        float[] aValues = new float[a.returnCount()];
+        float[] bValues = new float[b.returnCount()];
+        if (a.isVector()) a.interpret(frame, aValues, 0);
+        else aValues[0] = a.interpret(frame, out, offset);
+        if (b.isVector()) b.interpret(frame, bValues, 0);
+        else bValues[0] = b.interpret(frame, out, offset);
+        float accum = initial;
+        for (int i = 0; i < Math.max(a.returnCount(), b.returnCount()); i++)
+            accum = accumEvaluator.apply(aValues[a.isVector() ? i : 0], bValues[b.isVector() ? i : 0], accum);
+        return postEvaluator.apply(accum);
     }
 
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
 }
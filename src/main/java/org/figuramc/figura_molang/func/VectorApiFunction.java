@@ -0,0 +1,145 @@
+package org.figuramc.figura_molang.func;
+
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.vars.TempVariable;
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.figuramc.figura_molang.compile.jvm.BytecodeUtil;
+import org.figuramc.figura_molang.compile.jvm.JvmCompilationContext;
+import org.figuramc.figura_molang.interpret.InterpreterFrame;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A version of an element-wise function or reduction which runs on large vectors with the Java Vector API,
+ * by calling the kernel of the same name in VectorApiKernels. Only introduced by VectorApiSubstitution.
+ * Every arg is put in the float[] first; scalar args are splatted to the vector size.
+ *
+ * Element-wise results are exactly the same as the scalar function's. Reductions combine elements in a different order,
+ * so sums and products may round differently, but the interpreter calls the same kernels, so it still matches the compiled code.
+ *
+ * @param scalarFunction The function this replaces, which checks args and gives the return count.
+ * @param kernel Name of the static method in VectorApiKernels.
+ * @param reduction Whether this returns one float, rather than writing a vector.
+ * @param evaluator Calls the kernel, for the interpreter.
+ */
+public record VectorApiFunction(String name, MolangFunction scalarFunction, String kernel, boolean reduction, Kernel evaluator) implements MolangFunction {
+
+    // (arr, dst, arg locations, n) -> result. Element-wise kernels write to dst and return 0, reductions ignore dst.
+    public interface Kernel { float apply(float[] arr, int dst, int[] args, int n); }
+
+    public static final VectorApiFunction ADD_OP = elementwise(FloatFunction.ADD_OP, "add", (arr, dst, a, n) -> { VectorApiKernels.add(arr, dst, a[0], a[1], n); return 0; });
+    public static final VectorApiFunction SUB_OP = elementwise(FloatFunction.SUB_OP, "sub", (arr, dst, a, n) -> { VectorApiKernels.sub(arr, dst, a[0], a[1], n); return 0; });
+    public static final VectorApiFunction MUL_OP = elementwise(FloatFunction.MUL_OP, "mul", (arr, dst, a, n) -> { VectorApiKernels.mul(arr, dst, a[0], a[1], n); return 0; });
+    public static final VectorApiFunction DIV_OP = elementwise(FloatFunction.DIV_OP, "div", (arr, dst, a, n) -> { VectorApiKernels.div(arr, dst, a[0], a[1], n); return 0; });
+    public static final VectorApiFunction NEG_OP = elementwise(FloatFunction.NEG_OP, "neg", (arr, dst, a, n) -> { VectorApiKernels.neg(arr, dst, a[0], n); return 0; });
+    public static final VectorApiFunction ABS = elementwise(FloatFunction.ABS, "abs", (arr, dst, a, n) -> { VectorApiKernels.abs(arr, dst, a[0], n); return 0; });
+    public static final VectorApiFunction SQRT = elementwise(FloatFunction.SQRT, "sqrt", (arr, dst, a, n) -> { VectorApiKernels.sqrt(arr, dst, a[0], n); return 0; });
+    public static final VectorApiFunction MIN = elementwise(FloatFunction.MIN, "min", (arr, dst, a, n) -> { VectorApiKernels.min(arr, dst, a[0], a[1], n); return 0; });
+    public static final VectorApiFunction MAX = elementwise(FloatFunction.MAX, "max", (arr, dst, a, n) -> { VectorApiKernels.max(arr, dst, a[0], a[1], n); return 0; });
+
+    public static final VectorApiFunction SUM = reduction(VecReduceFunction.SUM, "sum", (arr, dst, a, n) -> VectorApiKernels.sum(arr, a[0], n));
+    public static final VectorApiFunction PRODUCT = reduction(VecReduceFunction.PRODUCT, "product", (arr, dst, a, n) -> VectorApiKernels.product(arr, a[0], n));
+    public static final VectorApiFunction MIN_ELEM = reduction(VecReduceFunction.MIN_ELEM, "minElem", (arr, dst, a, n) -> VectorApiKernels.minElem(arr, a[0], n));
+    public static final VectorApiFunction MAX_ELEM = reduction(VecReduceFunction.MAX_ELEM, "maxElem", (arr, dst, a, n) -> VectorApiKernels.maxElem(arr, a[0], n));
+    public static final VectorApiFunction DOT_PRODUCT = reduction(VecReduceFunctionBinary.DOT_PRODUCT, "dot", (arr, dst, a, n) -> VectorApiKernels.dot(arr, a[0], a[1], n));
+    public static final VectorApiFunction DISTANCE = reduction(VecReduceFunctionBinary.DISTANCE, "dist", (arr, dst, a, n) -> VectorApiKernels.dist(arr, a[0], a[1], n));
+
+    private static VectorApiFunction elementwise(MolangFunction scalarFunction, String kernel, Kernel evaluator) {
+        return new VectorApiFunction(scalarFunction.name() + "$vector", scalarFunction, kernel, false, evaluator);
+    }
+
+    private static VectorApiFunction reduction(MolangFunction scalarFunction, String kernel, Kernel evaluator) {
+        return new VectorApiFunction(scalarFunction.name() + "$vector", scalarFunction, kernel, true, evaluator);
+    }
+
+    // Named rather than referenced as a class literal, so generating code never loads VectorApiKernels
+    private static final String KERNELS = "org/figuramc/figura_molang/func/VectorApiKernels";
+
+    // Whether the JVM was started with the incubator module, so VectorApiKernels can load.
+    // Without it, the scalar functions are used instead.
+    public static boolean isAvailable() {
+        return AVAILABLE;
+    }
+    private static final boolean AVAILABLE = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    // The number of elements each kernel loops over
+    private static int vectorSize(List<MolangExpr> args) {
+        return args.stream().mapToInt(MolangExpr::returnCount).max().orElseThrow();
+    }
+
+    @Override
+    public void checkArgs(List<MolangExpr> args, String source, int funcNameStart, int funcNameEnd) throws MolangCompileException {
+        scalarFunction.checkArgs(args, source, funcNameStart, funcNameEnd);
+    }
+
+    @Override
+    public int returnCount(List<MolangExpr> args) {
+        return scalarFunction.returnCount(args);
+    }
+
+    @Override
+    public void compile(MethodVisitor visitor, List<MolangExpr> args, int outputArrayIndex, JvmCompilationContext context) {
+        context.push();
+        int n = vectorSize(args);
+        // Temp variables can be read in place, unless something evaluated after them might assign to them
+        boolean readTempsInPlace = args.stream().allMatch(arg -> arg instanceof TempVariable || arg.isPure());
+        int[] locations = new int[args.size()];
+        for (int i = 0; i < args.size(); i++) {
+            MolangExpr arg = args.get(i);
+            if (arg instanceof TempVariable tempVar && tempVar.isVector() && !tempVar.inLocals && readTempsInPlace) {
+                locations[i] = tempVar.getRealLocation(context);
+            } else if (arg.isVector()) {
+                locations[i] = context.reserveArraySlots(n);
+                arg.compileToJvmBytecode(visitor, locations[i], context);
+            } else {
+                // Splat the scalar: fill(arr, location, value, n)
+                locations[i] = context.reserveArraySlots(n);
+                visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+                BytecodeUtil.constInt(visitor, locations[i]);
+                arg.compileToJvmBytecode(visitor, -1, context);
+                BytecodeUtil.constInt(visitor, n);
+                visitor.visitMethodInsn(Opcodes.INVOKESTATIC, KERNELS, "fill", "([FIFI)V", false);
+            }
+        }
+        // kernel(arr, [outputArrayIndex], locations..., n)
+        visitor.visitVarInsn(Opcodes.ALOAD, context.arrayVariableIndex);
+        if (!reduction) BytecodeUtil.constInt(visitor, outputArrayIndex);
+        for (int location : locations) BytecodeUtil.constInt(visitor, location);
+        BytecodeUtil.constInt(visitor, n);
+        String desc = "([F" + (reduction ? "" : "I") + "I".repeat(locations.length) + "I)" + (reduction ? "F" : "V");
+        visitor.visitMethodInsn(Opcodes.INVOKESTATIC, KERNELS, kernel, desc, false);
+        context.pop();
+    }
+
+    @Override
+    public float interpret(List<MolangExpr> args, InterpreterFrame frame, float[] out, int offset) {
+        // Same layout as the compiled code would use: each arg, then the output
+        int n = vectorSize(args);
+        float[] arr = new float[n * (args.size() + 1)];
+        int[] locations = new int[args.size()];
+        for (int i = 0; i < args.size(); i++) {
+            MolangExpr arg = args.get(i);
+            locations[i] = i * n;
+            if (arg.isVector()) arg.interpret(frame, arr, locations[i]);
+            else Arrays.fill(arr, locations[i], locations[i] + n, arg.interpret(frame, out, offset));
+        }
+        int dst = args.size() * n;
+        float result = evaluator.apply(arr, dst, locations, n);
+        if (!reduction) System.arraycopy(arr, dst, out, offset, n);
+        return result;
+    }
+
+    @Override
+    public boolean canInterpret() {
+        return true;
+    }
+
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
+}
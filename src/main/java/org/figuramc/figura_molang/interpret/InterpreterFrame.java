@@ -0,0 +1,38 @@
+package org.figuramc.figura_molang.interpret;
+
+import org.figuramc.figura_molang.MolangInstance;
+import org.figuramc.figura_molang.compile.ParsedMolang;
+
+import java.util.List;
+
+/**
+ * State for interpreting one evaluation of an expression, mirroring the JVM frame of a compiled one:
+ * context variables, scalar temp variables (locals), and vector temp variables.
+ * Scratch space for vector intermediates is allocated as needed, since interpreted code is cold.
+ */
+public final class InterpreterFrame {
+
+    public final MolangInstance<?, ?> instance;
+    public final float[] args; // Context variables, by index
+    public final float[] locals; // Temp variables in locals, by logical location
+    public final float[] vectorTemps; // Vector temp variables in the float[], by logical location
+
+    // Where a Return in the innermost Compound should put its value.
+    // Vectors are written into returnArray at returnOffset, scalars go in returnValue.
+    public float[] returnArray;
+    public int returnOffset;
+    public float returnValue;
+
+    public InterpreterFrame(MolangInstance<?, ?> instance, ParsedMolang parsed, float[] args) {
+        this.instance = instance;
+        this.args = args;
+        this.locals = new float[parsed.maxLocalVariables()];
+        this.vectorTemps = new float[parsed.maxVectorTempSlots()];
+    }
+
+    // A frame with nothing in it, for evaluating constant exprs at compile time
+    public static InterpreterFrame forConstants() {
+        return new InterpreterFrame(null, new ParsedMolang(null, 0, 0, 0, List.of()), new float[0]);
+    }
+
+}
@@ -0,0 +1,15 @@
+package org.figuramc.figura_molang.interpret;
+
+/**
+ * Thrown by an interpreted Return to unwind to its enclosing Compound, like the GOTO in compiled code.
+ * The value travels through the InterpreterFrame, so a single stackless instance is reused.
+ */
+public final class ReturnSignal extends RuntimeException {
+
+    public static final ReturnSignal INSTANCE = new ReturnSignal();
+
+    private ReturnSignal() {
+        super(null, null, false, false);
+    }
+
+}
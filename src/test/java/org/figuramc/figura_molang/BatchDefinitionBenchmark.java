@@ -0,0 +1,80 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.MolangCompileException;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Compares defining many small expressions one class each, with compile(), against packing them into batch classes with compileAll().
+// Reports the time to compile and define them, and how much metaspace the classes take.
+public class BatchDefinitionBenchmark {
+
+    private static final int EXPRESSIONS = 500;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws MolangCompileException, InterruptedException {
+        MemoryPoolMXBean metaspace = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getName().equals("Metaspace")).findFirst().orElse(null);
+        if (metaspace == null) System.out.println("No Metaspace memory pool, only reporting times");
+
+        // Warm up the parser and class generator, so the first round isn't slower for both
+        for (int round = 0; round < 3; round++) {
+            definePerExpression(sources(-1 - round));
+            defineBatched(sources(-1 - round));
+        }
+        for (int round = 0; round < ROUNDS; round++) {
+            // Distinct sources every time, so nothing is shared with classes from earlier rounds
+            List<String> single = sources(round * 2), batched = sources(round * 2 + 1);
+            report("per expression", metaspace, () -> definePerExpression(single));
+            report("batched", metaspace, () -> defineBatched(batched));
+        }
+    }
+
+    private static List<String> sources(int round) {
+        List<String> sources = new ArrayList<>(EXPRESSIONS);
+        for (int i = 0; i < EXPRESSIONS; i++)
+            sources.add("math.sin(c.x * " + (round * EXPRESSIONS + i) + ") * c.y + math.max(c.x, " + i + ")");
+        return sources;
+    }
+
+    private static List<CompiledMolang<Object>> definePerExpression(List<String> sources) throws MolangCompileException {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0, new MolangProgramCache());
+        instance.setPromotionThreshold(0);
+        List<CompiledMolang<Object>> compiled = new ArrayList<>(sources.size());
+        for (String source : sources) compiled.add(instance.compile(source, List.of("x", "y"), Map.of()));
+        return compiled;
+    }
+
+    private static List<CompiledMolang<Object>> defineBatched(List<String> sources) throws MolangCompileException {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0, new MolangProgramCache());
+        return instance.compileAll(sources, List.of("x", "y"), Map.of());
+    }
+
+    @FunctionalInterface
+    private interface Define {
+        List<CompiledMolang<Object>> run() throws MolangCompileException;
+    }
+
+    private static void report(String name, MemoryPoolMXBean metaspace, Define define) throws MolangCompileException, InterruptedException {
+        long metaspaceBefore = usedAfterGc(metaspace);
+        long start = System.nanoTime();
+        List<CompiledMolang<Object>> compiled = define.run();
+        long nanos = System.nanoTime() - start;
+        long metaspaceUsed = usedAfterGc(metaspace) - metaspaceBefore;
+        // Keeps the classes alive until after the measurement
+        Benchmark.sink += compiled.getFirst().evaluate(1, 2).get(0);
+        System.out.printf("%-16s %d exprs: %8.2f ms, %8.1f us/expr, metaspace %s%n", name, compiled.size(), nanos / 1e6, nanos / 1e3 / compiled.size(),
+                metaspace == null ? "n/a" : String.format("%d KiB, %d bytes/expr", metaspaceUsed >> 10, metaspaceUsed / compiled.size()));
+    }
+
+    private static long usedAfterGc(MemoryPoolMXBean metaspace) throws InterruptedException {
+        if (metaspace == null) return 0;
+        System.gc();
+        Thread.sleep(50);
+        return metaspace.getUsage().getUsed();
+    }
+
+}
@@ -0,0 +1,43 @@
+package org.figuramc.figura_molang;
+
+// A minimal timing loop for the benchmarks in this source set, which are main() classes run by ./gradlew benchmark -Pbenchmark=<name>.
+// Results are rough, good for comparing two ways of doing the same thing in one run, not for absolute numbers.
+final class Benchmark {
+
+    private Benchmark() {}
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final int ROUNDS = 10;
+
+    // Results are summed in here, so the JIT can't drop the work being measured
+    static volatile float sink;
+
+    @FunctionalInterface
+    interface Op {
+        // Run the operation on input i, returning something derived from the result
+        float run(int i);
+    }
+
+    // Time op over inputs 0 until count, and print the median nanoseconds per call
+    static double run(String name, int count, Op op) {
+        long warmupEnd = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < warmupEnd) pass(count, op);
+        long[] times = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            pass(count, op);
+            times[round] = System.nanoTime() - start;
+        }
+        java.util.Arrays.sort(times);
+        double nanosPerOp = (double) times[ROUNDS / 2] / count;
+        System.out.printf("%-48s %10.2f ns/op%n", name, nanosPerOp);
+        return nanosPerOp;
+    }
+
+    private static void pass(int count, Op op) {
+        float sum = 0;
+        for (int i = 0; i < count; i++) sum += op.run(i);
+        sink += sum;
+    }
+
+}
@@ -0,0 +1,52 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.MolangCompilerOptions.OptimizationLevel;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.shared.SharedValues;
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommonSubexpressionsTest {
+
+    private static final float[][] VALUES = Differential.rows(-2f, -0f, 0f, 0.5f, 1f, 3f, 90f, Float.NaN, Float.POSITIVE_INFINITY, 1f);
+
+    @Test
+    public void repeatInOneTernaryArm() throws MolangCompileException {
+        // Shared, but only computed when that arm runs
+        assertShared("c.x > 1 ? math.sin(c.x * 90) + math.sin(c.x * 90) : 5", true);
+        assertShared("c.x > 1 ? 5 : math.sqrt(c.x) * math.sqrt(c.x)", true);
+        assertShared("c.x > 0 ? (c.x > 2 ? math.cos(c.x) * math.cos(c.x) : 0) : 1", true);
+        assertShared("[c.x > 1 ? math.exp(c.x) - math.exp(c.x) : c.x, 2]", true);
+    }
+
+    @Test
+    public void repeatAfterConditionalReturn() throws MolangCompileException {
+        assertShared("{ c.x > 1 ? return 7 : 0; return math.sin(c.x) * math.sin(c.x); }", true);
+        assertShared("{ c.x < 0 ? return [1, 2] : 0; return [math.abs(c.x) + 1, math.abs(c.x) + 1]; }", true);
+        // Used before and after the return
+        assertShared("{ t.a = math.pow(c.x, 1.5); c.x > 1 ? return t.a : 0; return math.pow(c.x, 1.5) * 2; }", true);
+    }
+
+    @Test
+    public void variableReadsAreNotShared() throws MolangCompileException {
+        // Each read of t.a sees a different value, so they're not the same expression
+        assertShared("{ t.a = c.x; t.b = t.a * 2; t.a = t.a + 1; return t.b + t.a * 2; }", false);
+        assertShared("{ t.a = c.x; t.b = math.sin(t.a); t.a = 30; return t.b + math.sin(t.a); }", false);
+        // Actor variables last between evaluations too, so results drift if reads are merged
+        assertShared("{ v.n = v.n + 1; t.b = v.n * 3; v.n = v.n + 1; return t.b + v.n * 3; }", false);
+        assertShared("{ t.b = v.m + c.x; v.m = v.m + 1; return t.b + (v.m + c.x); }", false);
+    }
+
+    // Check interpreted, NONE and FULL all agree, and whether the FULL tree shares anything
+    private static void assertShared(String source, boolean expectShared) throws MolangCompileException {
+        Differential.assertSameResults(source, List.of("x"), VALUES);
+        MolangExpr expr = Differential.instance(OptimizationLevel.FULL, false).parse(source, List.of("x"), Map.of()).expr();
+        assertEquals(expectShared, expr instanceof SharedValues, source + (expectShared ? " should" : " should not") + " share values");
+    }
+
+}
@@ -0,0 +1,29 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompileAsyncTest {
+
+    @Test
+    public void rejectedTaskIsNotCached() throws MolangCompileException {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 16);
+        Executor rejecting = task -> { throw new RejectedExecutionException("shut down"); };
+        assertThrows(RejectedExecutionException.class, () -> instance.compileAsync("c.x * 3", List.of("x"), Map.of(), rejecting));
+        assertNull(instance.getCompileCache().get("c.x * 3", List.of("x"), Map.of()), "Rejected placeholder was left in the compile cache");
+
+        // A later attempt starts over, rather than finding a placeholder that never finishes
+        CompiledMolang<Object> compiled = instance.compileAsync("c.x * 3", List.of("x"), Map.of(), Runnable::run);
+        assertEquals(1, instance.installCompiled());
+        assertEquals(6f, compiled.evaluate(2).get(0));
+        assertSame(compiled, instance.getCompileCache().get("c.x * 3", List.of("x"), Map.of()));
+    }
+
+}
@@ -0,0 +1,71 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.MolangCompilerOptions.OptimizationLevel;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.control_flow.Compound;
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeadCodeEliminationTest {
+
+    private static final float[][] VALUES = Differential.rows(-2f, -0f, 0f, 0.5f, 1f, 3f, Float.NaN, 1f);
+
+    @Test
+    public void constantBranches() throws MolangCompileException {
+        assertSameResults("{ 1 > 0 ? return c.x : return 2; }");
+        assertSameResults("{ 0 ? return 1 : 0; return c.x * 2; }");
+        assertSameResults("{ t.a = 1; 2 > 3 ? { t.a = 5; } : { t.a = c.x; }; return t.a; }");
+        assertSameResults("{ 1 && return [c.x, 1]; return [2, 3]; }");
+        assertSameResults("{ 0 || return 3; v.a = c.x; return v.a; }");
+    }
+
+    @Test
+    public void codeAfterReturn() throws MolangCompileException {
+        assertSameResults("{ return 5; t.x = 4; }");
+        assertSameResults("{ v.a = c.x; return v.a; v.a = 7; }");
+        assertSameResults("{ t.a = c.x; t.a; return t.a * 2; 3; }");
+        assertSameResults("{ c.x > 1 ? return 1 : return 2; v.b = 4; }");
+        assertSameResults("{ c.x > 0 ? return [1, 2] : 0; return [3, c.x]; [5, 6]; }");
+        // v.n counts evaluations, so it only matches if the dead increment is dropped in every way, or none
+        assertSameResults("{ v.n = v.n + 1; return v.n; v.n = v.n + 100; }");
+    }
+
+    @Test
+    public void nestedCompounds() throws MolangCompileException {
+        assertSameResults("{ { return 1; }; return 2; }");
+        assertSameResults("{ {}; { 1; }; return c.x; }");
+        assertSameResults("{ t.a = 3; { t.a = 4; return 9; t.a = 5; }; return t.a; }");
+        assertSameResults("{ { { c.x; 1; }; 2; }; }");
+        assertSameResults("{ t.v = [1, c.x]; { { return t.v; }; t.v = [0, 0]; }; return t.v * 2; }");
+        assertSameResults("{ v.a = 0; { v.a = v.a + c.x; 1 ? { return 1; } : 0; v.a = 100; }; return v.a; }");
+        assertSameResults("{}");
+        assertSameResults("{ c.x; }");
+    }
+
+    @Test
+    public void deadStatementsAreRemoved() throws MolangCompileException {
+        Compound compound = firstCompound(Differential.instance(OptimizationLevel.FULL, false).parse("{ v.a = c.x; 5; return v.a; v.a = 7; }", List.of("x"), Map.of()).expr());
+        assertNotNull(compound);
+        assertEquals(2, compound.exprs.size(), "Expected only the assignment and the return to be kept");
+        assertTrue(compound.alwaysReturnsInside());
+    }
+
+    private static void assertSameResults(String source) throws MolangCompileException {
+        Differential.assertSameResults(source, List.of("x"), VALUES);
+    }
+
+    private static Compound firstCompound(MolangExpr expr) {
+        if (expr instanceof Compound compound) return compound;
+        for (MolangExpr child : expr.children()) {
+            Compound found = firstCompound(child);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+}
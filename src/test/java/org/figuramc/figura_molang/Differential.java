@@ -0,0 +1,79 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.MolangCompilerOptions.OptimizationLevel;
+import org.figuramc.figura_molang.compile.MolangCompileException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Evaluates the same source interpreted and compiled, with and without optimizations, and checks every way gives the same bits.
+// The unoptimized interpreter is the reference. Each way gets its own instance, so actor variables change the same way in each.
+final class Differential {
+
+    private Differential() {}
+
+    private record Way(String name, OptimizationLevel level, boolean interpreted) {}
+
+    private static final List<Way> WAYS = List.of(
+            new Way("interpreted NONE", OptimizationLevel.NONE, true),
+            new Way("interpreted FULL", OptimizationLevel.FULL, true),
+            new Way("compiled NONE", OptimizationLevel.NONE, false),
+            new Way("compiled FULL", OptimizationLevel.FULL, false)
+    );
+
+    static MolangInstance<Object, RuntimeException> instance(OptimizationLevel level, boolean interpreted) {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0, null,
+                MolangCompilerOptions.DEFAULT.withOptimizationLevel(level));
+        instance.setPromotionThreshold(interpreted ? Integer.MAX_VALUE : 0);
+        return instance;
+    }
+
+    // Evaluate source with each row of args in turn, in every way, and check they agree
+    static void assertSameResults(String source, List<String> contextVariables, float[]... argRows) throws MolangCompileException {
+        float[][][] results = new float[WAYS.size()][][];
+        for (int w = 0; w < WAYS.size(); w++) {
+            Way way = WAYS.get(w);
+            CompiledMolang<Object> compiled = instance(way.level, way.interpreted).compile(source, contextVariables, Map.of());
+            // Some exprs can't be interpreted, and get a class either way
+            if (!way.interpreted) assertFalse(compiled instanceof InterpretedMolang, way.name + " of " + source + " was interpreted");
+            results[w] = new float[argRows.length][];
+            for (int row = 0; row < argRows.length; row++) results[w][row] = evaluate(compiled, argRows[row]);
+        }
+        for (int w = 1; w < WAYS.size(); w++) {
+            for (int row = 0; row < argRows.length; row++) {
+                if (!sameBits(results[0][row], results[w][row]))
+                    fail(source + " with " + Arrays.toString(argRows[row]) + ": " + WAYS.get(0).name + " gave " + Arrays.toString(results[0][row])
+                            + ", " + WAYS.get(w).name + " gave " + Arrays.toString(results[w][row]));
+            }
+        }
+    }
+
+    static float[] evaluate(CompiledMolang<Object> compiled, float[] args) {
+        return switch (args.length) {
+            case 0 -> compiled.evaluate().copy();
+            case 1 -> compiled.evaluate(args[0]).copy();
+            case 2 -> compiled.evaluate(args[0], args[1]).copy();
+            case 3 -> compiled.evaluate(args[0], args[1], args[2]).copy();
+            default -> throw new IllegalArgumentException("Too many args for a test: " + args.length);
+        };
+    }
+
+    // Like Arrays.equals, but -0 and 0 differ, and all NaNs are the same
+    static boolean sameBits(float[] a, float[] b) {
+        if (a.length != b.length) return false;
+        for (int i = 0; i < a.length; i++)
+            if (Float.floatToIntBits(a[i]) != Float.floatToIntBits(b[i])) return false;
+        return true;
+    }
+
+    // One row per value, for exprs of one context variable
+    static float[][] rows(float... values) {
+        float[][] rows = new float[values.length][];
+        for (int i = 0; i < values.length; i++) rows[i] = new float[] { values[i] };
+        return rows;
+    }
+
+}
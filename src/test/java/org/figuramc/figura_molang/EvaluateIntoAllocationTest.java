@@ -0,0 +1,105 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class EvaluateIntoAllocationTest {
+
+    private static final int WARMUP_CALLS = 20_000;
+    private static final int CALLS = 100_000;
+    // Reading the counter may itself allocate a little, but nothing close to a byte per call
+    private static final long SLACK_BYTES = 4096;
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final MolangInstance<Object, RuntimeException> instance = compiledInstance();
+
+    private static MolangInstance<Object, RuntimeException> compiledInstance() {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0);
+        instance.setPromotionThreshold(0);
+        return instance;
+    }
+
+    private CompiledMolang<Object> compile(String source, String... contextVariables) throws MolangCompileException {
+        CompiledMolang<Object> compiled = instance.compile(source, List.of(contextVariables), Map.of());
+        assertFalse(compiled instanceof InterpretedMolang);
+        return compiled;
+    }
+
+    @Test
+    public void evaluateIntoDoesNotAllocate() throws MolangCompileException {
+        CompiledMolang<Object> zero = compile("{ v.n = v.n + 1; return [math.sin(v.n), 2, 3]; }");
+        CompiledMolang<Object> one = compile("[c.x, c.x * 2]", "x");
+        CompiledMolang<Object> three = compile("[c.x, c.y, c.z] * 2", "x", "y", "z");
+        CompiledMolang<Object> eight = compile("{ t.v = [c.a, c.b, c.c, c.d, c.e, c.f, c.g, c.h]; return t.v * t.v; }", "a", "b", "c", "d", "e", "f", "g", "h");
+        float[] dst = new float[32];
+        assertNoAllocation("evaluateInto", i -> {
+            zero.evaluateInto(dst, 0);
+            one.evaluateInto(dst, 3, i);
+            three.evaluateInto(dst, 5, i, 1, 2);
+            eight.evaluateInto(dst, 8, i, 1, 2, 3, 4, 5, 6, 7);
+        });
+        eight.evaluateInto(dst, 8, 7, 1, 2, 3, 4, 5, 6, 7);
+        assertArrayEquals(new float[] { 49, 1, 4, 9, 16, 25, 36, 49 }, java.util.Arrays.copyOfRange(dst, 8, 16));
+    }
+
+    @Test
+    public void evaluateScalarDoesNotAllocate() throws MolangCompileException {
+        CompiledMolang<Object> zero = compile("v.m = v.m + 1");
+        CompiledMolang<Object> one = compile("c.x * 2 + 1", "x");
+        CompiledMolang<Object> three = compile("math.sqrt(c.x * c.x + c.y * c.y + c.z * c.z)", "x", "y", "z");
+        CompiledMolang<Object> eight = compile("c.a + c.b * c.c - c.d / (c.e + 1) + math.max(c.f, c.g) * c.h", "a", "b", "c", "d", "e", "f", "g", "h");
+        float[] sum = new float[1];
+        assertNoAllocation("evaluateScalar", i -> {
+            sum[0] += zero.evaluateScalar();
+            sum[0] += one.evaluateScalar(i);
+            sum[0] += three.evaluateScalar(i, 1, 2);
+            sum[0] += eight.evaluateScalar(i, 1, 2, 3, 4, 5, 6, 7);
+        });
+        assertEquals(5f, three.evaluateScalar(0, 3, 4));
+    }
+
+    @Test
+    public void evaluateBatchDoesNotAllocate() throws MolangCompileException {
+        int rows = 64;
+        CompiledMolang<Object> zero = compile("[v.k = v.k + 1, 1]");
+        CompiledMolang<Object> one = compile("c.x * 2 + 1", "x");
+        CompiledMolang<Object> three = compile("[c.x, c.y, c.z] * 2", "x", "y", "z");
+        CompiledMolang<Object> eight = compile("{ t.v = [c.a, c.b, c.c, c.d, c.e, c.f, c.g, c.h]; return t.v * t.v; }", "a", "b", "c", "d", "e", "f", "g", "h");
+        float[] args = new float[8 * rows];
+        for (int i = 0; i < args.length; i++) args[i] = i;
+        float[] out = new float[8 * rows];
+        assertNoAllocation("evaluateBatch", i -> {
+            zero.evaluateBatch(args, rows, out);
+            one.evaluateBatch(args, rows, out);
+            three.evaluateBatch(args, rows, out);
+            eight.evaluateBatch(args, rows, out);
+        });
+        // Row 1 of the last batch squares 1, 65, 129...
+        assertEquals(1f, out[8]);
+        assertEquals(65f * 65f, out[9]);
+    }
+
+    // Warm calls up, so they're JIT-compiled, then check running them many more times allocates nothing on this thread
+    private static void assertNoAllocation(String name, Calls calls) {
+        assumeTrue(THREADS.isThreadAllocatedMemorySupported() && THREADS.isThreadAllocatedMemoryEnabled(), "Thread allocation counting is unavailable");
+        for (int i = 0; i < WARMUP_CALLS; i++) calls.run(i);
+        long before = THREADS.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < CALLS; i++) calls.run(i);
+        long allocated = THREADS.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(allocated < SLACK_BYTES, name + " allocated " + allocated + " bytes over " + CALLS + " calls");
+    }
+
+    @FunctionalInterface
+    private interface Calls {
+        void run(int i);
+    }
+
+}
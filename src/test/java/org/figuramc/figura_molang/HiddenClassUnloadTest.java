@@ -0,0 +1,53 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class HiddenClassUnloadTest {
+
+    @Test
+    public void hiddenClassUnloadsOnceUnreachable() throws InterruptedException, MolangCompileException {
+        // No compile cache and no interpreter, so the CompiledMolang is the only thing holding its class
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0, new MolangProgramCache(true));
+        instance.setPromotionThreshold(0);
+        WeakReference<Class<?>> clazz = compileAndForget(instance);
+        assertTrue(waitForCollection(clazz), "Hidden class was never unloaded");
+    }
+
+    @Test
+    public void classLoaderClassStaysLoaded() throws InterruptedException, MolangCompileException {
+        // The default mode keeps every class for as long as the cache lives
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0, new MolangProgramCache(false));
+        instance.setPromotionThreshold(0);
+        WeakReference<Class<?>> clazz = compileAndForget(instance);
+        assertFalse(waitForCollection(clazz), "Class loader class was unloaded while its cache is alive");
+    }
+
+    // Kept out of the test method, so no local variable in it still refers to the CompiledMolang
+    private static WeakReference<Class<?>> compileAndForget(MolangInstance<Object, RuntimeException> instance) throws MolangCompileException {
+        CompiledMolang<Object> compiled = instance.compile("math.sin(c.x) * 3 + 1", List.of("x"), Map.of());
+        assertEquals(1f, compiled.evaluate(0).get(0));
+        assertFalse(compiled instanceof InterpretedMolang);
+        return new WeakReference<>(compiled.getClass());
+    }
+
+    // Classes are only unloaded by a GC that decides to, so keep asking for a while
+    private static boolean waitForCollection(WeakReference<?> reference) throws InterruptedException {
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            List<byte[]> garbage = new ArrayList<>();
+            for (int j = 0; j < 64; j++) garbage.add(new byte[1 << 16]);
+            garbage.clear();
+            System.gc();
+            Thread.sleep(20);
+        }
+        return reference.get() == null;
+    }
+
+}
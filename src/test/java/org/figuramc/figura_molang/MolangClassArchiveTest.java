@@ -0,0 +1,75 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MolangClassArchiveTest {
+
+    private static final List<String> SOURCES = List.of("c.a * 2 + 1", "math.sin(c.a) * 4", "[c.a, 3] * 2");
+
+    @Test
+    public void reopenedArchiveHits() throws IOException, MolangCompileException {
+        Path file = Files.createTempFile("molang-archive", ".bin");
+        try {
+            Files.delete(file);
+            try (MolangClassArchive archive = MolangClassArchive.open(file)) {
+                compileAndCheck(archive);
+                assertEquals(0, archive.hits());
+            }
+            try (MolangClassArchive archive = MolangClassArchive.open(file)) {
+                compileAndCheck(archive);
+                assertEquals(1, archive.hits());
+                assertEquals(0, archive.corruptions());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void truncatedArchiveIsCorruptButUsable() throws IOException, MolangCompileException {
+        Path file = Files.createTempFile("molang-archive", ".bin");
+        try {
+            Files.delete(file);
+            try (MolangClassArchive archive = MolangClassArchive.open(file)) {
+                compileAndCheck(archive);
+            }
+            // Cut off the end, where the index is
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() / 2);
+            }
+            try (MolangClassArchive archive = MolangClassArchive.open(file)) {
+                assertEquals(1, archive.corruptions());
+                compileAndCheck(archive);
+            }
+            // Rewritten whole on close
+            try (MolangClassArchive archive = MolangClassArchive.open(file)) {
+                compileAndCheck(archive);
+                assertEquals(0, archive.corruptions());
+                assertEquals(1, archive.hits());
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static void compileAndCheck(MolangClassArchive archive) throws MolangCompileException {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0, new MolangProgramCache(false, archive));
+        instance.setPromotionThreshold(0);
+        List<CompiledMolang<Object>> compiled = instance.compileAll(SOURCES, List.of("a"), Map.of());
+        assertEquals(5f, compiled.get(0).evaluate(2).get(0));
+        assertEquals(0f, compiled.get(1).evaluate(0).get(0));
+        assertEquals("[4.0, 6.0]", compiled.get(2).evaluate(2).toString());
+    }
+
+}
@@ -0,0 +1,50 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.figuramc.figura_molang.compile.MolangParser;
+
+import java.util.List;
+import java.util.Map;
+
+// Measures parsing alone, lexing included, without any optimization passes or class generation
+public class ParseBenchmark {
+
+    private static final List<String> SOURCES = List.of(
+            "1",
+            "c.x * 2 + 1",
+            "math.sin(q.count(c.x, 90) * 90) * 15 + c.x",
+            "v.x = math.clamp(v.x + c.x * 0.1, -1, 1)",
+            "math.lerp(v.a, v.b, 0.25) * (1 - math.abs(c.y)) / (2 + c.x * c.x) + 3.5",
+            "{ t.a = math.cos(c.x * 45); t.b = [t.a, -t.a, 1] * 0.5; v.3$pose = t.b + [c.y, 0, 0]; return math.sum(v.3$pose) > 0.5 ? 1 : 0; }",
+            "c.x > 0 && c.y < 10 || v.flag == 1 ? pi * c.x : -pi * c.y"
+    );
+
+    public static void main(String[] args) throws MolangCompileException {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0);
+        List<String> contextVariables = List.of("x", "y");
+        Map<String, float[]> constants = Map.of("pi", new float[] { (float) Math.PI });
+        // Parse each once first, so actor variables already exist, like they would after loading
+        for (String source : SOURCES) new MolangParser<>(source, instance, contextVariables, constants).parseAll();
+
+        long chars = 0;
+        for (String source : SOURCES) {
+            chars += source.length();
+            Benchmark.run("parse " + abbreviate(source), 1000, i -> parse(instance, source, contextVariables, constants));
+        }
+        double nanos = Benchmark.run("parse all, round robin", SOURCES.size() * 1000, i -> parse(instance, SOURCES.get(i % SOURCES.size()), contextVariables, constants));
+        System.out.printf("%.1f MB/s%n", chars / (double) SOURCES.size() / nanos * 1000);
+    }
+
+    private static float parse(MolangInstance<Object, RuntimeException> instance, String source, List<String> contextVariables, Map<String, float[]> constants) {
+        try {
+            return new MolangParser<>(source, instance, contextVariables, constants).parseAll().returnCount();
+        } catch (MolangCompileException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String abbreviate(String source) {
+        return source.length() <= 40 ? source : source.substring(0, 37) + "...";
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.ast.FunctionCall;
+import org.figuramc.figura_molang.ast.Literal;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.ast.VectorConstructor;
+import org.figuramc.figura_molang.ast.control_flow.Compound;
+import org.figuramc.figura_molang.ast.control_flow.LogicalAnd;
+import org.figuramc.figura_molang.ast.control_flow.LogicalOr;
+import org.figuramc.figura_molang.ast.control_flow.Return;
+import org.figuramc.figura_molang.ast.control_flow.Ternary;
+import org.figuramc.figura_molang.ast.vars.ActorVariable;
+import org.figuramc.figura_molang.ast.vars.ActorVariableAssign;
+import org.figuramc.figura_molang.ast.vars.ContextVariable;
+import org.figuramc.figura_molang.ast.vars.TempVariable;
+import org.figuramc.figura_molang.ast.vars.TempVariableAssign;
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.figuramc.figura_molang.compile.MolangParser;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Parses a fixed corpus and compares the trees, unoptimized, against what they're known to be.
+// Trees are written as s-expressions, like "(+ 1 (* c.x 2))".
+public class ParserGoldenTest {
+
+    private static final List<String> CONTEXT = List.of("x", "y");
+    private static final Map<String, float[]> CONSTANTS = Map.of("pi", new float[] { 3.5f }, "vec", new float[] { 1, 2 });
+
+    @Test
+    public void precedence() throws MolangCompileException {
+        assertTree("1 + 2 * 3", "(+ 1 (* 2 3))");
+        assertTree("1 * 2 + 3", "(+ (* 1 2) 3)");
+        assertTree("(1 + 2) * 3", "(* (+ 1 2) 3)");
+        assertTree("c.x + c.y % 2 / 3", "(+ c.x (/ (% c.y 2) 3))");
+        assertTree("1 < 2 + 3", "(< 1 (+ 2 3))");
+        assertTree("1 + 2 == 3 * 1", "(== (+ 1 2) (* 3 1))");
+        assertTree("c.x == 1 && c.y != 2 || c.x >= 3", "(|| (&& (== c.x 1) (!= c.y 2)) (>= c.x 3))");
+        assertTree("c.x || c.y && 1", "(|| c.x (&& c.y 1))");
+        assertTree("c.x > 1 ? c.y + 1 : c.y * 2", "(? (> c.x 1) (+ c.y 1) (* c.y 2))");
+        assertTree("c.x && c.y ? 1 : 2", "(? (&& c.x c.y) 1 2)");
+    }
+
+    @Test
+    public void associativity() throws MolangCompileException {
+        assertTree("1 - 2 - 3", "(- (- 1 2) 3)");
+        assertTree("c.x / c.y / 2", "(/ (/ c.x c.y) 2)");
+        assertTree("c.x % 3 % 2", "(% (% c.x 3) 2)");
+        assertTree("1 == 2 == 3", "(== (== 1 2) 3)");
+        assertTree("c.x && c.y && 1", "(&& (&& c.x c.y) 1)");
+        assertTree("c.x || c.y || 1", "(|| (|| c.x c.y) 1)");
+        assertTree("v.a = v.b = 2", "(v= (v= 2))");
+    }
+
+    @Test
+    public void unaryMinus() throws MolangCompileException {
+        assertTree("-1", "(neg 1)");
+        assertTree("-c.x", "(neg c.x)");
+        assertTree("--c.x", "(neg (neg c.x))");
+        assertTree("-c.x * 2", "(* (neg c.x) 2)");
+        assertTree("2 * -c.x", "(* 2 (neg c.x))");
+        assertTree("1 - -c.x", "(- 1 (neg c.x))");
+        assertTree("-(c.x + 1)", "(neg (+ c.x 1))");
+        assertTree("-[c.x, 1]", "(neg [c.x, 1])");
+    }
+
+    // Not part of the language here, so it must be rejected rather than misparsed
+    @Test
+    public void nullCoalescing() {
+        assertError("v.a ?? 1", "v.a <?>? 1");
+        assertError("v.a ?? v.b ?? 2", "v.a <?>? v.b ?? 2");
+        assertError("1 + v.a ?? 1", "1 + v.a <?>? 1");
+    }
+
+    @Test
+    public void ternaries() throws MolangCompileException {
+        assertTree("1 ? 2 : 3", "(? 1 2 3)");
+        assertTree("c.x ? (c.y ? 1 : 2) : 3", "(? c.x (? c.y 1 2) 3)");
+        assertTree("c.x ? 1 : c.y ? 2 : 3", "(? c.x 1 (? c.y 2 3))");
+        assertTree("c.x ? [1, 2] : [3, c.y]", "(? c.x [1, 2] [3, c.y])");
+        assertTree("{ c.x > 0 ? return 1 : 0; return 2; }", "{(? (> c.x 0) (return 1) 0); (return 2)}");
+    }
+
+    @Test
+    public void leaves() throws MolangCompileException {
+        assertTree("2.5", "2.5");
+        assertTree("0.5", "0.5");
+        assertTree("context.y", "c.y");
+        assertTree("pi * 2", "(* 3.5 2)");
+        assertTree("vec", "[1, 2]");
+        assertTree("math.sin(c.x) + pi", "(+ (math.sin c.x) 3.5)");
+        assertTree("math.clamp(c.x, 0, 1)", "(math.clamp c.x 0 1)");
+        assertTree("{ t.a = c.x; v.b = t.a * 2; return [t.a, v.b]; }", "{(t= c.x); (v= (* t.a 2)); (return [t.a, v.b])}");
+    }
+
+    @Test
+    public void errorPositions() {
+        assertError("1 +", "1 <+>");
+        assertError("(1 + 2", "(1 + <2>");
+        assertError("1 ? 2", "1 ? <2>");
+        // The middle of a ternary only takes binary operators, so a nested one needs parentheses
+        assertError("c.x ? c.y ? 1 : 2 : 3", "c.x ? c.y< >? 1 : 2 : 3");
+        assertError("c.z + 1", "<c.z> + 1");
+        assertError("math.foo(1)", "<math.foo>(1)");
+        assertError(".5", "<.>5");
+        assertError("", "<>");
+        assertError("1 + )", "1 +< >)");
+        assertError("c.x ? [1, 2] : 3", "c.x ? [1, 2] :< 3>");
+        assertError("return 1", "<return> 1");
+        assertError("{ t.a = 1; t.b }", "{ t.a = 1; <t.b >}");
+        assertError("[1, 2] && 1", "[1, 2] <&&> 1");
+        assertError("q.nope(1)", "<q.nope>(1)");
+        assertError("1.2.3", "<1.2.>3");
+    }
+
+    private static void assertTree(String source, String expected) throws MolangCompileException {
+        assertEquals(expected, print(parse(source)), source);
+    }
+
+    // expected is the source with the reported region in <>
+    private static void assertError(String source, String expected) {
+        MolangCompileException ex = assertThrows(MolangCompileException.class, () -> parse(source), source);
+        assertEquals(expected, source.substring(0, ex.start) + "<" + source.substring(ex.start, ex.end) + ">" + source.substring(ex.end), source);
+    }
+
+    private static MolangExpr parse(String source) throws MolangCompileException {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0);
+        return new MolangParser<>(source, instance, CONTEXT, CONSTANTS).parseAll();
+    }
+
+    static String print(MolangExpr expr) {
+        if (expr instanceof Literal literal) return number(literal.value);
+        if (expr instanceof ContextVariable variable) return "c." + variable.name;
+        if (expr instanceof ActorVariable variable) return "v." + variable.name;
+        if (expr instanceof TempVariable variable) return "t." + variable.name;
+        if (expr instanceof FunctionCall call) return "(" + operator(call.func.name()) + " " + printAll(call.args) + ")";
+        if (expr instanceof Return ret) return "(return " + print(ret.expr) + ")";
+        if (expr instanceof Compound compound) return "{" + compound.exprs.stream().map(ParserGoldenTest::print).collect(Collectors.joining("; ")) + "}";
+        if (expr instanceof VectorConstructor) return "[" + expr.children().stream().map(ParserGoldenTest::print).collect(Collectors.joining(", ")) + "]";
+        String kind = expr instanceof ActorVariableAssign ? "v=" : expr instanceof TempVariableAssign ? "t="
+                : expr instanceof Ternary ? "?" : expr instanceof LogicalAnd ? "&&" : expr instanceof LogicalOr ? "||"
+                : expr.getClass().getSimpleName();
+        return "(" + kind + (expr.children().isEmpty() ? "" : " " + printAll(expr.children())) + ")";
+    }
+
+    private static String printAll(List<? extends MolangExpr> exprs) {
+        return exprs.stream().map(ParserGoldenTest::print).collect(Collectors.joining(" "));
+    }
+
+    // Operators are named like "a + b" and "-a"
+    private static String operator(String name) {
+        if (name.startsWith("a ")) return name.substring(2, name.length() - 2);
+        if (name.equals("-a")) return "neg";
+        return name;
+    }
+
+    private static String number(float value) {
+        return value == (int) value && Float.floatToRawIntBits(value) != Float.floatToRawIntBits(-0f) ? Integer.toString((int) value) : Float.toString(value);
+    }
+
+}
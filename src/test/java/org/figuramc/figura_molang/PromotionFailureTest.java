@@ -0,0 +1,56 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.figuramc.figura_molang.compile.jvm.JvmClassGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PromotionFailureTest {
+
+    @Test
+    public void failedPromotionKeepsInterpreting() throws MolangCompileException {
+        int[] attempts = { 0 };
+        MolangProgramCache failing = new MolangProgramCache() {
+            @Override
+            public synchronized MolangProgram define(String fingerprint, JvmClassGenerator.GeneratedClass generated) {
+                attempts[0]++;
+                throw new IllegalStateException("broken define");
+            }
+        };
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0, failing);
+        instance.setPromotionThreshold(3);
+        CompiledMolang<Object> compiled = instance.compile("c.x * 2 + 1", List.of("x"), Map.of());
+        InterpretedMolang<Object> interpreted = interpreted(compiled);
+
+        // Crossing the threshold must not change what callers see
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i * 2 + 1f, compiled.evaluate(i).get(0));
+            assertEquals(i * 2 + 1f, compiled.evaluateScalar(i));
+        }
+        assertEquals(1, attempts[0], "Promotion was retried");
+        assertFalse(interpreted.isPromoted());
+        assertTrue(interpreted.isPromotionFailed());
+        assertEquals("broken define", interpreted.getPromotionFailure().getMessage());
+    }
+
+    @Test
+    public void successfulPromotionHasNoFailure() throws MolangCompileException {
+        MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0);
+        instance.setPromotionThreshold(2);
+        InterpretedMolang<Object> interpreted = interpreted(instance.compile("c.x * 2 + 1", List.of("x"), Map.of()));
+        for (int i = 0; i < 4; i++) assertEquals(i * 2 + 1f, interpreted.evaluate(i).get(0));
+        assertTrue(interpreted.isPromoted());
+        assertNull(interpreted.getPromotionFailure());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static InterpretedMolang<Object> interpreted(CompiledMolang<Object> compiled) {
+        assertTrue(compiled instanceof InterpretedMolang, "Expected an interpreted expression");
+        return (InterpretedMolang<Object>) compiled;
+    }
+
+}
@@ -0,0 +1,37 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.MolangCompilerOptions.OptimizationLevel;
+import org.figuramc.figura_molang.compile.MolangCompileException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Compares compiled expressions with and without StrengthReduction, and with fast math, which also turns math.pow(x, 3 or 4) into multiplies
+public class StrengthReductionBenchmark {
+
+    private static final List<String> SOURCES = List.of(
+            "math.pow(c.x, 2)", "math.pow(c.x, -1)", "math.pow(c.x, 3)", "math.pow(c.x, 0.5)",
+            "c.x / 4", "c.x % 8", "math.mod(c.x, 16)"
+    );
+
+    public static void main(String[] args) throws MolangCompileException {
+        Random random = new Random(1);
+        float[] inputs = new float[4096];
+        for (int i = 0; i < inputs.length; i++) inputs[i] = (random.nextFloat() - 0.5f) * 1000;
+
+        MolangCompilerOptions none = MolangCompilerOptions.DEFAULT.withOptimizationLevel(OptimizationLevel.NONE);
+        MolangCompilerOptions full = MolangCompilerOptions.DEFAULT;
+        MolangCompilerOptions fast = MolangCompilerOptions.DEFAULT.withFastMath(true);
+        for (String source : SOURCES) {
+            for (MolangCompilerOptions options : List.of(none, full, fast)) {
+                MolangInstance<Object, RuntimeException> instance = new MolangInstance<>(null, null, DefaultQueries.getDefaultQueries(), 0, null, options);
+                instance.setPromotionThreshold(0);
+                CompiledMolang<Object> compiled = instance.compile(source, List.of("x"), Map.of());
+                String name = source + (options == none ? " NONE" : options == full ? " FULL" : " FULL+fastMath");
+                Benchmark.run(name, inputs.length, i -> compiled.evaluateScalar(inputs[i]));
+            }
+        }
+    }
+
+}
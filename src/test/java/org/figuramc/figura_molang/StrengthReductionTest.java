@@ -0,0 +1,89 @@
+package org.figuramc.figura_molang;
+
+import org.figuramc.figura_molang.MolangCompilerOptions.OptimizationLevel;
+import org.figuramc.figura_molang.ast.FunctionCall;
+import org.figuramc.figura_molang.ast.MolangExpr;
+import org.figuramc.figura_molang.compile.MolangCompileException;
+import org.figuramc.figura_molang.func.FloatFunction;
+import org.figuramc.figura_molang.func.MolangFunction;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StrengthReductionTest {
+
+    private static final float[] SPECIAL_VALUES = {
+            0f, -0f, 1f, -1f, 0.5f, -0.5f, 2f, -3f, 7.25f,
+            Float.MIN_VALUE, -Float.MIN_VALUE, Float.MIN_NORMAL, -Float.MIN_NORMAL, Math.nextDown(Float.MIN_NORMAL), 1e-40f,
+            Float.MAX_VALUE, -Float.MAX_VALUE, 1e30f, -1e20f, 8388608.5f, 16777217f,
+            Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NaN
+    };
+
+    // Special values, then random bit patterns, which cover every exponent and NaN payloads
+    private static float[][] values() {
+        Random random = new Random(1234);
+        float[] values = new float[SPECIAL_VALUES.length + 4000];
+        System.arraycopy(SPECIAL_VALUES, 0, values, 0, SPECIAL_VALUES.length);
+        for (int i = SPECIAL_VALUES.length; i < values.length; i++)
+            values[i] = i % 2 == 0 ? Float.intBitsToFloat(random.nextInt()) : (random.nextFloat() - 0.5f) * (1 << random.nextInt(30));
+        return Differential.rows(values);
+    }
+
+    @Test
+    public void powMatchesUnreduced() throws MolangCompileException {
+        float[][] values = values();
+        for (String exponent : List.of("-4", "-3", "-2", "-1", "0", "1", "2", "3", "4", "0.5", "2.5"))
+            Differential.assertSameResults("math.pow(c.x, " + exponent + ")", List.of("x"), values);
+        Differential.assertSameResults("math.pow([c.x, 3], 2)", List.of("x"), values);
+    }
+
+    @Test
+    public void divisionByPowerOfTwoMatchesUnreduced() throws MolangCompileException {
+        float[][] values = values();
+        for (String divisor : List.of("2", "-4", "0.5", "0.25", "65536", "3", "[2, 8]", "[2, 3]"))
+            Differential.assertSameResults("c.x / " + divisor, List.of("x"), values);
+        Differential.assertSameResults("[c.x, 1] / 8", List.of("x"), values);
+    }
+
+    @Test
+    public void remainderByPowerOfTwoMatchesUnreduced() throws MolangCompileException {
+        float[][] values = values();
+        for (String divisor : List.of("1", "2", "-8", "1024", "0.5", "3", "[4, 2]"))
+            Differential.assertSameResults("c.x % " + divisor, List.of("x"), values);
+        Differential.assertSameResults("math.mod(c.x, 16)", List.of("x"), values);
+        Differential.assertSameResults("math.mod(c.x, -2)", List.of("x"), values);
+    }
+
+    // The tests above pass trivially if nothing gets rewritten, so check they do
+    @Test
+    public void rewritesHappen() throws MolangCompileException {
+        assertRewritten("math.pow(c.x, 2)", FloatFunction.intPow(2), FloatFunction.POW);
+        assertRewritten("math.pow(c.x, -1)", FloatFunction.intPow(-1), FloatFunction.POW);
+        assertRewritten("math.pow(c.x, 0.5)", FloatFunction.SQRT_POW, FloatFunction.POW);
+        assertRewritten("c.x / 4", FloatFunction.MUL_OP, FloatFunction.DIV_OP);
+        assertRewritten("c.x % -8", FloatFunction.REM_POWER_OF_TWO, FloatFunction.MOD_OP);
+        assertRewritten("math.mod(c.x, 4)", FloatFunction.REM_POWER_OF_TWO, FloatFunction.MOD);
+        // Not exact as multiplies, so left alone without fast math
+        assertRewritten("math.pow(c.x, 3)", FloatFunction.POW, FloatFunction.intPow(3));
+        assertRewritten("c.x / 3", FloatFunction.DIV_OP, FloatFunction.MUL_OP);
+        assertRewritten("c.x % 0.5", FloatFunction.MOD_OP, FloatFunction.REM_POWER_OF_TWO);
+    }
+
+    private static void assertRewritten(String source, MolangFunction expected, MolangFunction replaced) throws MolangCompileException {
+        MolangExpr expr = Differential.instance(OptimizationLevel.FULL, false).parse(source, List.of("x"), Map.of()).expr();
+        assertTrue(calls(expr, expected), source + " should call " + expected);
+        assertFalse(calls(expr, replaced), source + " should not call " + replaced);
+    }
+
+    private static boolean calls(MolangExpr expr, MolangFunction func) {
+        if (expr instanceof FunctionCall call && call.func == func) return true;
+        for (MolangExpr child : expr.children())
+            if (calls(child, func)) return true;
+        return false;
+    }
+
+}
@@ -0,0 +1,130 @@
+package org.figuramc.figura_molang.func;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.function.DoubleUnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// Sweeps each function's domain against java.lang.Math, and checks the error bounds documented on FastFloatMath
+public class FastFloatMathTest {
+
+    private static final int SAMPLES = 200_000;
+    private static final float[] SPECIAL_VALUES = { 0f, -0f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+
+    @FunctionalInterface
+    private interface FloatOp {
+        float apply(float x);
+    }
+
+    @Test
+    public void sinAndCosWithinAbsoluteError() {
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Mostly the first few turns, where values are used, but also large angles
+            float degrees = i % 4 == 0 ? (random.nextFloat() - 0.5f) * 2e6f : (random.nextFloat() - 0.5f) * 1440f;
+            assertAbsoluteError("sinDeg", degrees, FastFloatMath.sinDeg(degrees), Math.sin(Math.toRadians(degrees % 360)), 1e-7);
+            assertAbsoluteError("cosDeg", degrees, FastFloatMath.cosDeg(degrees), Math.cos(Math.toRadians(degrees % 360)), 1e-7);
+        }
+        // Exact at multiples of 90 degrees, including ones too large for sin(toRadians(x)) to get right
+        for (float degrees : new float[] { 0, 90, 180, 270, 360, -90, -180, 450, 3600, 90 * 12345f, 90 * 0x1p20f, -90 * 0x1p25f }) {
+            int quadrant = (int) Math.floorMod((long) ((double) degrees / 90), 4);
+            assertEquals(new float[] { 0, 1, 0, -1 }[quadrant], FastFloatMath.sinDeg(degrees) + 0f, "sinDeg(" + degrees + ")");
+            assertEquals(new float[] { 1, 0, -1, 0 }[quadrant], FastFloatMath.cosDeg(degrees) + 0f, "cosDeg(" + degrees + ")");
+        }
+        assertSpecialValues("sinDeg", FastFloatMath::sinDeg, x -> Math.sin(Math.toRadians(x)));
+        assertSpecialValues("cosDeg", FastFloatMath::cosDeg, x -> Math.cos(Math.toRadians(x)));
+    }
+
+    @Test
+    public void expWithinTwoUlp() {
+        Random random = new Random(2);
+        for (int i = 0; i < SAMPLES; i++) {
+            // The whole range with finite non-zero results, which ends in subnormals, and a denser look near 0
+            float x = i % 2 == 0 ? -104f + random.nextFloat() * 193f : (random.nextFloat() - 0.5f) * 20f;
+            assertUlpError("exp", x, FastFloatMath.exp(x), Math.exp(x), 2);
+        }
+        // Either side of where the result overflows to infinity, or underflows to 0
+        for (float x : new float[] { 88.72283f, 88.72284f, Math.nextUp(88.72284f), 89f, -103.97207f, -103.97208f, Math.nextDown(-103.97208f), -104f, -87.33655f, 1e-30f, -1e-30f })
+            assertUlpError("exp", x, FastFloatMath.exp(x), Math.exp(x), 2);
+        assertSpecialValues("exp", FastFloatMath::exp, Math::exp);
+    }
+
+    @Test
+    public void lnWithinOneUlp() {
+        Random random = new Random(3);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Every positive finite float is as likely as any other, so all exponents are covered, subnormals included
+            float x = Float.intBitsToFloat(random.nextInt(0x7F800000));
+            if (x == 0) continue;
+            assertUlpError("ln", x, FastFloatMath.ln(x), Math.log(x), 1);
+        }
+        for (float x : new float[] { 1f, Math.nextUp(1f), Math.nextDown(1f), (float) Math.sqrt(2), 0.5f, 2f, (float) Math.E,
+                Float.MIN_VALUE, Float.MIN_NORMAL, Math.nextDown(Float.MIN_NORMAL), Float.MAX_VALUE })
+            assertUlpError("ln", x, FastFloatMath.ln(x), Math.log(x), 1);
+        assertSpecialValues("ln", FastFloatMath::ln, Math::log);
+        // Negative numbers have no logarithm
+        assertTrue(Float.isNaN(FastFloatMath.ln(-1f)));
+        assertTrue(Float.isNaN(FastFloatMath.ln(-Float.MIN_VALUE)));
+    }
+
+    @Test
+    public void atanWithinAbsoluteError() {
+        Random random = new Random(4);
+        for (int i = 0; i < SAMPLES; i++) {
+            // Spread over the angles, so both the small and the inverted ranges get used
+            float x = i % 2 == 0 ? (float) Math.tan((random.nextDouble() - 0.5) * Math.PI) : (random.nextFloat() - 0.5f) * 8f;
+            assertAbsoluteError("atanDeg", x, FastFloatMath.atanDeg(x), Math.toDegrees(Math.atan(x)), 1e-5);
+        }
+        // Where the range reductions switch over
+        float tan15 = (float) Math.tan(Math.PI / 12);
+        for (float x : new float[] { 1f, Math.nextUp(1f), Math.nextDown(1f), -1f, tan15, Math.nextUp(tan15), Math.nextDown(tan15), Float.MIN_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE })
+            assertAbsoluteError("atanDeg", x, FastFloatMath.atanDeg(x), Math.toDegrees(Math.atan(x)), 1e-5);
+        assertSpecialValues("atanDeg", FastFloatMath::atanDeg, x -> Math.toDegrees(Math.atan(x)));
+    }
+
+    @Test
+    public void powWithinRelativeError() {
+        Random random = new Random(5);
+        for (int i = 0; i < SAMPLES; i++) {
+            float a = (float) Math.exp((random.nextDouble() - 0.5) * 40), b = (random.nextFloat() - 0.5f) * 20f;
+            double exact = Math.pow(a, b);
+            // The bound is relative, so it only holds while the result is a normal float
+            if (!(exact >= Float.MIN_NORMAL && exact <= Float.MAX_VALUE)) continue;
+            double bound = (2 + Math.abs(b * Math.log(a))) * 0x1p-23;
+            float got = FastFloatMath.pow(a, b);
+            assertTrue(Math.abs(got - exact) <= bound * exact, "pow(" + a + ", " + b + ") = " + got + ", expected " + exact);
+        }
+        // Everything except a positive finite base and a finite exponent goes to Math.pow, so matches it exactly
+        float[] values = { 0f, -0f, 1f, -1f, 2f, -2f, 0.5f, 3f, -3f, Float.NaN, Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+        for (float a : values) {
+            for (float b : values) {
+                if (a > 0 && a != Float.POSITIVE_INFINITY && Float.isFinite(b)) continue;
+                float expected = (float) Math.pow(a, b);
+                assertEquals(expected, FastFloatMath.pow(a, b), "pow(" + a + ", " + b + ")");
+            }
+        }
+    }
+
+    private static void assertAbsoluteError(String name, float x, float got, double exact, double bound) {
+        assertTrue(Math.abs(got - exact) <= bound, name + "(" + x + ") = " + got + ", expected " + exact);
+    }
+
+    private static void assertUlpError(String name, float x, float got, double exact, double maxUlps) {
+        float rounded = (float) exact;
+        if (got == rounded) return;
+        assertTrue(Float.isFinite(got) && Float.isFinite(rounded), name + "(" + x + ") = " + got + ", expected " + rounded);
+        assertTrue(Math.abs(got - exact) <= maxUlps * Math.ulp(rounded), name + "(" + x + ") = " + got + ", expected " + exact);
+    }
+
+    // NaN and infinities give the same results as java.lang.Math, and zeros may have the other sign
+    private static void assertSpecialValues(String name, FloatOp fast, DoubleUnaryOperator exact) {
+        for (float x : SPECIAL_VALUES) {
+            float expected = (float) exact.applyAsDouble(x), got = fast.apply(x);
+            if (Float.isNaN(expected)) assertTrue(Float.isNaN(got), name + "(" + x + ") = " + got + ", expected NaN");
+            else assertTrue(got == expected, name + "(" + x + ") = " + got + ", expected " + expected);
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package org.figuramc.figura_molang.func;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Loops over float[] ranges using the Java Vector API, called by VectorApiFunction from both generated code and the interpreter.
+ * Every vector lives in one array, at the given offsets, with n elements each; the output may be the same range as an input.
+ * The last partial chunk of each range is handled with a mask, so there's no separate scalar loop.
+ *
+ * Only touch this class after checking VectorApiFunction.isAvailable(), since it can't load without jdk.incubator.vector.
+ * It lives in the vectorApi source set, the only one compiled with that module.
+ */
+public final class VectorApiKernels {
+
+    private VectorApiKernels() {}
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    // Like FloatOps.Binary, which this source set can't see
+    private interface Combine { float apply(float lane, float accum); }
+
+    // Store n copies of value, used to splat scalar args
+    public static void fill(float[] arr, int dst, float value, int n) {
+        FloatVector v = FloatVector.broadcast(SPECIES, value);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length())
+            v.intoArray(arr, dst + i);
+        v.intoArray(arr, dst + i, SPECIES.indexInRange(i, n));
+    }
+
+    // Element-wise functions. The public wrappers pass a constant operator, which the JIT needs in order to use SIMD instructions.
+    public static void neg(float[] arr, int dst, int a, int n) { unary(VectorOperators.NEG, arr, dst, a, n); }
+    public static void abs(float[] arr, int dst, int a, int n) { unary(VectorOperators.ABS, arr, dst, a, n); }
+    public static void sqrt(float[] arr, int dst, int a, int n) { unary(VectorOperators.SQRT, arr, dst, a, n); }
+    public static void add(float[] arr, int dst, int a, int b, int n) { binary(VectorOperators.ADD, arr, dst, a, b, n); }
+    public static void sub(float[] arr, int dst, int a, int b, int n) { binary(VectorOperators.SUB, arr, dst, a, b, n); }
+    public static void mul(float[] arr, int dst, int a, int b, int n) { binary(VectorOperators.MUL, arr, dst, a, b, n); }
+    public static void div(float[] arr, int dst, int a, int b, int n) { binary(VectorOperators.DIV, arr, dst, a, b, n); }
+    public static void min(float[] arr, int dst, int a, int b, int n) { binary(VectorOperators.MIN, arr, dst, a, b, n); }
+    public static void max(float[] arr, int dst, int a, int b, int n) { binary(VectorOperators.MAX, arr, dst, a, b, n); }
+
+    private static void unary(VectorOperators.Unary op, float[] arr, int dst, int a, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length())
+            FloatVector.fromArray(SPECIES, arr, a + i).lanewise(op).intoArray(arr, dst + i);
+        VectorMask<Float> tail = SPECIES.indexInRange(i, n);
+        FloatVector.fromArray(SPECIES, arr, a + i, tail).lanewise(op).intoArray(arr, dst + i, tail);
+    }
+
+    private static void binary(VectorOperators.Binary op, float[] arr, int dst, int a, int b, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length())
+            FloatVector.fromArray(SPECIES, arr, a + i).lanewise(op, FloatVector.fromArray(SPECIES, arr, b + i)).intoArray(arr, dst + i);
+        VectorMask<Float> tail = SPECIES.indexInRange(i, n);
+        FloatVector.fromArray(SPECIES, arr, a + i, tail).lanewise(op, FloatVector.fromArray(SPECIES, arr, b + i, tail)).intoArray(arr, dst + i, tail);
+    }
+
+    // Reductions. Each lane accumulates every SPECIES.length()'th element, then the lanes are combined in order.
+    // Not reduceLanes(), whose order is unspecified, so results could change between the interpreter and the JIT.
+    public static float sum(float[] arr, int a, int n) { return reduce(VectorOperators.ADD, 0f, (x, accum) -> x + accum, arr, a, n); }
+    public static float product(float[] arr, int a, int n) { return reduce(VectorOperators.MUL, 1f, (x, accum) -> x * accum, arr, a, n); }
+    public static float minElem(float[] arr, int a, int n) { return reduce(VectorOperators.MIN, Float.POSITIVE_INFINITY, Math::min, arr, a, n); }
+    public static float maxElem(float[] arr, int a, int n) { return reduce(VectorOperators.MAX, Float.NEGATIVE_INFINITY, Math::max, arr, a, n); }
+
+    private static float reduce(VectorOperators.Associative op, float initial, Combine combine, float[] arr, int a, int n) {
+        FloatVector accum = FloatVector.broadcast(SPECIES, initial);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length())
+            accum = accum.lanewise(op, FloatVector.fromArray(SPECIES, arr, a + i));
+        VectorMask<Float> tail = SPECIES.indexInRange(i, n);
+        accum = accum.lanewise(op, FloatVector.fromArray(SPECIES, arr, a + i, tail), tail);
+        return combineLanes(accum, initial, combine);
+    }
+
+    // Sum of a[i] * b[i], each lane a chain of fma like VecReduceFunctionBinary.DOT_PRODUCT
+    public static float dot(float[] arr, int a, int b, int n) {
+        FloatVector accum = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length())
+            accum = FloatVector.fromArray(SPECIES, arr, a + i).fma(FloatVector.fromArray(SPECIES, arr, b + i), accum);
+        VectorMask<Float> tail = SPECIES.indexInRange(i, n);
+        accum = accum.blend(FloatVector.fromArray(SPECIES, arr, a + i, tail).fma(FloatVector.fromArray(SPECIES, arr, b + i, tail), accum), tail);
+        return combineLanes(accum, 0f, (x, sum) -> x + sum);
+    }
+
+    // sqrt of the sum of (a[i] - b[i])^2, like VecReduceFunctionBinary.DISTANCE
+    public static float dist(float[] arr, int a, int b, int n) {
+        FloatVector accum = FloatVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            FloatVector diff = FloatVector.fromArray(SPECIES, arr, a + i).sub(FloatVector.fromArray(SPECIES, arr, b + i));
+            accum = diff.fma(diff, accum);
+        }
+        VectorMask<Float> tail = SPECIES.indexInRange(i, n);
+        FloatVector diff = FloatVector.fromArray(SPECIES, arr, a + i, tail).sub(FloatVector.fromArray(SPECIES, arr, b + i, tail));
+        accum = accum.blend(diff.fma(diff, accum), tail);
+        return (float) Math.sqrt(combineLanes(accum, 0f, (x, sum) -> x + sum));
+    }
+
+    private static float combineLanes(FloatVector accum, float initial, Combine combine) {
+        float result = initial;
+        for (int lane = 0; lane < SPECIES.length(); lane++)
+            result = combine.apply(accum.lane(lane), result);
+        return result;
+    }
+
+}